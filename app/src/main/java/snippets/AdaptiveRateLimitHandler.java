@@ -0,0 +1,276 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Paces requests with a token bucket per tenant and resource, so calls wait on
+// the client instead of being rejected by Graph. Each bucket's rate is
+// adjusted with AIMD: it grows by increasePerSecond for every second of
+// successful calls, is halved on a 429, and stops growing once Graph reports
+// through x-ms-throttle-limit-percentage that the limit is close. A
+// Retry-After on a 429 pauses the whole bucket, not only the call that was
+// throttled.
+public class AdaptiveRateLimitHandler implements Interceptor {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double NEAR_LIMIT_DECREASE_FACTOR = 0.9;
+    private static final double NEAR_LIMIT_PERCENTAGE = 0.8;
+    // Many calls in flight see the same throttling, only decrease once per
+    // interval, and do not increase again within an interval of a warning
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Bursts are limited to this much of the current rate so calls stay evenly paced
+    private static final double BURST_SECONDS = 0.1;
+    private static final int MAX_CACHED_TENANTS = 256;
+
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSecond;
+    private final Function<Request, String> keyFunction;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> tenantsByToken = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimitHandler() {
+        this(10, 0.5, 1000, 2);
+    }
+
+    public AdaptiveRateLimitHandler(double initialRate, double minRate, double maxRate,
+        double increasePerSecond) {
+        this(initialRate, minRate, maxRate, increasePerSecond, null);
+    }
+
+    // keyFunction picks the bucket for a request, by default the tenant of
+    // the access token and the resource from the URL path
+    public AdaptiveRateLimitHandler(double initialRate, double minRate, double maxRate,
+        double increasePerSecond, Function<Request, String> keyFunction) {
+        if (minRate <= 0 || initialRate < minRate || maxRate < initialRate
+            || increasePerSecond < 0) {
+            throw new IllegalArgumentException(
+                "Rates must satisfy 0 < minRate <= initialRate <= maxRate");
+        }
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSecond = increasePerSecond;
+        this.keyFunction = null == keyFunction ? this::getTenantAndResource : keyFunction;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String key = Objects.requireNonNull(keyFunction.apply(request));
+        final Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(k, initialRate));
+
+        final long waitNanos = bucket.reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            bucket.queued.increment();
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+            }
+        }
+
+        final Response response = chain.proceed(request);
+        bucket.onResponse(System.nanoTime(), response.code(),
+            getRetryAfterNanos(response.header("Retry-After")),
+            getLimitPercentage(response.header("x-ms-throttle-limit-percentage")));
+        return response;
+    }
+
+    public List<LimiterSnapshot> getSnapshot() {
+        final List<LimiterSnapshot> snapshot = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets.values()) {
+            snapshot.add(bucket.snapshot());
+        }
+        return snapshot;
+    }
+
+    private String getTenantAndResource(Request request) {
+        return getTenant(request.header("Authorization")) + ' '
+            + getResource(MetricsHandler.getPathTemplate(request.url().encodedPath()));
+    }
+
+    private String getTenant(String authorization) {
+        if (null == authorization || !authorization.startsWith("Bearer ")) {
+            return "anonymous";
+        }
+        final String token = authorization.substring("Bearer ".length());
+        final String cached = tenantsByToken.get(token);
+        if (null != cached) {
+            return cached;
+        }
+
+        String tenant = "unknown";
+        final String[] parts = token.split("\\.");
+        if (parts.length == 3) {
+            try {
+                final JsonElement tid = JsonParser.parseString(new String(
+                    Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8))
+                    .getAsJsonObject().get("tid");
+                if (null != tid) {
+                    tenant = tid.getAsString();
+                }
+            } catch (RuntimeException e) {
+                // Not a JWT, fall back to a single bucket for these tokens
+            }
+        }
+        if (tenantsByToken.size() >= MAX_CACHED_TENANTS) {
+            tenantsByToken.clear();
+        }
+        tenantsByToken.put(token, tenant);
+        return tenant;
+    }
+
+    // Graph limits are per service, so /users/{id}/messages and
+    // /me/messages share the "messages" bucket
+    static String getResource(String template) {
+        final String[] segments = template.split("/");
+        int i = 1;
+        if (i < segments.length && segments[i].equals("me")) {
+            i++;
+        } else if (i + 1 < segments.length && segments[i + 1].equals("{id}")
+            && (segments[i].equals("users") || segments[i].equals("groups"))) {
+            i += 2;
+        }
+        if (i >= segments.length) {
+            return segments.length > 1 ? segments[1] : "/";
+        }
+        return segments[i];
+    }
+
+    private static long getRetryAfterNanos(String retryAfter) {
+        if (null == retryAfter) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double getLimitPercentage(String limitPercentage) {
+        if (null == limitPercentage) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(limitPercentage.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static class LimiterSnapshot {
+        public final String key;
+        public final double rate;
+        public final long requests;
+        public final long queued;
+        public final long throttled;
+
+        private LimiterSnapshot(String key, double rate, long requests, long queued,
+            long throttled) {
+            this.key = key;
+            this.rate = rate;
+            this.requests = requests;
+            this.queued = queued;
+            this.throttled = throttled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s rate=%.1f/s requests=%d queued=%d throttled=%d",
+                key, rate, requests, queued, throttled);
+        }
+    }
+
+    private class Bucket {
+        private final String key;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder queued = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private double rate;
+        // Goes negative while calls are queued for tokens that do not exist yet
+        private double tokens;
+        // In the future while a Retry-After pause is in effect
+        private long lastRefillNanos = System.nanoTime();
+        private long lastDecreaseNanos = lastRefillNanos - DECREASE_INTERVAL_NANOS;
+        private long lastWarningNanos = lastRefillNanos - DECREASE_INTERVAL_NANOS;
+
+        private Bucket(String key, double rate) {
+            this.key = key;
+            this.rate = rate;
+            this.tokens = 1;
+        }
+
+        // Takes a token and returns how long the caller has to wait for it
+        private synchronized long reserve(long now) {
+            requests.increment();
+            refill(now);
+            tokens -= 1;
+            final long pauseNanos = Math.max(0, lastRefillNanos - now);
+            return tokens >= 0 ? pauseNanos : pauseNanos + (long) (-tokens / rate * 1e9);
+        }
+
+        private synchronized void onResponse(long now, int status, long retryAfterNanos,
+            double limitPercentage) {
+            if (status == 429 || (status == 503 && retryAfterNanos > 0)) {
+                throttled.increment();
+                lastWarningNanos = now;
+                decrease(now, DECREASE_FACTOR);
+                if (retryAfterNanos > 0) {
+                    refill(now);
+                    tokens = Math.min(tokens, 0);
+                    lastRefillNanos = Math.max(lastRefillNanos, now + retryAfterNanos);
+                }
+            } else if (limitPercentage >= NEAR_LIMIT_PERCENTAGE) {
+                lastWarningNanos = now;
+                if (limitPercentage >= 1.0) {
+                    decrease(now, NEAR_LIMIT_DECREASE_FACTOR);
+                }
+            } else if (status < 400 && now - lastWarningNanos >= DECREASE_INTERVAL_NANOS) {
+                // Adding increasePerSecond / rate per call adds increasePerSecond
+                // for every second of calls at the current rate
+                rate = Math.min(maxRate, rate + increasePerSecond / rate);
+            }
+        }
+
+        private void decrease(long now, double factor) {
+            if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+                rate = Math.max(minRate, rate * factor);
+                lastDecreaseNanos = now;
+            }
+        }
+
+        private void refill(long now) {
+            if (now > lastRefillNanos) {
+                tokens = Math.min(Math.max(1, rate * BURST_SECONDS),
+                    tokens + (now - lastRefillNanos) / 1e9 * rate);
+                lastRefillNanos = now;
+            }
+        }
+
+        private synchronized LimiterSnapshot snapshot() {
+            return new LimiterSnapshot(key, rate, requests.sum(), queued.sum(), throttled.sum());
+        }
+    }
+}
@@ -9,11 +9,14 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.Scanner;
 
+import com.microsoft.graph.core.requests.GraphClientFactory;
 import com.microsoft.graph.models.User;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
 import com.microsoft.graph.models.odataerrors.ODataError;
 import com.microsoft.kiota.ApiException;
 
+import okhttp3.OkHttpClient;
+
 public class App {
     public static Properties getProperties() {
         final Properties oAuthProperties = new Properties();
@@ -47,10 +50,12 @@ public class App {
             return;
         }
 
+        // Shared by the user client and the async samples
+        final OkHttpClient httpClient = GraphClientFactory.create().build();
         GraphServiceClient userClient;
         try {
             userClient = GraphHelper.getGraphClientForUser(properties,
-                challenge -> System.out.println(challenge.getMessage()));
+                challenge -> System.out.println(challenge.getMessage()), httpClient);
         } catch (Exception e) {
 
             System.out.println("Error initializing Graph for user auth");
@@ -73,6 +78,7 @@ public class App {
             System.out.println("2. Run create request samples");
             System.out.println("3. Run upload samples");
             System.out.println("4. Run paging samples");
+            System.out.println("5. Run async request samples");
 
             try {
                 choice = input.nextInt();
@@ -94,10 +100,13 @@ public class App {
                     CreateRequests.runSamples(userClient);
                     break;
                 case 3:
-                    LargeFileUpload.runSamples(userClient, largeFilePath);
+                    LargeFileUpload.runSamples(userClient, httpClient, largeFilePath);
                     break;
                 case 4:
-                    Paging.runAllSamples(userClient);
+                    Paging.runAllSamples(userClient, httpClient);
+                    break;
+                case 5:
+                    AsyncRequests.runSamples(userClient, httpClient);
                     break;
                 default:
                     System.out.println("Invalid choice");
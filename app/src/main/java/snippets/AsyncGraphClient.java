@@ -0,0 +1,318 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.google.gson.JsonParser;
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.core.models.IProgressCallback;
+import com.microsoft.graph.models.UploadSession;
+import com.microsoft.graph.models.odataerrors.ODataError;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.ApiExceptionBuilder;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.JsonParseNode;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Sends Graph requests with OkHttp's enqueue and returns CompletableFutures,
+// so no caller thread waits for a response or a token. Requests are built
+// with the usual request builders (toGetRequestInformation(),
+// toPostRequestInformation(...)), then authenticated by the
+// GraphServiceClient's authentication provider on a pool thread.
+//
+// httpClient must be the OkHttpClient the GraphServiceClient was created with
+// (new GraphServiceClient(authProvider, httpClient)), so calls share its
+// middleware and connection pool. They are run by a dispatcher of their own
+// on maxConcurrentRequests platform threads: an OkHttp call holds its thread
+// until the response headers arrive, so at most maxConcurrentRequests calls
+// are in flight and the rest wait in the dispatcher's queue. Virtual threads
+// would not raise that limit, OkHttp's HTTP/2 code waits in synchronized
+// blocks, which pins them (see FanOutExecutor). Responses are parsed on the
+// pool's threads. close() shuts the pool down.
+public class AsyncGraphClient implements AutoCloseable {
+    private final GraphServiceClient graphClient;
+    private final OkHttpClient httpClient;
+    private final ExecutorService executor;
+
+    public AsyncGraphClient(GraphServiceClient graphClient, OkHttpClient httpClient) {
+        this(graphClient, httpClient, 64);
+    }
+
+    public AsyncGraphClient(GraphServiceClient graphClient, OkHttpClient httpClient,
+        int maxConcurrentRequests) {
+        Objects.requireNonNull(httpClient);
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        }
+        this.graphClient = Objects.requireNonNull(graphClient);
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrentRequests, runnable -> {
+            final Thread thread = new Thread(runnable,
+                "async-graph-client-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequests(maxConcurrentRequests);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentRequests);
+        this.httpClient = httpClient.newBuilder().dispatcher(dispatcher).build();
+    }
+
+    // Calls still in flight complete, new ones are rejected
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // Reads and writes. Completes with null for responses without a body,
+    // such as the 204 of a DELETE, and fails with an ApiException (an
+    // ODataError when Graph returned one) for error responses.
+    public <T extends Parsable> CompletableFuture<T> send(RequestInformation requestInformation,
+        ParsableFactory<T> factory) {
+        Objects.requireNonNull(factory);
+        return enqueue(requestInformation).thenApply(response -> readBody(response, factory));
+    }
+
+    public CompletableFuture<Void> sendNoContent(RequestInformation requestInformation) {
+        return enqueue(requestInformation).thenAccept(response -> readBody(response, null));
+    }
+
+    public CompletableFuture<BatchResponseContent> sendBatch(
+        BatchRequestContent batchRequestContent) {
+        final RequestInformation requestInformation;
+        try {
+            requestInformation = graphClient.getBatchRequestBuilder()
+                .toPostRequestInformation(batchRequestContent);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return enqueue(requestInformation).thenApply(response -> {
+            if (!response.isSuccessful()) {
+                throw getApiException(response);
+            }
+            return new BatchResponseContent(response);
+        });
+    }
+
+    // Requests each page once pageCallback has returned for the previous one,
+    // until the last page or until pageCallback returns false. Completes with
+    // the number of pages read.
+    public <TCollectionPage extends Parsable> CompletableFuture<Integer> iteratePages(
+        RequestInformation requestInformation, ParsableFactory<TCollectionPage> collectionPageFactory,
+        Function<TCollectionPage, Boolean> pageCallback) {
+        return iteratePages(requestInformation, collectionPageFactory, pageCallback, null);
+    }
+
+    // requestConfigurator is applied to the request for every page after the
+    // first, for example to carry headers such as Prefer or ConsistencyLevel
+    public <TCollectionPage extends Parsable> CompletableFuture<Integer> iteratePages(
+        RequestInformation requestInformation, ParsableFactory<TCollectionPage> collectionPageFactory,
+        Function<TCollectionPage, Boolean> pageCallback,
+        UnaryOperator<RequestInformation> requestConfigurator) {
+        Objects.requireNonNull(pageCallback);
+        return send(requestInformation, collectionPageFactory).thenCompose(page -> onPage(page,
+            collectionPageFactory, pageCallback, requestConfigurator, 1));
+    }
+
+    // Sends the file to an upload session in slices of maxSliceSize bytes,
+    // starting at the first of the session's nextExpectedRanges, and reports
+    // progress after every slice. Completes with the created item.
+    public <T extends Parsable> CompletableFuture<T> upload(UploadSession uploadSession,
+        Path filePath, int maxSliceSize, IProgressCallback progress, ParsableFactory<T> factory) {
+        Objects.requireNonNull(factory);
+        if (maxSliceSize < 1) {
+            throw new IllegalArgumentException("maxSliceSize must be at least 1");
+        }
+
+        final FileChannel channel;
+        final long fileSize;
+        try {
+            channel = FileChannel.open(filePath, StandardOpenOption.READ);
+            fileSize = channel.size();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        final String uploadUrl = Objects.requireNonNull(uploadSession.getUploadUrl());
+        final CompletableFuture<T> result = uploadFrom(uploadUrl, channel, getNextStart(
+            uploadSession.getNextExpectedRanges(), 0), fileSize, maxSliceSize, progress, factory);
+        return result.whenComplete((item, error) -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing was written to the channel
+            }
+        });
+    }
+
+    private <TCollectionPage extends Parsable> CompletableFuture<Integer> onPage(
+        TCollectionPage page, ParsableFactory<TCollectionPage> collectionPageFactory,
+        Function<TCollectionPage, Boolean> pageCallback,
+        UnaryOperator<RequestInformation> requestConfigurator, int pageCount) {
+        final String nextLink;
+        try {
+            if (null == page || !pageCallback.apply(page)) {
+                return CompletableFuture.completedFuture(pageCount);
+            }
+            nextLink = PrefetchingPageIterator.getNextLink(page);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (null == nextLink || nextLink.isBlank()) {
+            return CompletableFuture.completedFuture(pageCount);
+        }
+
+        RequestInformation nextPageRequest = new RequestInformation();
+        nextPageRequest.httpMethod = HttpMethod.GET;
+        nextPageRequest.urlTemplate = nextLink;
+        if (null != requestConfigurator) {
+            nextPageRequest = requestConfigurator.apply(nextPageRequest);
+        }
+        return send(nextPageRequest, collectionPageFactory).thenCompose(nextPage -> onPage(
+            nextPage, collectionPageFactory, pageCallback, requestConfigurator, pageCount + 1));
+    }
+
+    private <T extends Parsable> CompletableFuture<T> uploadFrom(String uploadUrl,
+        FileChannel channel, long start, long fileSize, int maxSliceSize,
+        IProgressCallback progress, ParsableFactory<T> factory) {
+        final long length = Math.min(maxSliceSize, fileSize - start);
+        // Upload URLs are pre-authenticated, so the slices are sent without a token
+        final Request request = new Request.Builder()
+            .url(uploadUrl)
+            .header("Content-Range", String.format("bytes %d-%d/%d", start, start + length - 1,
+                fileSize))
+            .put(new FileChannelRequestBody(channel, start, length))
+            .build();
+
+        return enqueue(request).thenCompose(response -> {
+            if (response.code() != 202) {
+                // 200 or 201 with the created item once every byte is received
+                final T item = readBody(response, factory);
+                if (null != progress) {
+                    progress.report(fileSize, fileSize);
+                }
+                return CompletableFuture.completedFuture(item);
+            }
+
+            final UploadSession session = readBody(response,
+                UploadSession::createFromDiscriminatorValue);
+            final long next = getNextStart(null == session ? null : session.getNextExpectedRanges(),
+                start + length);
+            if (null != progress) {
+                progress.report(next, fileSize);
+            }
+            return uploadFrom(uploadUrl, channel, next, fileSize, maxSliceSize, progress,
+                factory);
+        });
+    }
+
+    private CompletableFuture<Response> enqueue(RequestInformation requestInformation) {
+        // convertToNativeRequest gets the token, which can mean a call to the
+        // identity provider, so it runs on the pool rather than the caller
+        return CompletableFuture.supplyAsync(() -> {
+            // The request adapter sets the base URL when it sends a request,
+            // convertToNativeRequest leaves it to the caller
+            requestInformation.pathParameters.put("baseurl",
+                graphClient.getRequestAdapter().getBaseUrl());
+            final Request request =
+                graphClient.getRequestAdapter().convertToNativeRequest(requestInformation);
+            return request;
+        }, executor).thenCompose(this::enqueue);
+    }
+
+    private CompletableFuture<Response> enqueue(Request request) {
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        final Call call = httpClient.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        // Cancelling the future cancels the call
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    private static <T extends Parsable> T readBody(Response response, ParsableFactory<T> factory) {
+        try (response) {
+            if (!response.isSuccessful()) {
+                throw getApiException(response);
+            }
+            final ResponseBody body = response.body();
+            if (null == factory || null == body || response.code() == 204
+                || body.source().exhausted()) {
+                return null;
+            }
+            return new JsonParseNode(JsonParser.parseReader(body.charStream()))
+                .getObjectValue(factory);
+        } catch (IOException e) {
+            throw new ApiExceptionBuilder().withMessage("Could not read the response")
+                .withThrowable(e).withResponseStatusCode(response.code()).build();
+        }
+    }
+
+    private static ApiException getApiException(Response response) {
+        final ResponseBody body = response.body();
+        try {
+            if (null != body && !body.source().exhausted()) {
+                final ODataError error = new JsonParseNode(JsonParser.parseReader(
+                    body.charStream())).getObjectValue(ODataError::createFromDiscriminatorValue);
+                return new ApiExceptionBuilder(() -> error)
+                    .withResponseStatusCode(response.code()).build();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not an OData error, fall back to the status code
+        } finally {
+            response.close();
+        }
+        return new ApiExceptionBuilder()
+            .withMessage("The server returned an unexpected status code: " + response.code())
+            .withResponseStatusCode(response.code()).build();
+    }
+
+    private static long getNextStart(List<String> nextExpectedRanges, long defaultStart) {
+        if (null == nextExpectedRanges || nextExpectedRanges.isEmpty()) {
+            return defaultStart;
+        }
+        // Ranges look like "start-end" or "start-"
+        final String range = nextExpectedRanges.get(0);
+        return Long.parseLong(range.substring(0, range.indexOf('-')));
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.User;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.OkHttpClient;
+
+public class AsyncRequests {
+    // httpClient is the OkHttpClient graphClient was created with
+    public static void runSamples(GraphServiceClient graphClient, OkHttpClient httpClient)
+        throws Exception {
+        try (AsyncGraphClient asyncClient = new AsyncGraphClient(graphClient, httpClient)) {
+            makeAsyncReadRequest(asyncClient, graphClient).join();
+            final Message createdMessage = makeAsyncCreateRequest(asyncClient, graphClient).join();
+            makeAsyncDeleteRequest(asyncClient, graphClient, createdMessage.getId()).join();
+            makeAsyncFanOutRequests(asyncClient, graphClient).join();
+            makeAsyncBatchRequest(asyncClient, graphClient).join();
+            iterateMessagesAsync(asyncClient, graphClient).join();
+        }
+    }
+
+    private static CompletableFuture<Void> makeAsyncReadRequest(AsyncGraphClient asyncClient,
+        GraphServiceClient graphClient) {
+        // <AsyncReadRequestSnippet>
+        // GET https://graph.microsoft.com/v1.0/me
+        // The request is built as usual, but sent without blocking this thread
+        final CompletableFuture<User> user = asyncClient.send(
+            graphClient.me().toGetRequestInformation(), User::createFromDiscriminatorValue);
+
+        final CompletableFuture<Void> greeted = user.thenAccept(
+            me -> System.out.println("Hello " + me.getDisplayName() + "!"));
+        // </AsyncReadRequestSnippet>
+
+        return greeted;
+    }
+
+    private static CompletableFuture<Message> makeAsyncCreateRequest(
+        AsyncGraphClient asyncClient, GraphServiceClient graphClient) {
+        // <AsyncCreateRequestSnippet>
+        // POST https://graph.microsoft.com/v1.0/me/messages
+        final Message message = new Message();
+        message.setSubject("Temporary");
+
+        final CompletableFuture<Message> createdMessage = asyncClient.send(
+            graphClient.me().messages().toPostRequestInformation(message),
+            Message::createFromDiscriminatorValue);
+        // </AsyncCreateRequestSnippet>
+
+        return createdMessage;
+    }
+
+    private static CompletableFuture<Void> makeAsyncDeleteRequest(AsyncGraphClient asyncClient,
+        GraphServiceClient graphClient, String messageId) {
+        // <AsyncDeleteRequestSnippet>
+        // DELETE https://graph.microsoft.com/v1.0/me/messages/{message-id}
+        // messageId is a string containing the id property of the message
+        final CompletableFuture<Void> deleted = asyncClient.sendNoContent(
+            graphClient.me().messages().byMessageId(messageId).toDeleteRequestInformation());
+        // </AsyncDeleteRequestSnippet>
+
+        return deleted;
+    }
+
+    private static CompletableFuture<Void> makeAsyncFanOutRequests(AsyncGraphClient asyncClient,
+        GraphServiceClient graphClient) {
+        // <AsyncFanOutRequestsSnippet>
+        // GET https://graph.microsoft.com/v1.0/me/messages?$select=id&$top=50
+        // then GET https://graph.microsoft.com/v1.0/me/messages/{message-id} for each
+        // message, all in flight at once
+        final CompletableFuture<Void> subjects = asyncClient.send(
+            graphClient.me().messages().toGetRequestInformation( requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"id"};
+                requestConfiguration.queryParameters.top = 50;
+            }), MessageCollectionResponse::createFromDiscriminatorValue)
+            .thenCompose(messages -> {
+                final List<CompletableFuture<Message>> futures = new ArrayList<>();
+                for (Message message : Objects.requireNonNull(messages.getValue())) {
+                    futures.add(asyncClient.send(graphClient.me().messages()
+                        .byMessageId(message.getId()).toGetRequestInformation(),
+                        Message::createFromDiscriminatorValue));
+                }
+                return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> futures.forEach(
+                        future -> System.out.println(future.join().getSubject())));
+            });
+        // </AsyncFanOutRequestsSnippet>
+
+        return subjects;
+    }
+
+    private static CompletableFuture<Void> makeAsyncBatchRequest(AsyncGraphClient asyncClient,
+        GraphServiceClient graphClient) {
+        // <AsyncBatchSnippet>
+        final BatchRequestContent batchRequestContent = new BatchRequestContent(graphClient);
+        final String meRequestId = batchRequestContent
+            .addBatchRequestStep(graphClient.me().toGetRequestInformation());
+
+        final CompletableFuture<Void> batch = asyncClient.sendBatch(batchRequestContent)
+            .thenAccept(batchResponseContent -> {
+                try {
+                    final User me = batchResponseContent.getResponseById(meRequestId,
+                        User::createFromDiscriminatorValue);
+                    System.out.println(String.format("Hello %s!", me.getDisplayName()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        // </AsyncBatchSnippet>
+
+        return batch;
+    }
+
+    private static CompletableFuture<Void> iterateMessagesAsync(AsyncGraphClient asyncClient,
+        GraphServiceClient graphClient) {
+        // <AsyncPagingSnippet>
+        // Each page is requested once the callback has returned for the
+        // previous one; no thread waits in between
+        final CompletableFuture<Integer> pageCount = asyncClient.iteratePages(
+            graphClient.me().messages().toGetRequestInformation( requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"subject"};
+                requestConfiguration.queryParameters.top = 50;
+            }),
+            MessageCollectionResponse::createFromDiscriminatorValue,
+            page -> {
+                for (Message message : Objects.requireNonNull(page.getValue())) {
+                    System.out.println(message.getSubject());
+                }
+                // Return false to stop before the next page
+                return true;
+            });
+
+        final CompletableFuture<Void> done = pageCount.thenAccept(
+            pages -> System.out.println(String.format("Read %d pages", pages)));
+        // </AsyncPagingSnippet>
+
+        return done;
+    }
+}
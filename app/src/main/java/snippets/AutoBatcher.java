@@ -0,0 +1,250 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.core.models.BatchRequestStep;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+import okhttp3.Response;
+
+// Collects individual requests from any number of threads and sends them
+// together as one /$batch call, DataLoader style. A batch is sent once it has
+// maxBatchSize requests or maxDelay after its first request, whichever comes
+// first, and each caller's future completes with its own step's response.
+// maxDelay is the latency added to a request in the worst case in exchange
+// for fewer round trips; getStats() reports both sides.
+public class AutoBatcher implements AutoCloseable {
+    private final GraphServiceClient graphClient;
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+    private final Object lock = new Object();
+    private List<PendingRequest<?>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public AutoBatcher(GraphServiceClient graphClient) {
+        this(graphClient, Duration.ofMillis(5), BatchExecutor.MAX_STEPS_PER_BATCH);
+    }
+
+    public AutoBatcher(GraphServiceClient graphClient, Duration maxDelay, int maxBatchSize) {
+        this.graphClient = Objects.requireNonNull(graphClient);
+        if (maxBatchSize < 1 || maxBatchSize > BatchExecutor.MAX_STEPS_PER_BATCH) {
+            throw new IllegalArgumentException(String.format(
+                "maxBatchSize must be between 1 and %d", BatchExecutor.MAX_STEPS_PER_BATCH));
+        }
+        if (maxDelay.isNegative()) {
+            throw new IllegalArgumentException("maxDelay cannot be negative");
+        }
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "auto-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // For example submit(graphClient.me().messages().byMessageId(id).toGetRequestInformation(),
+    // Message::createFromDiscriminatorValue). The future fails with the step's
+    // error when the step did not succeed.
+    public <T extends Parsable> CompletableFuture<T> submit(RequestInformation requestInformation,
+        ParsableFactory<T> factory) throws IOException {
+        Objects.requireNonNull(factory);
+        return enqueue(requestInformation, (batchResponse, requestId) ->
+            batchResponse.getResponseById(requestId, factory));
+    }
+
+    // Completes with the step's response whatever its status code
+    public CompletableFuture<Response> submit(RequestInformation requestInformation)
+        throws IOException {
+        return enqueue(requestInformation, BatchResponseContent::getResponseById);
+    }
+
+    // Sends the requests collected so far without waiting for the window to end
+    public void flush() {
+        final List<PendingRequest<?>> batch;
+        synchronized (lock) {
+            batch = takePending();
+        }
+        send(batch);
+    }
+
+    public BatcherStats getStats() {
+        final long requestCount = requests.sum();
+        final long batchCount = batches.sum();
+        return new BatcherStats(requestCount, batchCount, failedBatches.sum(),
+            0 == requestCount ? 0 : waitNanos.sum() / requestCount / 1000,
+            maxWaitNanos.get() / 1000);
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        timer.shutdownNow();
+        sender.close();
+    }
+
+    private <T> CompletableFuture<T> enqueue(RequestInformation requestInformation,
+        StepReader<T> reader) throws IOException {
+        final PendingRequest<T> request = new PendingRequest<>(new BatchRequestStep(
+            UUID.randomUUID().toString(), graphClient.getRequestAdapter()
+                .convertToNativeRequest(Objects.requireNonNull(requestInformation))), reader);
+        requests.increment();
+
+        List<PendingRequest<?>> fullBatch = null;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The batcher is closed");
+            }
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = takePending();
+            } else if (null == scheduledFlush) {
+                scheduledFlush = timer.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (null != fullBatch) {
+            send(fullBatch);
+        }
+        return request.future;
+    }
+
+    // Called with lock held
+    private List<PendingRequest<?>> takePending() {
+        if (null != scheduledFlush) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        final List<PendingRequest<?>> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        return batch;
+    }
+
+    private void send(List<PendingRequest<?>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (PendingRequest<?> request : batch) {
+            final long waited = now - request.enqueuedNanos;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+        batches.increment();
+        sender.execute(() -> post(batch));
+    }
+
+    private void post(List<PendingRequest<?>> batch) {
+        final BatchResponseContent batchResponse;
+        try {
+            final BatchRequestContent batchRequestContent = new BatchRequestContent(graphClient);
+            for (PendingRequest<?> request : batch) {
+                batchRequestContent.addBatchRequestStep(request.step);
+            }
+            batchResponse = Objects.requireNonNull(
+                graphClient.getBatchRequestBuilder().post(batchRequestContent, null));
+        } catch (IOException | RuntimeException e) {
+            failedBatches.increment();
+            for (PendingRequest<?> request : batch) {
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingRequest<?> request : batch) {
+            request.complete(batchResponse);
+        }
+    }
+
+    public static class BatcherStats {
+        public final long requests;
+        public final long batches;
+        public final long failedBatches;
+        // Time requests spent waiting for their batch to be sent
+        public final long meanWaitMicros;
+        public final long maxWaitMicros;
+
+        private BatcherStats(long requests, long batches, long failedBatches,
+            long meanWaitMicros, long maxWaitMicros) {
+            this.requests = requests;
+            this.batches = batches;
+            this.failedBatches = failedBatches;
+            this.meanWaitMicros = meanWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+        }
+
+        // Round trips avoided by sending requests together
+        public long getCallsSaved() {
+            return requests - batches;
+        }
+
+        public double getMeanBatchSize() {
+            return 0 == batches ? 0 : (double) requests / batches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "requests=%d batches=%d meanBatchSize=%.1f callsSaved=%d failedBatches=%d "
+                    + "meanWait=%dus maxWait=%dus",
+                requests, batches, getMeanBatchSize(), getCallsSaved(), failedBatches,
+                meanWaitMicros, maxWaitMicros);
+        }
+    }
+
+    private interface StepReader<T> {
+        T read(BatchResponseContent batchResponse, String requestId) throws IOException;
+    }
+
+    private static class PendingRequest<T> {
+        private final BatchRequestStep step;
+        private final StepReader<T> reader;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+
+        private PendingRequest(BatchRequestStep step, StepReader<T> reader) {
+            this.step = step;
+            this.reader = reader;
+        }
+
+        private void complete(BatchResponseContent batchResponse) {
+            try {
+                future.complete(reader.read(batchResponse, step.getRequestId()));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,551 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.microsoft.graph.core.requests.BaseGraphRequestAdapter;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.TriConsumer;
+import com.microsoft.kiota.authentication.AuthenticationProvider;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParseNode;
+import com.microsoft.kiota.serialization.ParseNodeFactory;
+import com.microsoft.kiota.serialization.ParseNodeFactoryRegistry;
+import com.microsoft.kiota.store.BackedModel;
+import com.microsoft.kiota.store.BackingStore;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Adds a $select to GET requests that were sent without one, listing only the
+// properties the calling code reads. Requests are grouped by call site, the
+// first frame on the stack outside the Graph SDK, Kiota, OkHttp and the JDK,
+// so graphClient.me().messages().get() in two methods is profiled twice;
+// finding it costs one stack walk per GET. The first profiledCalls responses
+// of a call site are left untouched: the property names they contain are
+// noted, and the entities deserialized from them record which properties
+// their getters return. Later requests from that call site select the
+// recorded properties and the id.
+//
+// Reading a property that was not selected returns null, since the entity
+// was fetched without it. The miss is counted in getStats() and the call site
+// goes back to full entities for its next profiledCalls requests, then
+// selects again with that property. Code that reads different properties
+// depending on the data can see such a null once per property.
+//
+// Only the GraphServiceClient returned by createClient is profiled. Its
+// request adapter deserializes through a ParseNodeFactory of this handler:
+// once the root model of a profiled or selected response is complete, the
+// backing store of that entity, or of each entity of a collection page, is
+// wrapped in one that reports reads. Kiota generates every backed model with
+// a protected backingStore field, which is where the wrapper is set; a model
+// without one is not recorded and its call site keeps sending full requests.
+// BackingStoreFactorySingleton and other clients are left alone. A response
+// is matched to its request on the thread that sent it, so the synchronous
+// graphClient calls are profiled and other requests pass through unchanged.
+public class AutoSelectHandler implements Interceptor {
+    // Learning responses larger than this are not profiled
+    private static final long MAX_PROFILED_BODY_BYTES = 4 * 1024 * 1024;
+    private static final String[] PASS_THROUGH_PARAMETERS = {"$select", "$skiptoken",
+        "$deltatoken"};
+    private static final String[] INFRASTRUCTURE_PACKAGES = {"java.", "javax.", "jdk.", "sun.",
+        "kotlin.", "okhttp3.", "okio.", "io.opentelemetry.", "com.microsoft.kiota.",
+        "com.microsoft.graph."};
+    private static final ThreadLocal<ResponseScope> CURRENT_RESPONSE = new ThreadLocal<>();
+    // The backingStore field of each model class, or null when it has none
+    private static final ClassValue<Field> BACKING_STORE_FIELDS = new ClassValue<>() {
+        @Override
+        protected Field computeValue(Class<?> modelClass) {
+            for (Class<?> type = modelClass; null != type; type = type.getSuperclass()) {
+                try {
+                    final Field field = type.getDeclaredField("backingStore");
+                    if (!BackingStore.class.equals(field.getType())) {
+                        return null;
+                    }
+                    field.setAccessible(true);
+                    return field;
+                } catch (NoSuchFieldException e) {
+                    // Declared by a superclass
+                } catch (RuntimeException e) {
+                    // Not accessible from here
+                    return null;
+                }
+            }
+            return null;
+        }
+    };
+
+    private final int profiledCalls;
+    private final ConcurrentHashMap<String, CallSiteProfile> profiles = new ConcurrentHashMap<>();
+
+    private final LongAdder profiledResponses = new LongAdder();
+    private final LongAdder selectedRequests = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public AutoSelectHandler() {
+        this(3);
+    }
+
+    public AutoSelectHandler(int profiledCalls) {
+        if (profiledCalls < 1) {
+            throw new IllegalArgumentException("profiledCalls must be at least 1");
+        }
+        this.profiledCalls = profiledCalls;
+    }
+
+    // A client whose responses are profiled. httpClient must have this
+    // handler among its interceptors.
+    public GraphServiceClient createClient(AuthenticationProvider authProvider,
+        OkHttpClient httpClient) {
+        Objects.requireNonNull(authProvider);
+        if (!httpClient.interceptors().contains(this)) {
+            throw new IllegalArgumentException(
+                "httpClient must have this handler as an interceptor");
+        }
+        return new GraphServiceClient(new BaseGraphRequestAdapter(authProvider,
+            new RecordingParseNodeFactory(ParseNodeFactoryRegistry.defaultInstance), null,
+            httpClient, null, null));
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        CURRENT_RESPONSE.remove();
+        final Request request = chain.request();
+        if (!request.method().equals("GET") || hasPassThroughParameter(request.url())) {
+            return chain.proceed(request);
+        }
+        final Optional<String> callSite = getCallSite();
+        if (callSite.isEmpty()) {
+            return chain.proceed(request);
+        }
+
+        final CallSiteProfile profile = profiles.computeIfAbsent(callSite.get(),
+            CallSiteProfile::new);
+        final Set<String> select = profile.getSelect(profiledCalls);
+        if (null == select) {
+            final Response response = chain.proceed(request);
+            if (!isJson(response)) {
+                return response;
+            }
+            final ResponseBody peeked = response.peekBody(MAX_PROFILED_BODY_BYTES + 1);
+            if (peeked.contentLength() > MAX_PROFILED_BODY_BYTES) {
+                return response;
+            }
+            final ResponseShape shape = readShape(peeked);
+            if (null == shape) {
+                return response;
+            }
+            profile.addProperties(shape);
+            CURRENT_RESPONSE.set(new ResponseScope(profile, null, shape));
+            return response;
+        }
+
+        selectedRequests.increment();
+        final HttpUrl selectedUrl = request.url().newBuilder()
+            .addQueryParameter("$select", String.join(",", select))
+            .build();
+        final Response response = chain.proceed(request.newBuilder().url(selectedUrl).build());
+        if (isJson(response)) {
+            CURRENT_RESPONSE.set(new ResponseScope(profile, select, null));
+        }
+        return response;
+    }
+
+    public AutoSelectStats getStats() {
+        return new AutoSelectStats(profiles.size(), profiledResponses.sum(),
+            selectedRequests.sum(), misses.sum());
+    }
+
+    // The $select used for each call site, or null while it is being profiled
+    public Map<String, String> getSelects() {
+        final Map<String, String> selects = new TreeMap<>();
+        for (CallSiteProfile profile : profiles.values()) {
+            final Set<String> select = profile.getCurrentSelect();
+            selects.put(profile.callSite, null == select ? null : String.join(",", select));
+        }
+        return selects;
+    }
+
+    // Forgets every call site, so they are profiled again
+    public void reset() {
+        profiles.clear();
+    }
+
+    public static class AutoSelectStats {
+        public final int callSites;
+        public final long profiledResponses;
+        public final long selectedRequests;
+        // Reads of a property that had not been selected
+        public final long misses;
+
+        private AutoSelectStats(int callSites, long profiledResponses, long selectedRequests,
+            long misses) {
+            this.callSites = callSites;
+            this.profiledResponses = profiledResponses;
+            this.selectedRequests = selectedRequests;
+            this.misses = misses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("callSites=%d profiledResponses=%d selectedRequests=%d misses=%d",
+                callSites, profiledResponses, selectedRequests, misses);
+        }
+    }
+
+    private static boolean hasPassThroughParameter(HttpUrl url) {
+        for (String name : PASS_THROUGH_PARAMETERS) {
+            if (null != url.queryParameter(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Optional<String> getCallSite() {
+        return StackWalker.getInstance().walk(frames -> frames
+            .filter(frame -> !frame.getClassName().equals(AutoSelectHandler.class.getName())
+                && !isInfrastructure(frame.getClassName()))
+            .findFirst()
+            .map(frame -> frame.getClassName() + '.' + frame.getMethodName() + ':'
+                + frame.getLineNumber()));
+    }
+
+    private static boolean isInfrastructure(String className) {
+        for (String prefix : INFRASTRUCTURE_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isJson(Response response) {
+        final ResponseBody body = response.body();
+        return response.code() == 200 && null != body && null != body.contentType()
+            && body.contentType().subtype().contains("json");
+    }
+
+    // The property names of the entity in the body, or of the entities in
+    // value[] for a collection page. Annotations such as @odata.etag are left
+    // out since they cannot be selected. Null when the body is not an object.
+    private static ResponseShape readShape(ResponseBody body) throws IOException {
+        final Set<String> rootNames = new TreeSet<>();
+        final Set<String> itemNames = new TreeSet<>();
+        boolean hasValueArray = false;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body.byteStream(),
+            StandardCharsets.UTF_8))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (name.equals("value") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    hasValueArray = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readNames(reader, itemNames);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+                rootNames.add(name);
+            }
+        }
+        // A page holds nothing but value[] and annotations
+        final boolean collection = hasValueArray && rootNames.stream()
+            .allMatch(name -> name.equals("value") || name.contains("@"));
+        if (!collection) {
+            rootNames.removeIf(name -> name.contains("@"));
+            return new ResponseShape(false, rootNames);
+        }
+        return new ResponseShape(true, itemNames);
+    }
+
+    private static void readNames(JsonReader reader, Set<String> names) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (!name.contains("@")) {
+                names.add(name);
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    // Called once the root model of a profiled or selected response is
+    // deserialized: the entity, or each entity of a collection page, reports
+    // its reads from now on
+    private void onRootDeserialized(ResponseScope scope, Parsable root) {
+        boolean recorded = false;
+        if (scope.profile.collection && root instanceof BackedModel) {
+            final Object items = ((BackedModel) root).getBackingStore().get("value");
+            if (items instanceof List && !((List<?>) items).isEmpty()) {
+                recorded = true;
+                for (Object item : (List<?>) items) {
+                    recorded &= record(item, scope);
+                }
+            }
+        } else if (!scope.profile.collection) {
+            recorded = record(root, scope);
+        }
+        // A response whose entities cannot report their reads would leave
+        // the call site selecting nothing but the id
+        if (recorded && null != scope.shape) {
+            scope.profile.addProfiledResponse();
+            profiledResponses.increment();
+        }
+    }
+
+    private static boolean record(Object model, ResponseScope scope) {
+        if (!(model instanceof BackedModel)) {
+            return false;
+        }
+        final Field field = BACKING_STORE_FIELDS.get(model.getClass());
+        if (null == field) {
+            return false;
+        }
+        try {
+            field.set(model, new RecordingBackingStore(((BackedModel) model).getBackingStore(),
+                scope));
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    private static class ResponseShape {
+        private final boolean collection;
+        private final Set<String> properties;
+
+        private ResponseShape(boolean collection, Set<String> properties) {
+            this.collection = collection;
+            this.properties = properties;
+        }
+    }
+
+    private static class CallSiteProfile {
+        private final String callSite;
+        // Properties seen in the unselected responses; only these are selected
+        private final Set<String> properties = ConcurrentHashMap.newKeySet();
+        private final Set<String> read = ConcurrentHashMap.newKeySet();
+        private volatile boolean collection;
+        private int profiled;
+        private Set<String> select;
+
+        private CallSiteProfile(String callSite) {
+            this.callSite = callSite;
+        }
+
+        private void addProperties(ResponseShape shape) {
+            properties.addAll(shape.properties);
+            collection = shape.collection;
+        }
+
+        // Counted once its entities record their reads
+        private synchronized void addProfiledResponse() {
+            profiled++;
+        }
+
+        // Null while the call site is still profiled or when selecting would
+        // not leave anything out
+        private synchronized Set<String> getSelect(int profiledCalls) {
+            if (null == select && profiled >= profiledCalls && !properties.isEmpty()) {
+                final Set<String> selected = new TreeSet<>(read);
+                selected.retainAll(properties);
+                selected.add("id");
+                if (selected.containsAll(properties)) {
+                    return null;
+                }
+                select = Collections.unmodifiableSet(selected);
+            }
+            return select;
+        }
+
+        private synchronized Set<String> getCurrentSelect() {
+            return select;
+        }
+
+        // Back to full entities after a read of a property that selected left
+        // out; the read is kept, so the next $select has the property
+        private synchronized boolean reprofile(Set<String> selected) {
+            if (select != selected) {
+                return false;
+            }
+            select = null;
+            profiled = 0;
+            return true;
+        }
+    }
+
+    private class ResponseScope {
+        private final CallSiteProfile profile;
+        // Null for a response that was not selected
+        private final Set<String> select;
+        // Null for a selected response
+        private final ResponseShape shape;
+
+        private ResponseScope(CallSiteProfile profile, Set<String> select, ResponseShape shape) {
+            this.profile = profile;
+            this.select = select;
+            this.shape = shape;
+        }
+
+        private void onGet(String key, Object value) {
+            profile.read.add(key);
+            if (null == select || null != value || select.contains(key)
+                || !profile.properties.contains(key)) {
+                return;
+            }
+            misses.increment();
+            profile.reprofile(select);
+        }
+    }
+
+    // Hands the response's scope to the parse node of its body, which reports
+    // when the root model is complete. The parse node runs the callbacks
+    // before and after the fields of every model, nested ones included.
+    private class RecordingParseNodeFactory implements ParseNodeFactory {
+        private final ParseNodeFactory delegate;
+
+        private RecordingParseNodeFactory(ParseNodeFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getValidContentType() {
+            return delegate.getValidContentType();
+        }
+
+        @Override
+        public ParseNode getParseNode(String contentType, InputStream rawResponse) {
+            final ParseNode parseNode = delegate.getParseNode(contentType, rawResponse);
+            final ResponseScope scope = CURRENT_RESPONSE.get();
+            CURRENT_RESPONSE.remove();
+            if (null == scope) {
+                return parseNode;
+            }
+            final int[] depth = {0};
+            final Consumer<Parsable> onBefore = parseNode.getOnBeforeAssignFieldValues();
+            final Consumer<Parsable> onAfter = parseNode.getOnAfterAssignFieldValues();
+            parseNode.setOnBeforeAssignFieldValues(model -> {
+                depth[0]++;
+                if (null != onBefore) {
+                    onBefore.accept(model);
+                }
+            });
+            parseNode.setOnAfterAssignFieldValues(model -> {
+                if (null != onAfter) {
+                    onAfter.accept(model);
+                }
+                if (--depth[0] == 0) {
+                    onRootDeserialized(scope, model);
+                }
+            });
+            return parseNode;
+        }
+    }
+
+    // Passes everything to the entity's own store, and reports its reads
+    private static class RecordingBackingStore implements BackingStore {
+        private final BackingStore delegate;
+        private final ResponseScope scope;
+
+        private RecordingBackingStore(BackingStore delegate, ResponseScope scope) {
+            this.delegate = delegate;
+            this.scope = scope;
+        }
+
+        @Override
+        public <T> T get(String key) {
+            final T value = delegate.get(key);
+            scope.onGet(key, value);
+            return value;
+        }
+
+        @Override
+        public <T> void set(String key, T value) {
+            delegate.set(key, value);
+        }
+
+        @Override
+        public Map<String, Object> enumerate() {
+            return delegate.enumerate();
+        }
+
+        @Override
+        public Iterable<String> enumerateKeysForValuesChangedToNull() {
+            return delegate.enumerateKeysForValuesChangedToNull();
+        }
+
+        @Override
+        public String subscribe(TriConsumer<String, Object, Object> callback) {
+            return delegate.subscribe(callback);
+        }
+
+        @Override
+        public void subscribe(String subscriptionId, TriConsumer<String, Object, Object> callback) {
+            delegate.subscribe(subscriptionId, callback);
+        }
+
+        @Override
+        public void unsubscribe(String subscriptionId) {
+            delegate.unsubscribe(subscriptionId);
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public void setIsInitializationCompleted(boolean value) {
+            delegate.setIsInitializationCompleted(value);
+        }
+
+        @Override
+        public boolean getIsInitializationCompleted() {
+            return delegate.getIsInitializationCompleted();
+        }
+
+        @Override
+        public void setReturnOnlyChangedValues(boolean value) {
+            delegate.setReturnOnlyChangedValues(value);
+        }
+
+        @Override
+        public boolean getReturnOnlyChangedValues() {
+            return delegate.getReturnOnlyChangedValues();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.core.models.BatchRequestStep;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+// Splits any number of requests into /$batch payloads of at most 20 steps,
+// keeping dependsOn chains together, and posts the payloads concurrently.
+// Steps that come back throttled (429) or with a server error (5xx) are
+// re-batched together with their dependents and sent again.
+public class BatchExecutor {
+    public static final int MAX_STEPS_PER_BATCH = 20;
+    private static final long DEFAULT_DELAY_SECONDS = 3;
+    private static final long MAX_DELAY_SECONDS = 180;
+
+    private final GraphServiceClient graphClient;
+    private final int maxConcurrentBatches;
+    private final int maxRetries;
+    private final LinkedHashMap<String, BatchRequestStep> steps = new LinkedHashMap<>();
+
+    public BatchExecutor(GraphServiceClient graphClient, int maxConcurrentBatches) {
+        this(graphClient, maxConcurrentBatches, 0);
+    }
+
+    public BatchExecutor(GraphServiceClient graphClient, int maxConcurrentBatches,
+        int maxRetries) {
+        this.graphClient = Objects.requireNonNull(graphClient);
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be negative");
+        }
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.maxRetries = maxRetries;
+    }
+
+    public String addBatchRequestStep(RequestInformation requestInformation)
+        throws IOException {
+        final Request request = graphClient.getRequestAdapter()
+            .convertToNativeRequest(Objects.requireNonNull(requestInformation));
+        final String requestId = UUID.randomUUID().toString();
+        steps.put(requestId, new BatchRequestStep(requestId, toReplayableRequest(request)));
+        return requestId;
+    }
+
+    public void addDependsOnId(String requestId, String dependsOnId) {
+        final BatchRequestStep step = steps.get(requestId);
+        if (null == step || !steps.containsKey(dependsOnId)) {
+            throw new IllegalArgumentException(
+                String.format("Unknown request id: %s", null == step ? requestId : dependsOnId));
+        }
+        // Steps are sent in the order they were added, so a step can only
+        // depend on a step that was added before it
+        for (String id : steps.keySet()) {
+            if (id.equals(requestId)) {
+                throw new IllegalArgumentException(
+                    String.format("Request %s must be added after %s", requestId, dependsOnId));
+            }
+            if (id.equals(dependsOnId)) {
+                break;
+            }
+        }
+        step.addDependsOnId(dependsOnId);
+    }
+
+    public Map<String, BatchRequestStep> getBatchRequestSteps() {
+        return new LinkedHashMap<>(steps);
+    }
+
+    public List<List<BatchRequestStep>> getChunks() {
+        return getChunks(new ArrayList<>(steps.values()));
+    }
+
+    private static List<List<BatchRequestStep>> getChunks(List<BatchRequestStep> pending) {
+        final List<List<BatchRequestStep>> chunks = new ArrayList<>();
+        for (List<BatchRequestStep> group : getDependencyGroups(pending)) {
+            if (group.size() > MAX_STEPS_PER_BATCH) {
+                throw new IllegalStateException(String.format(
+                    "Dependency chain of %d steps exceeds the maximum of %d steps per batch",
+                    group.size(), MAX_STEPS_PER_BATCH));
+            }
+
+            // Place the whole group in the first chunk that still has room for it
+            List<BatchRequestStep> target = null;
+            for (List<BatchRequestStep> chunk : chunks) {
+                if (chunk.size() + group.size() <= MAX_STEPS_PER_BATCH) {
+                    target = chunk;
+                    break;
+                }
+            }
+            if (null == target) {
+                target = new ArrayList<>(MAX_STEPS_PER_BATCH);
+                chunks.add(target);
+            }
+            target.addAll(group);
+        }
+        return chunks;
+    }
+
+    public Map<String, Response> execute() throws IOException, InterruptedException {
+        final Map<String, Response> responses = new HashMap<>(steps.size() * 2);
+        List<BatchRequestStep> pending = new ArrayList<>(steps.values());
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            final Map<String, Integer> statusCodes = new HashMap<>(pending.size() * 2);
+            for (BatchResponseContent batchResponseContent : postAll(getChunks(pending))) {
+                responses.putAll(batchResponseContent.getResponses());
+                statusCodes.putAll(batchResponseContent.getResponsesStatusCode());
+            }
+
+            if (attempt >= maxRetries) {
+                break;
+            }
+
+            final Set<String> retryIds = new HashSet<>();
+            long delaySeconds = 0;
+            for (Map.Entry<String, Integer> statusCode : statusCodes.entrySet()) {
+                if (isRetryable(statusCode.getValue())) {
+                    retryIds.add(statusCode.getKey());
+                    delaySeconds = Math.max(delaySeconds,
+                        getDelaySeconds(responses.get(statusCode.getKey()), attempt));
+                }
+            }
+
+            pending = getRetrySteps(retryIds);
+            if (!pending.isEmpty()) {
+                TimeUnit.SECONDS.sleep(delaySeconds);
+            }
+        }
+
+        return responses;
+    }
+
+    private List<BatchResponseContent> postAll(List<List<BatchRequestStep>> chunks)
+        throws IOException, InterruptedException {
+        final List<BatchResponseContent> batchResponses = new ArrayList<>(chunks.size());
+
+        try (ExecutorService executor = Executors
+            .newFixedThreadPool(Math.min(maxConcurrentBatches, Math.max(1, chunks.size())))) {
+            final List<Future<BatchResponseContent>> futures = new ArrayList<>(chunks.size());
+            for (List<BatchRequestStep> chunk : chunks) {
+                futures.add(executor.submit(() -> post(chunk)));
+            }
+
+            for (Future<BatchResponseContent> future : futures) {
+                try {
+                    batchResponses.add(future.get());
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        return batchResponses;
+    }
+
+    private BatchResponseContent post(List<BatchRequestStep> chunk) throws IOException {
+        final BatchRequestContent batchRequestContent = new BatchRequestContent(graphClient);
+        for (BatchRequestStep step : chunk) {
+            batchRequestContent.addBatchRequestStep(step);
+        }
+        return Objects.requireNonNull(
+            graphClient.getBatchRequestBuilder().post(batchRequestContent, null));
+    }
+
+    private List<BatchRequestStep> getRetrySteps(Set<String> retryIds) {
+        // Dependents of a failed step were never run (424), so they are retried as
+        // well. Dependencies that already succeeded are dropped from dependsOn.
+        final Set<String> included = new HashSet<>();
+        final List<BatchRequestStep> retrySteps = new ArrayList<>();
+        for (BatchRequestStep step : steps.values()) {
+            final List<String> dependsOn = new ArrayList<>();
+            if (null != step.getDependsOn()) {
+                for (String dependsOnId : step.getDependsOn()) {
+                    if (included.contains(dependsOnId)) {
+                        dependsOn.add(dependsOnId);
+                    }
+                }
+            }
+
+            if (retryIds.contains(step.getRequestId()) || !dependsOn.isEmpty()) {
+                included.add(step.getRequestId());
+                retrySteps.add(new BatchRequestStep(step.getRequestId(), step.getRequest(),
+                    dependsOn));
+            }
+        }
+        return retrySteps;
+    }
+
+    static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    static long getDelaySeconds(Response response, int attempt) {
+        return getDelaySeconds(null == response ? null : response.header("Retry-After"), attempt);
+    }
+
+    static long getDelaySeconds(String retryAfter, int attempt) {
+        if (null != retryAfter) {
+            try {
+                return Math.min(Long.parseLong(retryAfter.trim()), MAX_DELAY_SECONDS);
+            } catch (NumberFormatException e) {
+                // Fall back to exponential backoff
+            }
+        }
+        return Math.min(DEFAULT_DELAY_SECONDS << Math.min(attempt, 6), MAX_DELAY_SECONDS);
+    }
+
+    static Request toReplayableRequest(Request request) throws IOException {
+        // Kiota request bodies stream from the RequestInformation content and can
+        // only be written once, but a retried step has to serialize its body again
+        final RequestBody body = request.body();
+        if (null == body) {
+            return request;
+        }
+        final Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return request.newBuilder()
+            .method(request.method(), RequestBody.create(buffer.readByteArray(), body.contentType()))
+            .build();
+    }
+
+    private static List<List<BatchRequestStep>> getDependencyGroups(
+        List<BatchRequestStep> pending) {
+        // Union-find over the step indexes, linking each step to the steps it depends on
+        final Map<String, Integer> indexes = new HashMap<>(pending.size() * 2);
+        for (int i = 0; i < pending.size(); i++) {
+            indexes.put(pending.get(i).getRequestId(), i);
+        }
+
+        final int[] parents = new int[pending.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            final List<String> dependsOn = pending.get(i).getDependsOn();
+            if (null == dependsOn) {
+                continue;
+            }
+            for (String dependsOnId : dependsOn) {
+                final Integer dependsOnIndex = indexes.get(dependsOnId);
+                if (null == dependsOnIndex) {
+                    continue;
+                }
+                final int a = findRoot(parents, i);
+                final int b = findRoot(parents, dependsOnIndex);
+                // Keep the earliest step as the root so groups stay in insertion order
+                parents[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+
+        final LinkedHashMap<Integer, List<BatchRequestStep>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < pending.size(); i++) {
+            groups.computeIfAbsent(findRoot(parents, i), k -> new ArrayList<>())
+                .add(pending.get(i));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int findRoot(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+}
@@ -4,27 +4,45 @@
 package snippets;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import com.google.gson.JsonParser;
 import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.models.Calendar;
 import com.microsoft.graph.models.DateTimeTimeZone;
 import com.microsoft.graph.models.Event;
 import com.microsoft.graph.models.EventCollectionResponse;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.models.MessageCollectionResponse;
 import com.microsoft.graph.models.User;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
 import com.microsoft.graph.core.content.BatchRequestContent;
 
 import com.microsoft.kiota.RequestInformation;
 
+import okhttp3.Response;
+
 public class BatchRequests {
-    public static void runSamples(GraphServiceClient graphClient) throws IOException {
+    public static void runSamples(GraphServiceClient graphClient)
+        throws IOException, InterruptedException {
         simpleBatch(graphClient);
         dependentBatch(graphClient);
+        chunkedBatch(graphClient);
+        autoBatch(graphClient);
+        bulkMutations(graphClient);
     }
 
     private static void simpleBatch(GraphServiceClient graphClient) throws IOException {
@@ -142,4 +160,109 @@ public class BatchRequests {
             Objects.requireNonNull(eventsResponse.getValue().size())));
         // </DependentBatchSnippet>
     }
+
+    private static void chunkedBatch(GraphServiceClient graphClient)
+        throws IOException, InterruptedException {
+        // <ChunkedBatchSnippet>
+        // GET https://graph.microsoft.com/v1.0/me/messages?$select=id&$top=100
+        final MessageCollectionResponse messages = Objects.requireNonNull(
+            graphClient.me().messages().get(requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"id"};
+                requestConfiguration.queryParameters.top = 100;
+            }));
+
+        // Send up to 4 batches of 20 steps at a time, and re-send steps
+        // that were throttled or failed with a server error up to 3 times
+        final BatchExecutor batchExecutor = new BatchExecutor(graphClient, 4, 3);
+
+        final List<String> requestIds = new ArrayList<>();
+        for (Message message : Objects.requireNonNull(messages.getValue())) {
+            // GET https://graph.microsoft.com/v1.0/me/messages/{message-id}?$select=subject
+            requestIds.add(batchExecutor.addBatchRequestStep(graphClient.me().messages()
+                .byMessageId(Objects.requireNonNull(message.getId()))
+                .toGetRequestInformation(requestConfiguration -> {
+                    requestConfiguration.queryParameters.select = new String[] {"subject"};
+                })));
+        }
+
+        final Map<String, Response> responses = batchExecutor.execute();
+        for (String requestId : requestIds) {
+            // A step can be missing when Graph left it out of the batch response
+            final Response response = responses.get(requestId);
+            if (null == response) {
+                System.out.println(String.format("Step %s has no response", requestId));
+            } else {
+                System.out.println(String.format("Step %s returned %d", requestId,
+                    response.code()));
+            }
+        }
+        // </ChunkedBatchSnippet>
+    }
+
+    private static void autoBatch(GraphServiceClient graphClient) throws IOException {
+        // <AutoBatchSnippet>
+        // GET https://graph.microsoft.com/v1.0/me/messages?$select=id&$top=50
+        final MessageCollectionResponse messages = Objects.requireNonNull(
+            graphClient.me().messages().get(requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"id"};
+                requestConfiguration.queryParameters.top = 50;
+            }));
+
+        // Requests submitted within 5 ms of each other are sent together,
+        // up to 20 to a /$batch call
+        try (AutoBatcher autoBatcher = new AutoBatcher(graphClient)) {
+            final List<CompletableFuture<Message>> futures = new ArrayList<>();
+            for (Message message : Objects.requireNonNull(messages.getValue())) {
+                // Each call is built as if it was sent on its own
+                futures.add(autoBatcher.submit(graphClient.me().messages()
+                    .byMessageId(Objects.requireNonNull(message.getId()))
+                    .toGetRequestInformation(requestConfiguration -> {
+                        requestConfiguration.queryParameters.select = new String[] {"subject"};
+                    }), Message::createFromDiscriminatorValue));
+            }
+
+            for (CompletableFuture<Message> future : futures) {
+                System.out.println(future.join().getSubject());
+            }
+            System.out.println(autoBatcher.getStats());
+        }
+        // </AutoBatchSnippet>
+    }
+
+    private static void bulkMutations(GraphServiceClient graphClient)
+        throws IOException, InterruptedException {
+        // <BulkMutationSnippet>
+        // POST https://graph.microsoft.com/v1.0/me/calendars for 3 calendars. The
+        // stream is read lazily, so it could as well come from Files.lines() of
+        // a large input file.
+        final Stream<BulkMutationPipeline.Operation> creates = IntStream.range(0, 3)
+            .mapToObj(i -> {
+                final Calendar calendar = new Calendar();
+                calendar.setName("Shift " + i);
+                return new BulkMutationPipeline.Operation("shift-" + i,
+                    graphClient.me().calendars().toPostRequestInformation(calendar));
+            });
+
+        // One /$batch call in flight, since Outlook runs at most 4 requests per
+        // mailbox at a time and the steps of a batch already run concurrently.
+        // Throttled steps are retried up to 5 times, progress printed every 5 seconds.
+        final BulkMutationPipeline pipeline = new BulkMutationPipeline(graphClient, 1, 5,
+            Duration.ofSeconds(5), System.out::println);
+
+        // One JSON line per operation with its status and the created id
+        final StringWriter report = new StringWriter();
+        final BulkMutationPipeline.PipelineStats stats = pipeline.run(creates, report);
+        System.out.printf("%d created, %d failed%n", stats.succeeded, stats.failed);
+
+        // Delete the calendars that were created, using the ids in the report
+        final Stream<BulkMutationPipeline.Operation> deletes = report.toString().lines()
+            .map(line -> JsonParser.parseString(line).getAsJsonObject())
+            .filter(line -> line.has("id") && line.get("id").isJsonPrimitive())
+            .map(line -> new BulkMutationPipeline.Operation(
+                "delete-" + line.get("key").getAsString(),
+                graphClient.me().calendars().byCalendarId(line.get("id").getAsString())
+                    .toDeleteRequestInformation()));
+        System.out.println(pipeline.run(deletes, new StringWriter()));
+        // </BulkMutationSnippet>
+    }
 }
@@ -0,0 +1,411 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.core.models.BatchRequestStep;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.ApiExceptionBuilder;
+import com.microsoft.kiota.NativeResponseHandler;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.ResponseHeaders;
+
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Applies a stream of independent creates, updates and deletes through /$batch
+// requests of up to 20 steps, with at most maxBatchesInFlight batches posted
+// at a time. The stream is only read when a batch can be sent, so memory holds
+// at most maxBatchesInFlight batches and their pending retries whatever the
+// size of the input. Steps that fail with 429 or 5xx are retried on their own
+// in later batches after their Retry-After or backoff delay, up to maxRetries
+// times. A batch refused with 429, or with a 5xx and a Retry-After, was not
+// run, so all of its steps are retried after that delay. When the batch fails
+// with another status, with an I/O error or a step has no response, the
+// service may still have run the step, so only idempotent methods (GET, HEAD,
+// PUT, DELETE) are retried and a create or update is reported as failed, with
+// the batch's status or with status 0 when the outcome is unknown, rather
+// than possibly applied twice. Every operation gets one JSON line
+// in the report with its key, final status, attempts and the created id or
+// error code. Progress is reported every progressInterval while running.
+public class BulkMutationPipeline {
+    private final GraphServiceClient graphClient;
+    private final int maxBatchesInFlight;
+    private final int maxRetries;
+    private final Duration progressInterval;
+    private final Consumer<PipelineStats> progressListener;
+
+    public BulkMutationPipeline(GraphServiceClient graphClient, int maxBatchesInFlight) {
+        this(graphClient, maxBatchesInFlight, 5, Duration.ofSeconds(5), null);
+    }
+
+    public BulkMutationPipeline(GraphServiceClient graphClient, int maxBatchesInFlight,
+        int maxRetries, Duration progressInterval, Consumer<PipelineStats> progressListener) {
+        this.graphClient = Objects.requireNonNull(graphClient);
+        if (maxBatchesInFlight < 1) {
+            throw new IllegalArgumentException("maxBatchesInFlight must be at least 1");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be negative");
+        }
+        if (progressInterval.isNegative() || progressInterval.isZero()) {
+            throw new IllegalArgumentException("progressInterval must be positive");
+        }
+        this.maxBatchesInFlight = maxBatchesInFlight;
+        this.maxRetries = maxRetries;
+        this.progressInterval = progressInterval;
+        this.progressListener = progressListener;
+    }
+
+    // Blocks until every operation has its outcome in the report. report is
+    // flushed but not closed.
+    public PipelineStats run(Stream<Operation> operations, Writer report)
+        throws IOException, InterruptedException {
+        final Run run = new Run(Objects.requireNonNull(report));
+        final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                final Thread thread = new Thread(runnable, "bulk-mutation-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+        if (null != progressListener) {
+            progress.scheduleAtFixedRate(() -> progressListener.accept(run.getStats()),
+                progressInterval.toMillis(), progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        try (ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor()) {
+            run.dispatch(operations.iterator(), sender);
+        } finally {
+            progress.shutdownNow();
+        }
+        synchronized (report) {
+            report.flush();
+        }
+        if (null != run.reportError) {
+            throw run.reportError;
+        }
+        final PipelineStats stats = run.getStats();
+        if (null != progressListener) {
+            progressListener.accept(stats);
+        }
+        return stats;
+    }
+
+    // key identifies the item in the report, for example the row of the input
+    // file it came from
+    public static class Operation {
+        private final String key;
+        private final RequestInformation requestInformation;
+
+        public Operation(String key, RequestInformation requestInformation) {
+            this.key = Objects.requireNonNull(key);
+            this.requestInformation = Objects.requireNonNull(requestInformation);
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    public static class PipelineStats {
+        public final long read;
+        public final long succeeded;
+        public final long failed;
+        public final long retries;
+        public final long batches;
+        public final long elapsedMillis;
+
+        private PipelineStats(long read, long succeeded, long failed, long retries, long batches,
+            long elapsedMillis) {
+            this.read = read;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.batches = batches;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        // Operations with a final outcome per second since the run started
+        public double getItemsPerSecond() {
+            return 0 == elapsedMillis ? 0 : (succeeded + failed) * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "read=%d succeeded=%d failed=%d retries=%d batches=%d elapsed=%dms itemsPerSecond=%.1f",
+                read, succeeded, failed, retries, batches, elapsedMillis, getItemsPerSecond());
+        }
+    }
+
+    private class Run {
+        private final Writer report;
+        private final long startNanos = System.nanoTime();
+        private final Semaphore batchPermits = new Semaphore(maxBatchesInFlight);
+        private final DelayQueue<PendingOperation> retryQueue = new DelayQueue<>();
+        private volatile IOException reportError;
+
+        private final LongAdder read = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+
+        private Run(Writer report) {
+            this.report = report;
+        }
+
+        private void dispatch(Iterator<Operation> operations, ExecutorService sender)
+            throws IOException, InterruptedException {
+            while (true) {
+                batchPermits.acquire();
+                final List<PendingOperation> batch = new ArrayList<>(
+                    BatchExecutor.MAX_STEPS_PER_BATCH);
+                // Retries that are due go first, then new operations
+                retryQueue.drainTo(batch, BatchExecutor.MAX_STEPS_PER_BATCH);
+                while (batch.size() < BatchExecutor.MAX_STEPS_PER_BATCH && operations.hasNext()) {
+                    batch.add(toPendingOperation(operations.next()));
+                    read.increment();
+                }
+
+                if (batch.isEmpty()) {
+                    batchPermits.release();
+                    // A batch adds its retries before it releases its permit,
+                    // so with every permit free there is nothing left to wait for
+                    if (batchPermits.tryAcquire(maxBatchesInFlight)) {
+                        final boolean done = retryQueue.isEmpty();
+                        batchPermits.release(maxBatchesInFlight);
+                        if (done) {
+                            return;
+                        }
+                    }
+                    final PendingOperation retry = retryQueue.poll(50, TimeUnit.MILLISECONDS);
+                    if (null != retry) {
+                        retryQueue.add(retry);
+                    }
+                    continue;
+                }
+
+                batches.increment();
+                sender.execute(() -> {
+                    try {
+                        post(batch);
+                    } finally {
+                        batchPermits.release();
+                    }
+                });
+            }
+        }
+
+        private PendingOperation toPendingOperation(Operation operation) throws IOException {
+            return new PendingOperation(operation.key, new BatchRequestStep(
+                UUID.randomUUID().toString(), BatchExecutor.toReplayableRequest(
+                    graphClient.getRequestAdapter().convertToNativeRequest(
+                        operation.requestInformation))));
+        }
+
+        private void post(List<PendingOperation> batch) {
+            final BatchResponseContent batchResponse;
+            try {
+                final BatchRequestContent batchRequestContent = new BatchRequestContent(graphClient);
+                for (PendingOperation operation : batch) {
+                    batchRequestContent.addBatchRequestStep(operation.step);
+                }
+                batchResponse = send(batchRequestContent);
+            } catch (ApiException e) {
+                final int statusCode = e.getResponseStatusCode();
+                final String retryAfter = getRetryAfter(e.getResponseHeaders());
+                final boolean refused = 429 == statusCode
+                    || (statusCode >= 500 && null != retryAfter);
+                for (PendingOperation operation : batch) {
+                    retryOrFail(operation, statusCode, refused
+                        || (BatchExecutor.isRetryable(statusCode) && isIdempotent(operation)),
+                        retryAfter, e.getMessage());
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                for (PendingOperation operation : batch) {
+                    retryOrFail(operation, 0, isIdempotent(operation), null, e.getMessage());
+                }
+                return;
+            }
+
+            final Map<String, Response> responses = batchResponse.getResponses();
+            for (PendingOperation operation : batch) {
+                final Response response = responses.get(operation.step.getRequestId());
+                if (null == response) {
+                    retryOrFail(operation, 0, isIdempotent(operation), null,
+                        "No response for the step");
+                    continue;
+                }
+                try (response) {
+                    final int statusCode = response.code();
+                    final JsonObject body = readBody(response);
+                    if (statusCode < 400) {
+                        succeeded.increment();
+                        write(operation, statusCode, getString(body, "id"));
+                    } else {
+                        final JsonObject error = null == body || !body.has("error")
+                            || !body.get("error").isJsonObject()
+                            ? null
+                            : body.getAsJsonObject("error");
+                        retryOrFail(operation, statusCode, BatchExecutor.isRetryable(statusCode),
+                            response.header("Retry-After"), getString(error, "code"));
+                    }
+                }
+            }
+        }
+
+        // BatchRequestBuilder.post wraps any response, so a refused batch would
+        // look like a batch without responses. This fails with its status instead.
+        private BatchResponseContent send(BatchRequestContent batchRequestContent)
+            throws IOException {
+            final RequestInformation requestInformation = graphClient.getBatchRequestBuilder()
+                .toPostRequestInformation(batchRequestContent);
+            final NativeResponseHandler responseHandler = new NativeResponseHandler();
+            requestInformation.setResponseHandler(responseHandler);
+            graphClient.getRequestAdapter().sendPrimitive(requestInformation, null,
+                InputStream.class);
+            final Response response = (Response) Objects.requireNonNull(
+                responseHandler.getValue());
+            if (!response.isSuccessful()) {
+                final ResponseHeaders headers = new ResponseHeaders();
+                response.headers().forEach(header -> headers.add(header.getFirst(),
+                    header.getSecond()));
+                response.close();
+                throw new ApiExceptionBuilder()
+                    .withMessage("The batch failed with status code " + response.code())
+                    .withResponseStatusCode(response.code())
+                    .withResponseHeaders(headers).build();
+            }
+            return new BatchResponseContent(response);
+        }
+
+        // A statusCode of 0 means the step's outcome is unknown
+        private void retryOrFail(PendingOperation operation, int statusCode, boolean retryable,
+            String retryAfter, String error) {
+            if (retryable && operation.attempts <= maxRetries) {
+                retries.increment();
+                operation.retryAt(BatchExecutor.getDelaySeconds(retryAfter,
+                    operation.attempts - 1));
+                retryQueue.add(operation);
+                return;
+            }
+            failed.increment();
+            write(operation, statusCode, error);
+        }
+
+        private void write(PendingOperation operation, int statusCode, String detail) {
+            final JsonObject line = new JsonObject();
+            line.addProperty("key", operation.key);
+            line.addProperty("status", statusCode);
+            line.addProperty("attempts", operation.attempts);
+            line.addProperty(statusCode > 0 && statusCode < 400 ? "id" : "error", detail);
+            synchronized (report) {
+                try {
+                    report.write(line.toString());
+                    report.write('\n');
+                } catch (IOException e) {
+                    if (null == reportError) {
+                        reportError = e;
+                    }
+                }
+            }
+        }
+
+        private PipelineStats getStats() {
+            return new PipelineStats(read.sum(), succeeded.sum(), failed.sum(), retries.sum(),
+                batches.sum(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    private static boolean isIdempotent(PendingOperation operation) {
+        final String method = operation.step.getRequest().method();
+        return method.equals("GET") || method.equals("HEAD") || method.equals("PUT")
+            || method.equals("DELETE");
+    }
+
+    private static String getRetryAfter(ResponseHeaders headers) {
+        final Set<String> values = null == headers ? null : headers.get("Retry-After");
+        return null == values || values.isEmpty() ? null : values.iterator().next();
+    }
+
+    private static JsonObject readBody(Response response) {
+        final ResponseBody body = response.body();
+        try {
+            if (null == body) {
+                return null;
+            }
+            final String content = body.string();
+            if (content.isBlank()) {
+                return null;
+            }
+            final JsonElement element = JsonParser.parseString(content);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (IOException | RuntimeException e) {
+            // Not JSON, the status code is enough for the report
+            return null;
+        }
+    }
+
+    private static String getString(JsonObject object, String name) {
+        if (null == object || !object.has(name) || !object.get(name).isJsonPrimitive()) {
+            return null;
+        }
+        return object.get(name).getAsString();
+    }
+
+    private static class PendingOperation implements Delayed {
+        private final String key;
+        private final BatchRequestStep step;
+        private int attempts = 1;
+        private long retryAtNanos;
+
+        private PendingOperation(String key, BatchRequestStep step) {
+            this.key = key;
+            this.step = step;
+        }
+
+        private void retryAt(long delaySeconds) {
+            attempts++;
+            retryAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(retryAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(retryAtNanos, ((PendingOperation) other).retryAtNanos);
+        }
+    }
+}
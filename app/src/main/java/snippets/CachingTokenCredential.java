@@ -0,0 +1,267 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.azure.core.credential.AccessToken;
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.credential.TokenRequestContext;
+
+import reactor.core.publisher.Mono;
+
+// Wraps a TokenCredential so requests are served from an in-memory token
+// cache. Concurrent callers that miss the cache for the same scopes share a
+// single fetch, and every cached token is refreshed in the background
+// refreshBefore (minus a random jitter) ahead of its expiry, so requests do
+// not wait for a token fetch when the previous token runs out.
+public class CachingTokenCredential implements TokenCredential, AutoCloseable {
+    // Tokens this close to expiry are not handed out
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(30);
+    // Tokens nobody asked for in this long are dropped instead of refreshed
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final TokenCredential credential;
+    private final Duration refreshBefore;
+    private final Duration maxJitter;
+    private final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder backgroundRefreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final AtomicLong maxFetchNanos = new AtomicLong();
+
+    public CachingTokenCredential(TokenCredential credential) {
+        this(credential, Duration.ofMinutes(5), Duration.ofMinutes(1));
+    }
+
+    public CachingTokenCredential(TokenCredential credential, Duration refreshBefore,
+        Duration maxJitter) {
+        this.credential = Objects.requireNonNull(credential);
+        this.refreshBefore = Objects.requireNonNull(refreshBefore);
+        this.maxJitter = Objects.requireNonNull(maxJitter);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Mono<AccessToken> getToken(TokenRequestContext request) {
+        if (!isCacheable(request)) {
+            return credential.getToken(request);
+        }
+        return Mono.fromFuture(() -> getCachedToken(request));
+    }
+
+    @Override
+    public AccessToken getTokenSync(TokenRequestContext request) {
+        if (!isCacheable(request)) {
+            return credential.getTokenSync(request);
+        }
+        try {
+            return getCachedToken(request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public TokenCacheStats getStats() {
+        final long fetchCount = fetches.sum();
+        return new TokenCacheStats(hits.sum(), misses.sum(), coalesced.sum(), fetchCount,
+            backgroundRefreshes.sum(), failures.sum(),
+            0 == fetchCount ? 0 : fetchNanos.sum() / fetchCount / 1_000_000,
+            maxFetchNanos.get() / 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        entries.clear();
+    }
+
+    private CompletableFuture<AccessToken> getCachedToken(TokenRequestContext request) {
+        final CacheEntry entry = entries.computeIfAbsent(getKey(request),
+            k -> new CacheEntry(k, request));
+        entry.lastUsedNanos = System.nanoTime();
+
+        final AccessToken token = entry.token;
+        if (null != token && isUsable(token)) {
+            hits.increment();
+            return CompletableFuture.completedFuture(token);
+        }
+        misses.increment();
+        return fetch(entry, false);
+    }
+
+    private CompletableFuture<AccessToken> fetch(CacheEntry entry, boolean background) {
+        synchronized (entry) {
+            if (null != entry.inFlight) {
+                if (!background) {
+                    coalesced.increment();
+                }
+                return entry.inFlight;
+            }
+
+            final long startNanos = System.nanoTime();
+            final CompletableFuture<AccessToken> future = new CompletableFuture<>();
+            entry.inFlight = future;
+            if (background) {
+                backgroundRefreshes.increment();
+            }
+            credential.getToken(entry.request).toFuture().whenComplete((token, error) -> {
+                onFetched(entry, future, token, error, System.nanoTime() - startNanos);
+            });
+            return future;
+        }
+    }
+
+    private void onFetched(CacheEntry entry, CompletableFuture<AccessToken> future,
+        AccessToken token, Throwable error, long elapsedNanos) {
+        fetches.increment();
+        fetchNanos.add(elapsedNanos);
+        maxFetchNanos.accumulateAndGet(elapsedNanos, Math::max);
+
+        synchronized (entry) {
+            entry.inFlight = null;
+            if (null == error && null != token) {
+                entry.token = token;
+            }
+        }
+
+        if (null != error || null == token) {
+            failures.increment();
+            final AccessToken current = entry.token;
+            if (null != current && isUsable(current)) {
+                // Keep serving the current token and try again shortly
+                scheduleRefresh(entry, RETRY_DELAY);
+            }
+            future.completeExceptionally(null != error
+                ? error
+                : new IllegalStateException("The credential returned no token"));
+            return;
+        }
+
+        scheduleRefresh(entry, getRefreshDelay(token));
+        future.complete(token);
+    }
+
+    private void scheduleRefresh(CacheEntry entry, Duration delay) {
+        if (refresher.isShutdown()) {
+            return;
+        }
+        refresher.schedule(() -> {
+            if (System.nanoTime() - entry.lastUsedNanos > IDLE_TIMEOUT_NANOS) {
+                entries.remove(entry.key, entry);
+                return;
+            }
+            fetch(entry, true);
+        }, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Duration getRefreshDelay(AccessToken token) {
+        final OffsetDateTime now = OffsetDateTime.now();
+        // How long the token will still be handed out
+        final Duration usableLifetime = Duration.between(now, token.getExpiresAt())
+            .minus(EXPIRY_MARGIN);
+        Duration delay = usableLifetime.compareTo(refreshBefore.multipliedBy(2)) < 0
+            // Short-lived tokens are refreshed halfway through their lifetime
+            ? usableLifetime.dividedBy(2)
+            : usableLifetime.minus(refreshBefore);
+        if (null != token.getRefreshAt()) {
+            // Refresh no later than the identity platform suggests
+            final Duration suggested = Duration.between(now, token.getRefreshAt());
+            if (suggested.compareTo(delay) < 0) {
+                delay = suggested;
+            }
+        }
+        // Spread refreshes so tokens fetched together are not refreshed together
+        final long jitterMillis = Math.min(maxJitter.toMillis(), delay.toMillis() / 4);
+        if (jitterMillis > 0) {
+            delay = delay.minusMillis(ThreadLocalRandom.current().nextLong(jitterMillis));
+        }
+        return delay.isNegative() ? Duration.ZERO : delay;
+    }
+
+    private static boolean isUsable(AccessToken token) {
+        return token.getExpiresAt().minus(EXPIRY_MARGIN).isAfter(OffsetDateTime.now());
+    }
+
+    private static boolean isCacheable(TokenRequestContext request) {
+        // Claims challenges and proof-of-possession tokens must always be fetched
+        return null == request.getClaims() && null == request.getProofOfPossessionOptions();
+    }
+
+    private static String getKey(TokenRequestContext request) {
+        return String.join(" ", request.getScopes().stream().sorted().toList())
+            + '|' + request.getTenantId() + '|' + request.isCaeEnabled();
+    }
+
+    public static class TokenCacheStats {
+        public final long hits;
+        public final long misses;
+        // Misses that waited for a fetch already in flight
+        public final long coalesced;
+        public final long fetches;
+        public final long backgroundRefreshes;
+        public final long failures;
+        public final long meanFetchMillis;
+        public final long maxFetchMillis;
+
+        private TokenCacheStats(long hits, long misses, long coalesced, long fetches,
+            long backgroundRefreshes, long failures, long meanFetchMillis, long maxFetchMillis) {
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.fetches = fetches;
+            this.backgroundRefreshes = backgroundRefreshes;
+            this.failures = failures;
+            this.meanFetchMillis = meanFetchMillis;
+            this.maxFetchMillis = maxFetchMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "hits=%d misses=%d coalesced=%d fetches=%d backgroundRefreshes=%d failures=%d "
+                    + "meanFetch=%dms maxFetch=%dms",
+                hits, misses, coalesced, fetches, backgroundRefreshes, failures, meanFetchMillis,
+                maxFetchMillis);
+        }
+    }
+
+    private static class CacheEntry {
+        private final String key;
+        private final TokenRequestContext request;
+        private volatile AccessToken token;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private CompletableFuture<AccessToken> inFlight;
+
+        private CacheEntry(String key, TokenRequestContext request) {
+            this.key = key;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Lets identical GET requests that are in flight at the same time share one
+// network call. Requests are identical when they have the same URL,
+// Authorization header and the request headers that change the response. The
+// first request is sent; the others wait for it and each get their own copy of
+// its response body. Nothing is kept once the call completes, so this does not
+// serve stale responses the way a cache would. A response is only buffered
+// when requests are waiting for it, and only when it is JSON of at most
+// maxBodyBytes, so downloads stream to their caller untouched. When the
+// response is not shared, or the first request fails, the waiting requests
+// are sent on their own.
+public class CoalescingHandler implements Interceptor {
+    private final long maxBodyBytes;
+    private final ConcurrentHashMap<String, InFlightCall> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder networkCalls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public CoalescingHandler() {
+        this(1024 * 1024);
+    }
+
+    public CoalescingHandler(long maxBodyBytes) {
+        if (maxBodyBytes < 0) {
+            throw new IllegalArgumentException("maxBodyBytes must not be negative");
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        if (!request.method().equals("GET")) {
+            return chain.proceed(request);
+        }
+        requests.increment();
+
+        final String key = ResponseCacheHandler.getKey(
+            String.valueOf(request.header("Authorization")), request);
+        final InFlightCall call = new InFlightCall();
+        final InFlightCall leader = inFlight.putIfAbsent(key, call);
+        if (null != leader) {
+            leader.followers.increment();
+            return awaitLeader(chain, request, leader.response);
+        }
+
+        networkCalls.increment();
+        SharedResponse shared = null;
+        try {
+            final Response response = chain.proceed(request);
+            // Requests that find the call after this see no leader and are
+            // sent on their own, and the ones that found it are counted
+            inFlight.remove(key, call);
+            if (call.followers.sum() > 0) {
+                shared = share(response);
+            }
+            return response;
+        } finally {
+            inFlight.remove(key, call);
+            // Followers of a call that failed send their own request
+            call.response.complete(shared);
+        }
+    }
+
+    // Copies the body without consuming it, so the first caller still reads it.
+    // Null when the response is not JSON or is larger than maxBodyBytes.
+    private SharedResponse share(Response response) throws IOException {
+        final ResponseBody body = response.body();
+        if (null == body || null == body.contentType()
+            || !body.contentType().subtype().contains("json")
+            || body.contentLength() > maxBodyBytes) {
+            return null;
+        }
+        final ResponseBody peeked = response.peekBody(maxBodyBytes + 1);
+        final byte[] bytes = peeked.bytes();
+        return bytes.length > maxBodyBytes
+            ? null
+            : new SharedResponse(response.protocol(), response.code(), response.message(),
+                response.headers(), peeked.contentType(), bytes);
+    }
+
+    public CoalescingStats getStats() {
+        return new CoalescingStats(requests.sum(), networkCalls.sum(), coalesced.sum());
+    }
+
+    private Response awaitLeader(Chain chain, Request request,
+        CompletableFuture<SharedResponse> leader) throws IOException {
+        SharedResponse shared;
+        try {
+            shared = leader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+        } catch (ExecutionException e) {
+            shared = null;
+        }
+
+        if (null == shared) {
+            // The first request failed or its response could not be shared
+            networkCalls.increment();
+            return chain.proceed(request);
+        }
+        coalesced.increment();
+        return shared.toResponse(request);
+    }
+
+    public static class CoalescingStats {
+        public final long requests;
+        public final long networkCalls;
+        // Requests answered with the response of another call
+        public final long coalesced;
+
+        private CoalescingStats(long requests, long networkCalls, long coalesced) {
+            this.requests = requests;
+            this.networkCalls = networkCalls;
+            this.coalesced = coalesced;
+        }
+
+        public double getDedupeRatio() {
+            return 0 == requests ? 0 : (double) coalesced / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d networkCalls=%d coalesced=%d dedupeRatio=%.2f",
+                requests, networkCalls, coalesced, getDedupeRatio());
+        }
+    }
+
+    private static class InFlightCall {
+        private final CompletableFuture<SharedResponse> response = new CompletableFuture<>();
+        private final LongAdder followers = new LongAdder();
+    }
+
+    private static class SharedResponse {
+        private final Protocol protocol;
+        private final int code;
+        private final String message;
+        private final Headers headers;
+        private final MediaType contentType;
+        private final byte[] body;
+
+        private SharedResponse(Protocol protocol, int code, String message, Headers headers,
+            MediaType contentType, byte[] body) {
+            this.protocol = protocol;
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private Response toResponse(Request request) {
+            final long now = System.currentTimeMillis();
+            return new Response.Builder()
+                .request(request)
+                .protocol(protocol)
+                .code(code)
+                .message(message)
+                .headers(headers)
+                .body(ResponseBody.create(body, contentType))
+                .sentRequestAtMillis(now)
+                .receivedResponseAtMillis(now)
+                .build();
+        }
+    }
+}
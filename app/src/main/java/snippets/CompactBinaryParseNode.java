@@ -0,0 +1,671 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.microsoft.kiota.PeriodAndDuration;
+import com.microsoft.kiota.serialization.AdditionalDataHolder;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+import com.microsoft.kiota.serialization.ParseNode;
+import com.microsoft.kiota.serialization.ParseNodeFactory;
+import com.microsoft.kiota.serialization.UntypedArray;
+import com.microsoft.kiota.serialization.UntypedBoolean;
+import com.microsoft.kiota.serialization.UntypedDecimal;
+import com.microsoft.kiota.serialization.UntypedDouble;
+import com.microsoft.kiota.serialization.UntypedFloat;
+import com.microsoft.kiota.serialization.UntypedInteger;
+import com.microsoft.kiota.serialization.UntypedLong;
+import com.microsoft.kiota.serialization.UntypedNode;
+import com.microsoft.kiota.serialization.UntypedNull;
+import com.microsoft.kiota.serialization.UntypedObject;
+import com.microsoft.kiota.serialization.UntypedString;
+import com.microsoft.kiota.serialization.ValuedEnumParser;
+
+// Reads what CompactBinaryWriter wrote, straight from the byte array without
+// building a tree first. Fields are matched to the model by name: fields the
+// model does not know go to its additionalData, as JsonParseNode does, and
+// numbers are converted when a property changed between int, long and double.
+// Referenced strings are decoded once per document and shared by every value
+// that refers to them.
+public class CompactBinaryParseNode implements ParseNode {
+    private final Document document;
+    private final int type;
+    private final int position;
+
+    private Consumer<Parsable> onBeforeAssignFieldValues;
+    private Consumer<Parsable> onAfterAssignFieldValues;
+
+    public CompactBinaryParseNode(byte[] content) {
+        this(readRoot(Objects.requireNonNull(content)), content[CompactBinaryWriter.HEADER.length],
+            CompactBinaryWriter.HEADER.length + 1);
+    }
+
+    private CompactBinaryParseNode(Document document, int type, int position) {
+        this.document = document;
+        this.type = type;
+        this.position = position;
+    }
+
+    public static <T extends Parsable> T parse(byte[] content, ParsableFactory<T> factory) {
+        return new CompactBinaryParseNode(content).getObjectValue(Objects.requireNonNull(factory));
+    }
+
+    @Override
+    public ParseNode getChildNode(String identifier) {
+        Objects.requireNonNull(identifier);
+        if (type != CompactBinaryWriter.OBJECT) {
+            return null;
+        }
+        final int end = document.readLength(position);
+        int field = position + 4;
+        while (field < end) {
+            final int fieldType = document.data[field];
+            document.position = field + 1;
+            final String name = document.readString();
+            final int payload = document.position;
+            if (identifier.equals(name)) {
+                return createChildNode(fieldType, payload);
+            }
+            field = document.skip(fieldType, payload);
+        }
+        return null;
+    }
+
+    @Override
+    public String getStringValue() {
+        switch (type) {
+            case CompactBinaryWriter.STRING:
+            case CompactBinaryWriter.DECIMAL:
+            case CompactBinaryWriter.DURATION:
+                document.position = position;
+                return document.readString();
+            case CompactBinaryWriter.BYTES:
+                return Base64.getEncoder().encodeToString(getByteArrayValue());
+            case CompactBinaryWriter.NULL:
+            case CompactBinaryWriter.OBJECT:
+            case CompactBinaryWriter.ARRAY:
+                return null;
+            default:
+                return String.valueOf(readPrimitive());
+        }
+    }
+
+    @Override
+    public Boolean getBooleanValue() {
+        if (type == CompactBinaryWriter.TRUE || type == CompactBinaryWriter.FALSE) {
+            return type == CompactBinaryWriter.TRUE;
+        }
+        return type == CompactBinaryWriter.STRING ? Boolean.valueOf(getStringValue()) : null;
+    }
+
+    @Override
+    public Byte getByteValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.byteValue();
+    }
+
+    @Override
+    public Short getShortValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.shortValue();
+    }
+
+    @Override
+    public BigDecimal getBigDecimalValue() {
+        final Number value = getNumber();
+        if (null == value || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        return value instanceof Double || value instanceof Float
+            ? BigDecimal.valueOf(value.doubleValue())
+            : BigDecimal.valueOf(value.longValue());
+    }
+
+    @Override
+    public Integer getIntegerValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.intValue();
+    }
+
+    @Override
+    public Float getFloatValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.floatValue();
+    }
+
+    @Override
+    public Double getDoubleValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.doubleValue();
+    }
+
+    @Override
+    public Long getLongValue() {
+        final Number value = getNumber();
+        return null == value ? null : value.longValue();
+    }
+
+    @Override
+    public UUID getUUIDValue() {
+        if (type == CompactBinaryWriter.STRING) {
+            return UUID.fromString(getStringValue());
+        }
+        return type == CompactBinaryWriter.UUID_VALUE ? (UUID) readPrimitive() : null;
+    }
+
+    @Override
+    public OffsetDateTime getOffsetDateTimeValue() {
+        if (type == CompactBinaryWriter.STRING) {
+            return OffsetDateTime.parse(getStringValue());
+        }
+        return type == CompactBinaryWriter.DATE_TIME ? (OffsetDateTime) readPrimitive() : null;
+    }
+
+    @Override
+    public LocalDate getLocalDateValue() {
+        if (type == CompactBinaryWriter.STRING) {
+            return LocalDate.parse(getStringValue());
+        }
+        return type == CompactBinaryWriter.DATE ? (LocalDate) readPrimitive() : null;
+    }
+
+    @Override
+    public LocalTime getLocalTimeValue() {
+        if (type == CompactBinaryWriter.STRING) {
+            return LocalTime.parse(getStringValue());
+        }
+        return type == CompactBinaryWriter.TIME ? (LocalTime) readPrimitive() : null;
+    }
+
+    @Override
+    public PeriodAndDuration getPeriodAndDurationValue() {
+        return type == CompactBinaryWriter.DURATION || type == CompactBinaryWriter.STRING
+            ? PeriodAndDuration.parse(getStringValue())
+            : null;
+    }
+
+    @Override
+    public byte[] getByteArrayValue() {
+        if (type == CompactBinaryWriter.STRING) {
+            return Base64.getDecoder().decode(getStringValue());
+        }
+        return type == CompactBinaryWriter.BYTES ? (byte[]) readPrimitive() : null;
+    }
+
+    @Override
+    public <T extends Enum<T>> T getEnumValue(ValuedEnumParser<T> enumParser) {
+        final String value = type == CompactBinaryWriter.STRING ? getStringValue() : null;
+        return null == value ? null : enumParser.forValue(value);
+    }
+
+    @Override
+    public <T extends Enum<T>> EnumSet<T> getEnumSetValue(ValuedEnumParser<T> enumParser) {
+        final String value = type == CompactBinaryWriter.STRING ? getStringValue() : null;
+        if (null == value) {
+            return null;
+        }
+        EnumSet<T> values = null;
+        for (String item : value.split(",")) {
+            final T parsed = enumParser.forValue(item.trim());
+            if (null == parsed) {
+                continue;
+            }
+            if (null == values) {
+                values = EnumSet.of(parsed);
+            } else {
+                values.add(parsed);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> List<T> getCollectionOfPrimitiveValues(Class<T> targetClass) {
+        Objects.requireNonNull(targetClass);
+        return mapItems(item -> targetClass.cast(item.getPrimitiveValue(targetClass)));
+    }
+
+    @Override
+    public <T extends Parsable> List<T> getCollectionOfObjectValues(ParsableFactory<T> factory) {
+        Objects.requireNonNull(factory);
+        return mapItems(item -> item.getObjectValue(factory));
+    }
+
+    @Override
+    public <T extends Enum<T>> List<T> getCollectionOfEnumValues(ValuedEnumParser<T> enumParser) {
+        Objects.requireNonNull(enumParser);
+        return mapItems(item -> item.getEnumValue(enumParser));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Parsable> T getObjectValue(ParsableFactory<T> factory) {
+        Objects.requireNonNull(factory);
+        if (type == CompactBinaryWriter.NULL) {
+            return null;
+        }
+        final T item = factory.create(this);
+        if (item.getClass() == UntypedNode.class) {
+            return (T) readUntyped(type, position);
+        }
+        if (type != CompactBinaryWriter.OBJECT) {
+            return null;
+        }
+        if (null != onBeforeAssignFieldValues) {
+            onBeforeAssignFieldValues.accept(item);
+        }
+        assignFieldValues(item);
+        if (null != onAfterAssignFieldValues) {
+            onAfterAssignFieldValues.accept(item);
+        }
+        return item;
+    }
+
+    @Override
+    public Consumer<Parsable> getOnBeforeAssignFieldValues() {
+        return onBeforeAssignFieldValues;
+    }
+
+    @Override
+    public Consumer<Parsable> getOnAfterAssignFieldValues() {
+        return onAfterAssignFieldValues;
+    }
+
+    @Override
+    public void setOnBeforeAssignFieldValues(Consumer<Parsable> value) {
+        this.onBeforeAssignFieldValues = value;
+    }
+
+    @Override
+    public void setOnAfterAssignFieldValues(Consumer<Parsable> value) {
+        this.onAfterAssignFieldValues = value;
+    }
+
+    // Registers the format with a request adapter or a parse node registry,
+    // next to the JSON one
+    public static class Factory implements ParseNodeFactory {
+        @Override
+        public String getValidContentType() {
+            return CompactBinaryWriter.CONTENT_TYPE;
+        }
+
+        @Override
+        public ParseNode getParseNode(String contentType, InputStream rawResponse) {
+            if (!CompactBinaryWriter.CONTENT_TYPE.equals(Objects.requireNonNull(contentType))) {
+                throw new IllegalArgumentException(
+                    "expected a " + CompactBinaryWriter.CONTENT_TYPE + " content type");
+            }
+            try {
+                return new CompactBinaryParseNode(
+                    Objects.requireNonNull(rawResponse).readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static Document readRoot(byte[] content) {
+        final byte[] header = CompactBinaryWriter.HEADER;
+        if (content.length <= header.length || content[0] != header[0] || content[1] != header[1]) {
+            throw new IllegalArgumentException("Not a compact binary document");
+        }
+        if (content[2] != header[2]) {
+            throw new IllegalArgumentException("Unsupported compact binary version " + content[2]);
+        }
+        return new Document(content);
+    }
+
+    private CompactBinaryParseNode createChildNode(int childType, int childPosition) {
+        final CompactBinaryParseNode child = new CompactBinaryParseNode(document, childType,
+            childPosition);
+        child.onBeforeAssignFieldValues = onBeforeAssignFieldValues;
+        child.onAfterAssignFieldValues = onAfterAssignFieldValues;
+        return child;
+    }
+
+    private <T extends Parsable> void assignFieldValues(T item) {
+        final Map<String, Consumer<ParseNode>> deserializers = item.getFieldDeserializers();
+        final Map<String, Object> additionalData = item instanceof AdditionalDataHolder
+            ? ((AdditionalDataHolder) item).getAdditionalData()
+            : null;
+        final int end = document.readLength(position);
+        int field = position + 4;
+        while (field < end) {
+            final int fieldType = document.data[field];
+            document.position = field + 1;
+            final String name = document.readString();
+            final int payload = document.position;
+            if (fieldType != CompactBinaryWriter.NULL) {
+                final Consumer<ParseNode> deserializer = deserializers.get(name);
+                if (null != deserializer) {
+                    deserializer.accept(createChildNode(fieldType, payload));
+                } else if (null != additionalData) {
+                    additionalData.put(name, readAdditionalValue(fieldType, payload));
+                }
+            }
+            field = document.skip(fieldType, payload);
+        }
+    }
+
+    private <T> List<T> mapItems(Function<CompactBinaryParseNode, T> mapper) {
+        if (type != CompactBinaryWriter.ARRAY) {
+            return null;
+        }
+        final List<T> items = new ArrayList<>();
+        final int end = document.readLength(position);
+        int item = position + 4;
+        while (item < end) {
+            final int itemType = document.data[item];
+            items.add(mapper.apply(createChildNode(itemType, item + 1)));
+            item = document.skip(itemType, item + 1);
+        }
+        return items;
+    }
+
+    private Object getPrimitiveValue(Class<?> targetClass) {
+        if (targetClass == String.class) {
+            return getStringValue();
+        } else if (targetClass == Boolean.class) {
+            return getBooleanValue();
+        } else if (targetClass == Byte.class) {
+            return getByteValue();
+        } else if (targetClass == Short.class) {
+            return getShortValue();
+        } else if (targetClass == Integer.class) {
+            return getIntegerValue();
+        } else if (targetClass == Long.class) {
+            return getLongValue();
+        } else if (targetClass == Float.class) {
+            return getFloatValue();
+        } else if (targetClass == Double.class) {
+            return getDoubleValue();
+        } else if (targetClass == BigDecimal.class) {
+            return getBigDecimalValue();
+        } else if (targetClass == UUID.class) {
+            return getUUIDValue();
+        } else if (targetClass == OffsetDateTime.class) {
+            return getOffsetDateTimeValue();
+        } else if (targetClass == LocalDate.class) {
+            return getLocalDateValue();
+        } else if (targetClass == LocalTime.class) {
+            return getLocalTimeValue();
+        } else if (targetClass == PeriodAndDuration.class) {
+            return getPeriodAndDurationValue();
+        } else if (targetClass == byte[].class) {
+            return getByteArrayValue();
+        }
+        throw new IllegalArgumentException("Cannot deserialize a " + targetClass.getName());
+    }
+
+    private Number getNumber() {
+        if (type == CompactBinaryWriter.STRING) {
+            return new BigDecimal(getStringValue());
+        }
+        final Object value = type == CompactBinaryWriter.DECIMAL
+            ? new BigDecimal(getStringValue())
+            : readPrimitive();
+        return value instanceof Number ? (Number) value : null;
+    }
+
+    private Object readPrimitive() {
+        return document.readPrimitive(type, position);
+    }
+
+    // Fields the model does not declare are kept like JsonParseNode keeps
+    // them: primitives as their Java value, objects and arrays as UntypedNode
+    private Object readAdditionalValue(int valueType, int valuePosition) {
+        if (valueType == CompactBinaryWriter.OBJECT || valueType == CompactBinaryWriter.ARRAY) {
+            return readUntyped(valueType, valuePosition);
+        }
+        if (valueType == CompactBinaryWriter.DECIMAL || valueType == CompactBinaryWriter.DURATION) {
+            document.position = valuePosition;
+            final String value = document.readString();
+            return valueType == CompactBinaryWriter.DECIMAL
+                ? new BigDecimal(value)
+                : PeriodAndDuration.parse(value);
+        }
+        return document.readPrimitive(valueType, valuePosition);
+    }
+
+    private UntypedNode readUntyped(int valueType, int valuePosition) {
+        switch (valueType) {
+            case CompactBinaryWriter.OBJECT: {
+                final Map<String, UntypedNode> properties = new LinkedHashMap<>();
+                final int end = document.readLength(valuePosition);
+                int field = valuePosition + 4;
+                while (field < end) {
+                    final int fieldType = document.data[field];
+                    document.position = field + 1;
+                    final String name = document.readString();
+                    final int payload = document.position;
+                    properties.put(name, readUntyped(fieldType, payload));
+                    field = document.skip(fieldType, payload);
+                }
+                return new UntypedObject(properties);
+            }
+            case CompactBinaryWriter.ARRAY: {
+                final List<UntypedNode> items = new ArrayList<>();
+                final int end = document.readLength(valuePosition);
+                int item = valuePosition + 4;
+                while (item < end) {
+                    final int itemType = document.data[item];
+                    items.add(readUntyped(itemType, item + 1));
+                    item = document.skip(itemType, item + 1);
+                }
+                return new UntypedArray(items);
+            }
+            case CompactBinaryWriter.NULL:
+                return new UntypedNull();
+            case CompactBinaryWriter.TRUE:
+            case CompactBinaryWriter.FALSE:
+                return new UntypedBoolean(valueType == CompactBinaryWriter.TRUE);
+            case CompactBinaryWriter.BYTE:
+            case CompactBinaryWriter.SHORT:
+            case CompactBinaryWriter.INT:
+                return new UntypedInteger(((Number) document.readPrimitive(valueType,
+                    valuePosition)).intValue());
+            case CompactBinaryWriter.LONG:
+                return new UntypedLong((Long) document.readPrimitive(valueType, valuePosition));
+            case CompactBinaryWriter.FLOAT:
+                return new UntypedFloat((Float) document.readPrimitive(valueType, valuePosition));
+            case CompactBinaryWriter.DOUBLE:
+                return new UntypedDouble((Double) document.readPrimitive(valueType, valuePosition));
+            case CompactBinaryWriter.DECIMAL:
+                document.position = valuePosition;
+                return new UntypedDecimal(new BigDecimal(document.readString()));
+            case CompactBinaryWriter.BYTES:
+                return new UntypedString(Base64.getEncoder().encodeToString(
+                    (byte[]) document.readPrimitive(valueType, valuePosition)));
+            case CompactBinaryWriter.STRING:
+            case CompactBinaryWriter.DURATION:
+                document.position = valuePosition;
+                return new UntypedString(document.readString());
+            default:
+                return new UntypedString(String.valueOf(
+                    document.readPrimitive(valueType, valuePosition)));
+        }
+    }
+
+    // The bytes being read and the strings decoded so far. A document is
+    // read by one thread at a time, so the nodes share one read position.
+    private static final class Document {
+        private final byte[] data;
+        private final HashMap<Integer, String> referencedStrings = new HashMap<>();
+        private int position;
+
+        private Document(byte[] data) {
+            this.data = data;
+        }
+
+        // The end of the object or array whose length starts at offset
+        private int readLength(int offset) {
+            return offset + 4 + ((data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24);
+        }
+
+        private String readString() {
+            final long header = readVarint();
+            if ((header & 1) == 0) {
+                final int length = (int) (header >>> 1);
+                final String value = new String(data, position, length, StandardCharsets.UTF_8);
+                position += length;
+                return value;
+            }
+            final int offset = (int) (header >>> 1);
+            String value = referencedStrings.get(offset);
+            if (null == value) {
+                final int resume = position;
+                position = offset;
+                value = readString();
+                position = resume;
+                referencedStrings.put(offset, value);
+            }
+            return value;
+        }
+
+        private Object readPrimitive(int type, int offset) {
+            position = offset;
+            switch (type) {
+                case CompactBinaryWriter.NULL:
+                    return null;
+                case CompactBinaryWriter.TRUE:
+                    return Boolean.TRUE;
+                case CompactBinaryWriter.FALSE:
+                    return Boolean.FALSE;
+                case CompactBinaryWriter.BYTE:
+                    return data[position];
+                case CompactBinaryWriter.SHORT:
+                    return (short) readSignedVarint();
+                case CompactBinaryWriter.INT:
+                    return (int) readSignedVarint();
+                case CompactBinaryWriter.LONG:
+                    return readSignedVarint();
+                case CompactBinaryWriter.FLOAT:
+                    return Float.intBitsToFloat((int) readFixed(4));
+                case CompactBinaryWriter.DOUBLE:
+                    return Double.longBitsToDouble(readFixed(8));
+                case CompactBinaryWriter.DECIMAL:
+                case CompactBinaryWriter.STRING:
+                case CompactBinaryWriter.DURATION:
+                    return readString();
+                case CompactBinaryWriter.UUID_VALUE:
+                    return new UUID(readFixed(8), readFixed(8));
+                case CompactBinaryWriter.DATE_TIME: {
+                    final long epochSecond = readSignedVarint();
+                    final int nano = (int) readVarint();
+                    final ZoneOffset offsetOfDateTime = ZoneOffset.ofTotalSeconds(
+                        (int) readSignedVarint());
+                    return OffsetDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano),
+                        offsetOfDateTime);
+                }
+                case CompactBinaryWriter.DATE:
+                    return LocalDate.ofEpochDay(readSignedVarint());
+                case CompactBinaryWriter.TIME:
+                    return LocalTime.ofNanoOfDay(readVarint());
+                case CompactBinaryWriter.BYTES: {
+                    final int length = (int) readVarint();
+                    final byte[] value = new byte[length];
+                    System.arraycopy(data, position, value, 0, length);
+                    position += length;
+                    return value;
+                }
+                default:
+                    throw new IllegalStateException("Unexpected value type " + type);
+            }
+        }
+
+        // The offset just past the value of the given type at offset
+        private int skip(int type, int offset) {
+            position = offset;
+            switch (type) {
+                case CompactBinaryWriter.NULL:
+                case CompactBinaryWriter.TRUE:
+                case CompactBinaryWriter.FALSE:
+                    return offset;
+                case CompactBinaryWriter.BYTE:
+                    return offset + 1;
+                case CompactBinaryWriter.SHORT:
+                case CompactBinaryWriter.INT:
+                case CompactBinaryWriter.LONG:
+                case CompactBinaryWriter.DATE:
+                case CompactBinaryWriter.TIME:
+                    readVarint();
+                    return position;
+                case CompactBinaryWriter.FLOAT:
+                    return offset + 4;
+                case CompactBinaryWriter.DOUBLE:
+                    return offset + 8;
+                case CompactBinaryWriter.UUID_VALUE:
+                    return offset + 16;
+                case CompactBinaryWriter.DATE_TIME:
+                    readVarint();
+                    readVarint();
+                    readVarint();
+                    return position;
+                case CompactBinaryWriter.DECIMAL:
+                case CompactBinaryWriter.STRING:
+                case CompactBinaryWriter.DURATION: {
+                    final long header = readVarint();
+                    return (header & 1) == 0 ? position + (int) (header >>> 1) : position;
+                }
+                case CompactBinaryWriter.BYTES: {
+                    final int length = (int) readVarint();
+                    return position + length;
+                }
+                case CompactBinaryWriter.OBJECT:
+                case CompactBinaryWriter.ARRAY:
+                    return readLength(offset);
+                default:
+                    throw new IllegalStateException("Unexpected value type " + type);
+            }
+        }
+
+        private long readSignedVarint() {
+            final long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint at " + position);
+        }
+
+        private long readFixed(int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value |= (long) (data[position++] & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+    }
+}
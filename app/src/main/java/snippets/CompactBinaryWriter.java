@@ -0,0 +1,551 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.microsoft.kiota.PeriodAndDuration;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.SerializationWriter;
+import com.microsoft.kiota.serialization.SerializationWriterFactory;
+import com.microsoft.kiota.serialization.UntypedArray;
+import com.microsoft.kiota.serialization.UntypedNode;
+import com.microsoft.kiota.serialization.UntypedObject;
+import com.microsoft.kiota.serialization.ValuedEnum;
+
+// A SerializationWriter for a compact binary form of the Kiota models, to
+// cache or persist them without going through JSON. It is read back with
+// CompactBinaryParseNode. Every value starts with a one byte type, numbers
+// and dates are varints instead of text, and objects and arrays carry their
+// length so a reader can skip them. Fields are still tagged with their name,
+// so a model that gained or lost properties reads data written by another
+// version: unknown fields go to additionalData and missing ones stay null.
+// Field names, and string values of up to 128 characters, are written once
+// per document and then referenced by their offset, so repeated property
+// names, email addresses, time zones or etags cost a few bytes each.
+public class CompactBinaryWriter implements SerializationWriter {
+    public static final String CONTENT_TYPE = "application/vnd.snippets.compact-binary";
+
+    static final byte[] HEADER = {'K', 'B', 1};
+
+    static final int NULL = 1;
+    static final int FALSE = 2;
+    static final int TRUE = 3;
+    static final int BYTE = 4;
+    static final int SHORT = 5;
+    static final int INT = 6;
+    static final int LONG = 7;
+    static final int FLOAT = 8;
+    static final int DOUBLE = 9;
+    static final int DECIMAL = 10;
+    static final int STRING = 11;
+    static final int UUID_VALUE = 12;
+    static final int DATE_TIME = 13;
+    static final int DATE = 14;
+    static final int TIME = 15;
+    static final int DURATION = 16;
+    static final int BYTES = 17;
+    static final int OBJECT = 18;
+    static final int ARRAY = 19;
+
+    // Strings of 3 characters or fewer are as short inline as referenced
+    private static final int MIN_INTERNED_LENGTH = 4;
+    private static final int MAX_INTERNED_LENGTH = 128;
+
+    private byte[] buffer = new byte[512];
+    private int size;
+    private final HashMap<String, Integer> stringOffsets = new HashMap<>();
+
+    private Consumer<Parsable> onBeforeObjectSerialization;
+    private Consumer<Parsable> onAfterObjectSerialization;
+    private BiConsumer<Parsable, SerializationWriter> onStartObjectSerialization;
+
+    public CompactBinaryWriter() {
+        writeRaw(HEADER, 0, HEADER.length);
+    }
+
+    public static byte[] serialize(Parsable value) {
+        final CompactBinaryWriter writer = new CompactBinaryWriter();
+        writer.writeObjectValue(null, Objects.requireNonNull(value));
+        return writer.toByteArray();
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public InputStream getSerializedContent() {
+        return new ByteArrayInputStream(buffer, 0, size);
+    }
+
+    @Override
+    public void writeStringValue(String key, String value) {
+        if (null != value) {
+            writeKey(key, STRING);
+            writeString(value, true);
+        }
+    }
+
+    @Override
+    public void writeBooleanValue(String key, Boolean value) {
+        if (null != value) {
+            writeKey(key, value ? TRUE : FALSE);
+        }
+    }
+
+    @Override
+    public void writeByteValue(String key, Byte value) {
+        if (null != value) {
+            writeKey(key, BYTE);
+            writeByte(value);
+        }
+    }
+
+    @Override
+    public void writeShortValue(String key, Short value) {
+        if (null != value) {
+            writeKey(key, SHORT);
+            writeSignedVarint(value);
+        }
+    }
+
+    @Override
+    public void writeBigDecimalValue(String key, BigDecimal value) {
+        if (null != value) {
+            writeKey(key, DECIMAL);
+            writeString(value.toString(), false);
+        }
+    }
+
+    @Override
+    public void writeIntegerValue(String key, Integer value) {
+        if (null != value) {
+            writeKey(key, INT);
+            writeSignedVarint(value);
+        }
+    }
+
+    @Override
+    public void writeFloatValue(String key, Float value) {
+        if (null != value) {
+            writeKey(key, FLOAT);
+            writeFixed(Float.floatToIntBits(value), 4);
+        }
+    }
+
+    @Override
+    public void writeDoubleValue(String key, Double value) {
+        if (null != value) {
+            writeKey(key, DOUBLE);
+            writeFixed(Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    @Override
+    public void writeLongValue(String key, Long value) {
+        if (null != value) {
+            writeKey(key, LONG);
+            writeSignedVarint(value);
+        }
+    }
+
+    @Override
+    public void writeUUIDValue(String key, UUID value) {
+        if (null != value) {
+            writeKey(key, UUID_VALUE);
+            writeFixed(value.getMostSignificantBits(), 8);
+            writeFixed(value.getLeastSignificantBits(), 8);
+        }
+    }
+
+    @Override
+    public void writeOffsetDateTimeValue(String key, OffsetDateTime value) {
+        if (null != value) {
+            writeKey(key, DATE_TIME);
+            writeSignedVarint(value.toEpochSecond());
+            writeVarint(value.getNano());
+            writeSignedVarint(value.getOffset().getTotalSeconds());
+        }
+    }
+
+    @Override
+    public void writeLocalDateValue(String key, LocalDate value) {
+        if (null != value) {
+            writeKey(key, DATE);
+            writeSignedVarint(value.toEpochDay());
+        }
+    }
+
+    @Override
+    public void writeLocalTimeValue(String key, LocalTime value) {
+        if (null != value) {
+            writeKey(key, TIME);
+            writeVarint(value.toNanoOfDay());
+        }
+    }
+
+    @Override
+    public void writePeriodAndDurationValue(String key, PeriodAndDuration value) {
+        if (null != value) {
+            writeKey(key, DURATION);
+            writeString(value.toString(), true);
+        }
+    }
+
+    @Override
+    public void writeByteArrayValue(String key, byte[] value) {
+        if (null != value) {
+            writeKey(key, BYTES);
+            writeVarint(value.length);
+            writeRaw(value, 0, value.length);
+        }
+    }
+
+    @Override
+    public <T> void writeCollectionOfPrimitiveValues(String key, Iterable<T> values) {
+        if (null != values) {
+            writeKey(key, ARRAY);
+            final int start = beginLength();
+            for (T value : values) {
+                writeAnyValue(null, value);
+            }
+            endLength(start);
+        }
+    }
+
+    @Override
+    public <T extends Parsable> void writeCollectionOfObjectValues(String key, Iterable<T> values) {
+        if (null != values) {
+            writeKey(key, ARRAY);
+            final int start = beginLength();
+            for (T value : values) {
+                if (null == value) {
+                    writeNullValue(null);
+                } else {
+                    writeObjectValue(null, value);
+                }
+            }
+            endLength(start);
+        }
+    }
+
+    @Override
+    public <T extends Enum<T>> void writeCollectionOfEnumValues(String key, Iterable<T> values) {
+        if (null != values) {
+            writeKey(key, ARRAY);
+            final int start = beginLength();
+            for (T value : values) {
+                if (null == value) {
+                    writeNullValue(null);
+                } else {
+                    writeEnumValue(null, value);
+                }
+            }
+            endLength(start);
+        }
+    }
+
+    @Override
+    public <T extends Parsable> void writeObjectValue(String key, T value,
+        Parsable... additionalValuesToMerge) {
+        final List<Parsable> merged = new ArrayList<>(additionalValuesToMerge.length);
+        for (Parsable additionalValue : additionalValuesToMerge) {
+            if (null != additionalValue) {
+                merged.add(additionalValue);
+            }
+        }
+        if (null == value && merged.isEmpty()) {
+            return;
+        }
+        if (value instanceof UntypedNode) {
+            writeUntypedValue(key, (UntypedNode) value);
+            return;
+        }
+
+        if (null != value && null != onBeforeObjectSerialization) {
+            onBeforeObjectSerialization.accept(value);
+        }
+        writeKey(key, OBJECT);
+        final int start = beginLength();
+        if (null != value) {
+            if (null != onStartObjectSerialization) {
+                onStartObjectSerialization.accept(value, this);
+            }
+            value.serialize(this);
+        }
+        for (Parsable additionalValue : merged) {
+            if (null != onStartObjectSerialization) {
+                onStartObjectSerialization.accept(additionalValue, this);
+            }
+            additionalValue.serialize(this);
+        }
+        endLength(start);
+        if (null != value && null != onAfterObjectSerialization) {
+            onAfterObjectSerialization.accept(value);
+        }
+    }
+
+    @Override
+    public <T extends Enum<T>> void writeEnumSetValue(String key, EnumSet<T> values) {
+        if (null != values && !values.isEmpty()) {
+            final StringBuilder joined = new StringBuilder();
+            for (T value : values) {
+                if (joined.length() > 0) {
+                    joined.append(',');
+                }
+                joined.append(getEnumString(value));
+            }
+            writeStringValue(key, joined.toString());
+        }
+    }
+
+    @Override
+    public <T extends Enum<T>> void writeEnumValue(String key, T value) {
+        if (null != value) {
+            writeStringValue(key, getEnumString(value));
+        }
+    }
+
+    @Override
+    public void writeNullValue(String key) {
+        writeKey(key, NULL);
+    }
+
+    @Override
+    public void writeAdditionalData(Map<String, Object> value) {
+        if (null != value) {
+            for (Map.Entry<String, Object> entry : value.entrySet()) {
+                writeAnyValue(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Consumer<Parsable> getOnBeforeObjectSerialization() {
+        return onBeforeObjectSerialization;
+    }
+
+    @Override
+    public Consumer<Parsable> getOnAfterObjectSerialization() {
+        return onAfterObjectSerialization;
+    }
+
+    @Override
+    public BiConsumer<Parsable, SerializationWriter> getOnStartObjectSerialization() {
+        return onStartObjectSerialization;
+    }
+
+    @Override
+    public void setOnBeforeObjectSerialization(Consumer<Parsable> value) {
+        this.onBeforeObjectSerialization = value;
+    }
+
+    @Override
+    public void setOnAfterObjectSerialization(Consumer<Parsable> value) {
+        this.onAfterObjectSerialization = value;
+    }
+
+    @Override
+    public void setOnStartObjectSerialization(BiConsumer<Parsable, SerializationWriter> value) {
+        this.onStartObjectSerialization = value;
+    }
+
+    @Override
+    public void close() {
+        buffer = new byte[0];
+        size = 0;
+        stringOffsets.clear();
+    }
+
+    // Registers the format with a request adapter or a serialization
+    // registry, next to the JSON one
+    public static class Factory implements SerializationWriterFactory {
+        @Override
+        public String getValidContentType() {
+            return CONTENT_TYPE;
+        }
+
+        @Override
+        public SerializationWriter getSerializationWriter(String contentType) {
+            if (!CONTENT_TYPE.equals(Objects.requireNonNull(contentType))) {
+                throw new IllegalArgumentException("expected a " + CONTENT_TYPE + " content type");
+            }
+            return new CompactBinaryWriter();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeAnyValue(String key, Object value) {
+        if (null == value) {
+            writeNullValue(key);
+        } else if (value instanceof String) {
+            writeStringValue(key, (String) value);
+        } else if (value instanceof Boolean) {
+            writeBooleanValue(key, (Boolean) value);
+        } else if (value instanceof Byte) {
+            writeByteValue(key, (Byte) value);
+        } else if (value instanceof Short) {
+            writeShortValue(key, (Short) value);
+        } else if (value instanceof Integer) {
+            writeIntegerValue(key, (Integer) value);
+        } else if (value instanceof Long) {
+            writeLongValue(key, (Long) value);
+        } else if (value instanceof Float) {
+            writeFloatValue(key, (Float) value);
+        } else if (value instanceof Double) {
+            writeDoubleValue(key, (Double) value);
+        } else if (value instanceof BigDecimal) {
+            writeBigDecimalValue(key, (BigDecimal) value);
+        } else if (value instanceof UUID) {
+            writeUUIDValue(key, (UUID) value);
+        } else if (value instanceof OffsetDateTime) {
+            writeOffsetDateTimeValue(key, (OffsetDateTime) value);
+        } else if (value instanceof LocalDate) {
+            writeLocalDateValue(key, (LocalDate) value);
+        } else if (value instanceof LocalTime) {
+            writeLocalTimeValue(key, (LocalTime) value);
+        } else if (value instanceof PeriodAndDuration) {
+            writePeriodAndDurationValue(key, (PeriodAndDuration) value);
+        } else if (value instanceof byte[]) {
+            writeByteArrayValue(key, (byte[]) value);
+        } else if (value instanceof Enum) {
+            writeStringValue(key, getEnumString((Enum<?>) value));
+        } else if (value instanceof Parsable) {
+            writeObjectValue(key, (Parsable) value);
+        } else if (value instanceof Map) {
+            writeKey(key, OBJECT);
+            final int start = beginLength();
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                writeAnyValue(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            endLength(start);
+        } else if (value instanceof Iterable) {
+            writeCollectionOfPrimitiveValues(key, (Iterable<Object>) value);
+        } else {
+            throw new IllegalArgumentException("Cannot serialize a " + value.getClass().getName());
+        }
+    }
+
+    private void writeUntypedValue(String key, UntypedNode value) {
+        if (value instanceof UntypedObject) {
+            writeKey(key, OBJECT);
+            final int start = beginLength();
+            final Map<String, UntypedNode> properties = ((UntypedObject) value).getValue();
+            for (Map.Entry<String, UntypedNode> entry : properties.entrySet()) {
+                writeUntypedValue(entry.getKey(), entry.getValue());
+            }
+            endLength(start);
+        } else if (value instanceof UntypedArray) {
+            writeKey(key, ARRAY);
+            final int start = beginLength();
+            for (UntypedNode item : ((UntypedArray) value).getValue()) {
+                writeUntypedValue(null, item);
+            }
+            endLength(start);
+        } else {
+            writeAnyValue(key, value.getValue());
+        }
+    }
+
+    private static String getEnumString(Enum<?> value) {
+        return value instanceof ValuedEnum ? ((ValuedEnum) value).getValue() : value.name();
+    }
+
+    // Values inside an object are preceded by their name, values in an array
+    // or at the root are not
+    private void writeKey(String key, int type) {
+        writeByte(type);
+        if (null != key) {
+            writeString(key, true);
+        }
+    }
+
+    // An even varint is the UTF-8 length of the string that follows, an odd
+    // one the offset of an earlier occurrence of the same string
+    private void writeString(String value, boolean intern) {
+        final boolean internable = intern && value.length() >= MIN_INTERNED_LENGTH
+            && value.length() <= MAX_INTERNED_LENGTH;
+        if (internable) {
+            final Integer offset = stringOffsets.get(value);
+            if (null != offset) {
+                writeVarint(((long) offset << 1) | 1);
+                return;
+            }
+            stringOffsets.put(value, size);
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint((long) bytes.length << 1);
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    // Objects and arrays start with their length in bytes, filled in when
+    // they are complete
+    private int beginLength() {
+        ensureCapacity(4);
+        size += 4;
+        return size;
+    }
+
+    private void endLength(int start) {
+        final int length = size - start;
+        buffer[start - 4] = (byte) length;
+        buffer[start - 3] = (byte) (length >>> 8);
+        buffer[start - 2] = (byte) (length >>> 16);
+        buffer[start - 1] = (byte) (length >>> 24);
+    }
+
+    private void writeSignedVarint(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeFixed(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int i = 0; i < bytes; i++) {
+            buffer[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeRaw(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (size + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + needed));
+        }
+    }
+}
@@ -3,6 +3,8 @@
 
 package snippets;
 
+import java.time.Duration;
+
 import com.azure.identity.AuthorizationCodeCredential;
 import com.azure.identity.AuthorizationCodeCredentialBuilder;
 import com.azure.identity.ClientCertificateCredential;
@@ -184,4 +186,62 @@ public class CreateClients {
 
         return graphClient;
     }
+
+    public static GraphServiceClient createWithClientRegistry(GraphClientRegistry registry)
+        throws Exception {
+        // <ClientRegistrySnippet>
+        // Create one GraphClientRegistry for the whole application, all
+        // clients it returns share its connection pool
+        final String clientId = "YOUR_CLIENT_ID";
+        final String clientSecret = "YOUR_CLIENT_SECRET";
+        final String[] scopes = new String[] { "https://graph.microsoft.com/.default" };
+
+        final ClientSecretCredential contosoCredential = new ClientSecretCredentialBuilder()
+            .clientId(clientId).tenantId("CONTOSO_TENANT_ID").clientSecret(clientSecret).build();
+        final ClientSecretCredential fabrikamCredential = new ClientSecretCredentialBuilder()
+            .clientId(clientId).tenantId("FABRIKAM_TENANT_ID").clientSecret(clientSecret).build();
+
+        if (null == registry || null == contosoCredential || null == fabrikamCredential) {
+            throw new Exception("Unexpected error");
+        }
+
+        // Each tenant gets its own client and authentication provider, asking
+        // again with the same credential returns the same client
+        final GraphServiceClient contosoClient = registry.getClient(contosoCredential, scopes);
+        final GraphServiceClient fabrikamClient = registry.getClient(fabrikamCredential, scopes);
+
+        // Connections, queued calls and registered clients across all tenants
+        System.out.println(registry.getPoolStats());
+        // </ClientRegistrySnippet>
+
+        return contosoClient;
+    }
+
+    public static GraphServiceClient createWithCachingCredential() throws Exception {
+        // <CachingCredentialSnippet>
+        final String clientId = "YOUR_CLIENT_ID";
+        final String tenantId = "YOUR_TENANT_ID";
+        final String clientSecret = "YOUR_CLIENT_SECRET";
+        final String[] scopes = new String[] { "https://graph.microsoft.com/.default" };
+
+        final ClientSecretCredential credential = new ClientSecretCredentialBuilder()
+            .clientId(clientId).tenantId(tenantId).clientSecret(clientSecret).build();
+
+        if (null == scopes || null == credential) {
+            throw new Exception("Unexpected error");
+        }
+
+        // Tokens are cached in memory and refreshed in the background
+        // 5 minutes (minus up to 1 minute of jitter) before they expire
+        final CachingTokenCredential cachingCredential = new CachingTokenCredential(credential,
+            Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+        final GraphServiceClient graphClient = new GraphServiceClient(cachingCredential, scopes);
+
+        // Cache hits, misses and token fetch latency
+        System.out.println(cachingCredential.getStats());
+        // </CachingCredentialSnippet>
+
+        return graphClient;
+    }
 }
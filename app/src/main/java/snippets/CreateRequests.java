@@ -3,13 +3,15 @@
 
 package snippets;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 import com.microsoft.graph.models.*;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
 
 public class CreateRequests {
-    public static void runSamples(GraphServiceClient graphClient) {
+    public static void runSamples(GraphServiceClient graphClient) throws InterruptedException {
         // Create a new message
         final Message tempMessage = new Message();
         tempMessage.setSubject("Temporary");
@@ -36,6 +38,7 @@ public class CreateRequests {
         makeUpdateRequest(graphClient, teamId);
         makeHeadersRequest(graphClient);
         makeQueryParametersRequest(graphClient);
+        makeFanOutRequests(graphClient);
     }
 
     private static User makeReadRequest(GraphServiceClient graphClient) {
@@ -170,4 +173,42 @@ public class CreateRequests {
 
         return events;
     }
+
+    private static List<MessageCollectionResponse> makeFanOutRequests(
+        GraphServiceClient graphClient) throws InterruptedException {
+        // <FanOutRequestsSnippet>
+        // GET https://graph.microsoft.com/v1.0/users?$select=id
+        final UserCollectionResponse users = Objects.requireNonNull(graphClient.users().get( requestConfiguration -> {
+            requestConfiguration.queryParameters.select = new String[] {"id"};
+        }));
+
+        final List<String> userIds = new ArrayList<>();
+        for (User user : users.getValue()) {
+            userIds.add(user.getId());
+        }
+
+        // At most 64 calls are in flight overall, each on a pool thread, and
+        // 16 against any one endpoint
+        final FanOutExecutor fanOutExecutor = new FanOutExecutor(64, 16);
+
+        // GET https://graph.microsoft.com/v1.0/users/{id}/messages for every user
+        final List<FanOutExecutor.FanOutResult<MessageCollectionResponse>> results = fanOutExecutor
+            .map("/users/{id}/messages", userIds, userId -> graphClient.users().byUserId(userId)
+                .messages().get( requestConfiguration -> {
+                    requestConfiguration.queryParameters.top = 10;
+                }));
+
+        // Results are in the same order as userIds
+        final List<MessageCollectionResponse> messages = new ArrayList<>();
+        for (FanOutExecutor.FanOutResult<MessageCollectionResponse> result : results) {
+            if (result.isSuccessful()) {
+                messages.add(result.getValue());
+            } else {
+                System.out.println(result.getError().getMessage());
+            }
+        }
+        // </FanOutRequestsSnippet>
+
+        return messages;
+    }
 }
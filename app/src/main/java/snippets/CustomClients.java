@@ -6,6 +6,7 @@ package snippets;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.time.Duration;
 
 import com.azure.core.credential.TokenCredential;
 import com.azure.core.http.HttpClient;
@@ -53,6 +54,160 @@ public class CustomClients {
         return graphClient;
     }
 
+    public static GraphServiceClient createWithMetricsHandler(
+        TokenCredential credential, String[] allowedHosts, String[] scopes) throws Exception {
+        if (null == credential || scopes == null) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <MetricsHandlerSnippet>
+        // tokenCredential is one of the credential classes from azure-identity
+        // scopes is a list of permission scope strings
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(credential, allowedHosts, scopes);
+
+        final MetricsHandler metricsHandler = new MetricsHandler();
+
+        final OkHttpClient httpClient = GraphClientFactory.create()
+            .addInterceptor(metricsHandler).build();
+
+        if (null == httpClient) {
+            throw new Exception("Could not create HTTP client.");
+        }
+
+        // Per-endpoint metrics are available from getSnapshot(), or as text
+        // at http://localhost:9464/metrics
+        metricsHandler.startExpositionServer(new InetSocketAddress("localhost", 9464));
+
+        final GraphServiceClient graphClient = new GraphServiceClient(authProvider, httpClient);
+        // </MetricsHandlerSnippet>
+
+        return graphClient;
+    }
+
+    public static GraphServiceClient createWithRateLimitHandler(
+        TokenCredential credential, String[] allowedHosts, String[] scopes) throws Exception {
+        if (null == credential || scopes == null) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <RateLimitHandlerSnippet>
+        // tokenCredential is one of the credential classes from azure-identity
+        // scopes is a list of permission scope strings
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(credential, allowedHosts, scopes);
+
+        // Start at 10 requests per second for each tenant and resource, never
+        // go below 0.5 or above 1000, and grow by 2 requests per second for
+        // every second without throttling
+        final AdaptiveRateLimitHandler rateLimitHandler =
+            new AdaptiveRateLimitHandler(10, 0.5, 1000, 2);
+
+        final OkHttpClient httpClient = GraphClientFactory.create()
+            .addInterceptor(rateLimitHandler).build();
+
+        if (null == httpClient) {
+            throw new Exception("Could not create HTTP client.");
+        }
+
+        final GraphServiceClient graphClient = new GraphServiceClient(authProvider, httpClient);
+        // </RateLimitHandlerSnippet>
+
+        return graphClient;
+    }
+
+    public static GraphServiceClient createWithResponseCacheHandler(
+        TokenCredential credential, String[] allowedHosts, String[] scopes) throws Exception {
+        if (null == credential || scopes == null) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <ResponseCacheHandlerSnippet>
+        // tokenCredential is one of the credential classes from azure-identity
+        // scopes is a list of permission scope strings
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(credential, allowedHosts, scopes);
+
+        // Keep up to 32 MB of responses, serve them for 30 seconds without
+        // calling Graph and revalidate them with their ETag after that
+        final ResponseCacheHandler responseCacheHandler =
+            new ResponseCacheHandler(32 * 1024 * 1024, Duration.ofSeconds(30));
+
+        final OkHttpClient httpClient = GraphClientFactory.create()
+            .addInterceptor(responseCacheHandler).build();
+
+        if (null == httpClient) {
+            throw new Exception("Could not create HTTP client.");
+        }
+
+        final GraphServiceClient graphClient = new GraphServiceClient(authProvider, httpClient);
+
+        // Repeated calls such as graphClient.me().get() are now served from
+        // the cache, responseCacheHandler.getStats() reports the hit rate
+        // </ResponseCacheHandlerSnippet>
+
+        return graphClient;
+    }
+
+    public static GraphServiceClient createWithAutoSelectHandler(
+        TokenCredential credential, String[] allowedHosts, String[] scopes) throws Exception {
+        if (null == credential || scopes == null) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <AutoSelectHandlerSnippet>
+        // tokenCredential is one of the credential classes from azure-identity
+        // scopes is a list of permission scope strings
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(credential, allowedHosts, scopes);
+
+        // Send the first 3 GET requests of each call site without a $select,
+        // then select only the properties the code there read from them
+        final AutoSelectHandler autoSelectHandler = new AutoSelectHandler(3);
+
+        final OkHttpClient httpClient = GraphClientFactory.create()
+            .addInterceptor(autoSelectHandler).build();
+
+        if (null == httpClient) {
+            throw new Exception("Could not create HTTP client.");
+        }
+
+        // Only the clients the handler creates record which properties are read
+        final GraphServiceClient graphClient = autoSelectHandler.createClient(authProvider,
+            httpClient);
+
+        // A call such as graphClient.me().messages().get() followed by reads of
+        // getSubject() now fetches only the subject and id, and
+        // autoSelectHandler.getSelects() lists the $select used by each call site.
+        // </AutoSelectHandlerSnippet>
+
+        return graphClient;
+    }
+
+    public static GraphServiceClient createWithCoalescingHandler(
+        TokenCredential credential, String[] allowedHosts, String[] scopes) throws Exception {
+        if (null == credential || scopes == null) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <CoalescingHandlerSnippet>
+        // tokenCredential is one of the credential classes from azure-identity
+        // scopes is a list of permission scope strings
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(credential, allowedHosts, scopes);
+
+        // Identical GET requests made while one is already in flight, such as
+        // many threads calling graphClient.me().get() at once, share its response
+        final CoalescingHandler coalescingHandler = new CoalescingHandler();
+
+        final OkHttpClient httpClient = GraphClientFactory.create()
+            .addInterceptor(coalescingHandler).build();
+
+        if (null == httpClient) {
+            throw new Exception("Could not create HTTP client.");
+        }
+
+        final GraphServiceClient graphClient = new GraphServiceClient(authProvider, httpClient);
+        // </CoalescingHandlerSnippet>
+
+        return graphClient;
+    }
+
     public static GraphServiceClient createWithProxy(String[] allowedHosts, String[] scopes) throws Exception {
         if (scopes == null) {
             throw new Exception("Parameters are not optional");
@@ -4,7 +4,16 @@
 package snippets;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
 
 import okhttp3.Headers;
 import okhttp3.Interceptor;
@@ -14,59 +23,205 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
+
+// Logs each sampled call as one JSON record with the method, url, headers,
+// status, elapsed time and JSON bodies, truncated to maxBodyBytes. Records are
+// written on the calling thread, unless a buffer size is given: then they are
+// handed to a writer thread through a bounded buffer so a slow console never
+// blocks a request, records that do not fit are dropped and counted, and
+// close() stops the writer once the buffer is drained.
+public class DebugHandler implements Interceptor, AutoCloseable {
+    public enum Level {
+        // Log nothing
+        NONE,
+        // Method, URL, status and elapsed time
+        BASIC,
+        // BASIC plus request headers
+        HEADERS,
+        // HEADERS plus JSON request and response bodies
+        BODY
+    }
+
+    private final Level level;
+    private final double sampleRate;
+    private final long maxBodyBytes;
+    private final PrintStream output;
+    // Null when records are written synchronously
+    private final BlockingQueue<String> records;
+    private final Thread writer;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private volatile boolean closed;
+
+    public DebugHandler() {
+        this(Level.BODY, 1.0, Long.MAX_VALUE);
+    }
+
+    public DebugHandler(Level level, double sampleRate, long maxBodyBytes) {
+        this(level, sampleRate, maxBodyBytes, System.out, 0);
+    }
+
+    // bufferRecords of 0 writes each record on the calling thread
+    public DebugHandler(Level level, double sampleRate, long maxBodyBytes, PrintStream output,
+        int bufferRecords) {
+        this.level = Objects.requireNonNull(level);
+        this.output = Objects.requireNonNull(output);
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        if (maxBodyBytes < 0 || bufferRecords < 0) {
+            throw new IllegalArgumentException("maxBodyBytes and bufferRecords cannot be negative");
+        }
+        this.sampleRate = sampleRate;
+        this.maxBodyBytes = maxBodyBytes;
+
+        if (level == Level.NONE || bufferRecords == 0) {
+            this.records = null;
+            this.writer = null;
+            return;
+        }
+        final BlockingQueue<String> buffer = new ArrayBlockingQueue<>(bufferRecords);
+        this.records = buffer;
+        this.writer = new Thread(() -> {
+            try {
+                while (true) {
+                    output.println(buffer.take());
+                }
+            } catch (InterruptedException e) {
+                // Closed, write what is left
+                for (String record = buffer.poll(); null != record; record = buffer.poll()) {
+                    output.println(record);
+                }
+            }
+        }, "debug-handler-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
 
-public class DebugHandler implements Interceptor {
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    // Stops logging; buffered records are still written
+    @Override
+    public void close() {
+        closed = true;
+        if (null != writer) {
+            writer.interrupt();
+        }
+    }
 
     @Override
     public Response intercept(final Chain chain) throws IOException {
-        Request request = chain.request();
-        System.out.println("BEGIN REQUEST");
-        System.out.println(String.format("%s %s", request.method(), request.url()));
+        // Nothing is allocated on this path when logging is off or the call
+        // is not sampled
+        if (level == Level.NONE || closed || (sampleRate < 1.0
+            && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return chain.proceed(chain.request());
+        }
 
-        final Headers headers = request.headers();
-        for (int i = 0; i < headers.size(); i++) {
-            logHeader(headers, i);
+        final Request request = chain.request();
+        final JsonObject record = new JsonObject();
+        record.addProperty("method", request.method());
+        record.addProperty("url", request.url().toString());
+
+        if (level.compareTo(Level.HEADERS) >= 0) {
+            record.add("requestHeaders", getHeaders(request.headers()));
         }
 
         final RequestBody requestBody = request.body();
-        if (requestBody != null) {
+        if (level == Level.BODY && requestBody != null) {
             final MediaType contentType = requestBody.contentType();
-            if (contentType != null
-                && contentType.subtype().compareToIgnoreCase("json") == 0) {
-                final Charset charset = contentType.charset(Charset.forName("UTF-8"));
-                final Buffer buffer = new Buffer();
-                requestBody.writeTo(buffer);
-                System.out.println(buffer.readString(charset));
-            } else {
-                System.out.println("Non-JSON content");
-                System.out.println(String.format("Content-Length: %d", requestBody.contentLength()));
-                // if (contentType != null && contentType.subtype().compareToIgnoreCase("octet-stream") == 0) {
-                //     final Buffer buffer = new Buffer();
-                //     requestBody.writeTo(buffer);
-                //     final ByteString byteString = buffer.readByteString();
-                //     System.out.println(byteString.hex());
-                // }
+            record.addProperty("requestContentType",
+                null == contentType ? null : contentType.toString());
+            record.addProperty("requestContentLength", requestBody.contentLength());
+            if (isJson(contentType) && !requestBody.isOneShot()) {
+                final Buffer captured = new Buffer();
+                final boolean truncated = capture(requestBody, captured);
+                record.addProperty("requestBody",
+                    captured.readString(contentType.charset(StandardCharsets.UTF_8)));
+                record.addProperty("requestBodyTruncated", truncated);
             }
         }
-        System.out.println("END REQUEST");
 
+        final long startNanos = System.nanoTime();
         final Response response = chain.proceed(request);
+        record.addProperty("status", response.code());
+        record.addProperty("elapsedMillis", (System.nanoTime() - startNanos) / 1_000_000);
 
-        System.out.println("BEGIN RESPONSE");
-        System.out.println(String.format("Status: %d", response.code()));
-        final ResponseBody responseBody = response.peekBody(Long.MAX_VALUE);
-        if (responseBody != null) {
-            System.out.println(responseBody.string());
+        final ResponseBody body = response.body();
+        if (level == Level.BODY && null != body && isJson(body.contentType())) {
+            // Only buffers up to maxBodyBytes, the caller still reads the full body
+            final ResponseBody peeked = response.peekBody(
+                maxBodyBytes == Long.MAX_VALUE ? maxBodyBytes : maxBodyBytes + 1);
+            final Buffer captured = new Buffer();
+            captured.write(peeked.source(), Math.min(peeked.contentLength(), maxBodyBytes));
+            final Charset charset = body.contentType().charset(StandardCharsets.UTF_8);
+            record.addProperty("responseBody", captured.readString(charset));
+            record.addProperty("responseBodyTruncated", peeked.contentLength() > maxBodyBytes);
         }
-        System.out.println("END RESPONSE");
 
+        write(record.toString());
         return response;
     }
 
-    private void logHeader(Headers headers, int index) {
-        final String value = headers.name(index).compareToIgnoreCase("Authorization") == 0
-            ? "***"
-            : headers.value(index);
-        System.out.println(String.format("%s: %s", headers.name(index), value));
+    private void write(String record) {
+        if (null == records) {
+            output.println(record);
+        } else if (!records.offer(record)) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    private static boolean isJson(MediaType contentType) {
+        return null != contentType && contentType.subtype().contains("json");
+    }
+
+    // Copies the first maxBodyBytes of the body into captured, and whether
+    // there was more. The rest is written to nowhere, so a large body is not
+    // held in memory.
+    private boolean capture(RequestBody requestBody, Buffer captured) throws IOException {
+        final boolean[] truncated = {false};
+        final BufferedSink sink = Okio.buffer(new Sink() {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                final long kept = Math.min(byteCount, maxBodyBytes - captured.size());
+                captured.write(source, kept);
+                if (byteCount > kept) {
+                    truncated[0] = true;
+                    source.skip(byteCount - kept);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        requestBody.writeTo(sink);
+        sink.flush();
+        return truncated[0];
+    }
+
+    private static JsonObject getHeaders(Headers headers) {
+        final JsonObject values = new JsonObject();
+        for (int i = 0; i < headers.size(); i++) {
+            final String value = headers.name(i).compareToIgnoreCase("Authorization") == 0
+                ? "***"
+                : headers.value(i);
+            values.addProperty(headers.name(i), value);
+        }
+        return values;
     }
 }
@@ -0,0 +1,235 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import com.microsoft.graph.core.tasks.PageIterator.PageIteratorState;
+import com.microsoft.graph.models.Entity;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Mirrors a collection into a local store with Graph delta queries. The first
+// sync sends the initial delta request (for example
+// me().mailFolders().byMailFolderId("inbox").messages().delta() or
+// users().delta()) and reads every item; later syncs start from the saved
+// deltaLink and only read what changed since. Pages are streamed through
+// StreamingPageReader until the @odata.deltaLink, and items carrying @removed
+// are passed to the handler as removals.
+//
+// The deltaLink is saved to checkpointPath only after the whole round has been
+// applied, written to a temporary file, forced to disk and then moved over the
+// previous checkpoint. A round interrupted by a crash is read again from the
+// previous deltaLink, so handlers must apply changes idempotently.
+public class DeltaSyncEngine<TEntity extends Entity> {
+    private static final int RESYNC_REQUIRED = 410;
+
+    private final GraphServiceClient graphClient;
+    private final Supplier<RequestInformation> initialRequest;
+    private final ParsableFactory<TEntity> entityFactory;
+    private final Path checkpointPath;
+    private final UnaryOperator<RequestInformation> requestConfigurator;
+
+    public DeltaSyncEngine(GraphServiceClient graphClient,
+        Supplier<RequestInformation> initialRequest, ParsableFactory<TEntity> entityFactory,
+        Path checkpointPath) {
+        this(graphClient, initialRequest, entityFactory, checkpointPath, null);
+    }
+
+    // requestConfigurator is applied to every nextLink and deltaLink request,
+    // for example to send Prefer: odata.maxpagesize on every page
+    public DeltaSyncEngine(GraphServiceClient graphClient,
+        Supplier<RequestInformation> initialRequest, ParsableFactory<TEntity> entityFactory,
+        Path checkpointPath, UnaryOperator<RequestInformation> requestConfigurator) {
+        this.graphClient = Objects.requireNonNull(graphClient);
+        this.initialRequest = Objects.requireNonNull(initialRequest);
+        this.entityFactory = Objects.requireNonNull(entityFactory);
+        this.checkpointPath = Objects.requireNonNull(checkpointPath);
+        this.requestConfigurator = requestConfigurator;
+    }
+
+    public synchronized SyncResult sync(ChangeHandler<TEntity> handler) throws IOException {
+        Objects.requireNonNull(handler);
+        final String deltaLink = loadDeltaLink();
+        if (null == deltaLink) {
+            return run(handler, null);
+        }
+        try {
+            return run(handler, deltaLink);
+        } catch (ApiException e) {
+            if (e.getResponseStatusCode() != RESYNC_REQUIRED) {
+                throw e;
+            }
+            // The delta token expired or the service lost its sync state, so
+            // the local store has to be rebuilt from a full read
+            reset();
+            handler.reset();
+            return run(handler, null);
+        }
+    }
+
+    // Forgets the checkpoint so the next sync reads the whole collection
+    public synchronized void reset() throws IOException {
+        Files.deleteIfExists(checkpointPath);
+    }
+
+    public synchronized String getDeltaLink() throws IOException {
+        return loadDeltaLink();
+    }
+
+    private SyncResult run(ChangeHandler<TEntity> handler, String deltaLink) throws IOException {
+        final long startNanos = System.nanoTime();
+        final long[] changes = new long[2];
+
+        RequestInformation request;
+        if (null == deltaLink) {
+            request = initialRequest.get();
+        } else {
+            request = new RequestInformation();
+            request.httpMethod = HttpMethod.GET;
+            request.urlTemplate = deltaLink;
+            if (null != requestConfigurator) {
+                request = requestConfigurator.apply(request);
+            }
+        }
+
+        try (StreamingPageReader<TEntity> pageReader = new StreamingPageReader.Builder<TEntity>()
+            .client(graphClient)
+            .requestInformation(request)
+            .entityFactory(entityFactory)
+            .requestConfigurator(requestConfigurator)
+            .processPageItemCallback(item -> {
+                if (isRemoved(item)) {
+                    handler.remove(item.getId());
+                    changes[1]++;
+                } else {
+                    handler.upsert(item);
+                    changes[0]++;
+                }
+                return true;
+            }).build()) {
+            pageReader.iterate();
+            if (pageReader.getPageIteratorState() != PageIteratorState.DELTA) {
+                throw new IllegalStateException("The last page did not return a deltaLink");
+            }
+
+            saveDeltaLink(pageReader.getDeltaLink());
+            return new SyncResult(null == deltaLink, changes[0], changes[1],
+                pageReader.getBytesRead(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private static boolean isRemoved(Entity item) {
+        final Map<String, Object> additionalData = item.getAdditionalData();
+        return null != additionalData && additionalData.containsKey("@removed");
+    }
+
+    private String loadDeltaLink() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return null;
+        }
+        final Properties checkpoint = new Properties();
+        try (InputStream input = Files.newInputStream(checkpointPath)) {
+            checkpoint.load(input);
+        }
+        return checkpoint.getProperty("deltaLink");
+    }
+
+    private void saveDeltaLink(String deltaLink) throws IOException {
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("deltaLink", deltaLink);
+        checkpoint.setProperty("syncedDateTime", OffsetDateTime.now().toString());
+
+        Files.createDirectories(checkpointPath.toAbsolutePath().getParent());
+        final Path tempPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            OutputStream output = Channels.newOutputStream(channel)) {
+            checkpoint.store(output, null);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(tempPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public interface ChangeHandler<TEntity> {
+        // Called for items that were created or changed
+        void upsert(TEntity entity);
+
+        // Called for items that were deleted or moved out of the collection
+        void remove(String id);
+
+        // Called before a full resync replaces everything in the store
+        default void reset() {
+        }
+    }
+
+    // Keeps the mirrored items in a map keyed by id
+    public static class MapChangeHandler<TEntity extends Entity> implements ChangeHandler<TEntity> {
+        private final Map<String, TEntity> items;
+
+        public MapChangeHandler(Map<String, TEntity> items) {
+            this.items = Objects.requireNonNull(items);
+        }
+
+        @Override
+        public void upsert(TEntity entity) {
+            items.put(entity.getId(), entity);
+        }
+
+        @Override
+        public void remove(String id) {
+            items.remove(id);
+        }
+
+        @Override
+        public void reset() {
+            items.clear();
+        }
+    }
+
+    public static class SyncResult {
+        public final boolean fullSync;
+        public final long upserts;
+        public final long removals;
+        public final long bytesRead;
+        public final long elapsedMillis;
+        public final double itemsPerSecond;
+
+        private SyncResult(boolean fullSync, long upserts, long removals, long bytesRead,
+            long elapsedNanos) {
+            this.fullSync = fullSync;
+            this.upserts = upserts;
+            this.removals = removals;
+            this.bytesRead = bytesRead;
+            this.elapsedMillis = elapsedNanos / 1_000_000;
+            this.itemsPerSecond = elapsedNanos > 0 ? (upserts + removals) * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s upserts=%d removals=%d bytes=%d elapsed=%dms items/s=%.0f",
+                fullSync ? "full" : "incremental", upserts, removals, bytesRead, elapsedMillis,
+                itemsPerSecond);
+        }
+    }
+}
@@ -0,0 +1,802 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.google.gson.JsonParser;
+import com.microsoft.graph.models.Entity;
+import com.microsoft.kiota.serialization.JsonParseNode;
+import com.microsoft.kiota.serialization.JsonSerializationWriter;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Keeps synced entities outside the Java heap, so a mirror of millions of
+// messages or users costs a few bytes of heap each instead of a model object.
+// Entities are appended as JSON records to a log of memory-mapped segments;
+// an update or removal appends a new record and leaves the old one as garbage
+// until compact() rewrites the log with the live records only. An
+// open-addressing hash table in a direct buffer maps a 64-bit hash of the id
+// to the record's offset, and the id stored in the record resolves
+// collisions. flush() and close() save the table next to the log, so opening
+// the store again only replays the records appended after the last save.
+// Records carry a CRC so a record torn by a crash ends the log there.
+// compact() and clear() write a new log generation, entities.<n>.log, next to
+// the current one instead of moving it over a file that is still mapped,
+// which Windows refuses (JDK-4724038). The header's magic is written last,
+// so a generation torn by a crash is ignored, and opening the store deletes
+// every generation but the newest.
+public class EntityStore implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x47454e54;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 32;
+    private static final int INDEX_HEADER_SIZE = 48;
+    // length, CRC, kind, id length
+    private static final int RECORD_HEADER_SIZE = 11;
+    private static final int PADDING = -1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final Pattern LOG_NAME = Pattern.compile("entities\\.(\\d{1,18})\\.log");
+
+    private final Path directory;
+    private final Path indexPath;
+    private final int segmentSize;
+    private Log log;
+    private OffsetIndex index;
+    private long liveBytes;
+
+    public EntityStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    // segmentSize is the size of each mapping and bounds the size of a record.
+    // It only applies to a new store; an existing one keeps its own.
+    public EntityStore(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("segmentSize must be at least 4096");
+        }
+        Files.createDirectories(Objects.requireNonNull(directory));
+        this.directory = directory;
+        this.indexPath = directory.resolve("entities.index");
+        this.log = openNewestLog();
+        if (null == log) {
+            Files.deleteIfExists(indexPath);
+            log = Log.create(logPath(1), segmentSize, 1);
+            log.commit();
+        }
+        this.segmentSize = log.segmentSize;
+        if (!loadIndex()) {
+            index = new OffsetIndex(1024);
+            liveBytes = 0;
+            log.end = FILE_HEADER_SIZE;
+        }
+        replay();
+    }
+
+    public synchronized void put(Entity entity) throws IOException {
+        final JsonSerializationWriter writer = new JsonSerializationWriter();
+        writer.writeObjectValue(null, entity);
+        final byte[] payload;
+        try (InputStream content = writer.getSerializedContent()) {
+            payload = content.readAllBytes();
+        }
+        put(Objects.requireNonNull(entity.getId()), payload);
+    }
+
+    public synchronized void put(String id, byte[] payload) {
+        final byte[] idBytes = encodeId(id);
+        final long offset = log.append(PUT, idBytes, payload);
+        final long previous = index.put(hash(idBytes), offset, idBytes, log);
+        if (0 != previous) {
+            liveBytes -= log.recordLength(previous);
+        }
+        liveBytes += log.recordLength(offset);
+    }
+
+    public synchronized boolean remove(String id) {
+        final byte[] idBytes = encodeId(id);
+        final long hash = hash(idBytes);
+        if (0 == index.get(hash, idBytes, log)) {
+            return false;
+        }
+        log.append(REMOVE, idBytes, new byte[0]);
+        liveBytes -= log.recordLength(index.remove(hash, idBytes, log));
+        return true;
+    }
+
+    public synchronized boolean contains(String id) {
+        final byte[] idBytes = encodeId(id);
+        return 0 != index.get(hash(idBytes), idBytes, log);
+    }
+
+    // A copy of the stored payload, or null
+    public synchronized byte[] getBytes(String id) {
+        final byte[] idBytes = encodeId(id);
+        final long offset = index.get(hash(idBytes), idBytes, log);
+        if (0 == offset) {
+            return null;
+        }
+        final ByteBuffer payload = log.payload(offset);
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    public <T extends Parsable> T get(String id, ParsableFactory<T> factory) {
+        Objects.requireNonNull(factory);
+        final byte[] payload = getBytes(id);
+        if (null == payload) {
+            return null;
+        }
+        return new JsonParseNode(JsonParser.parseString(
+            new String(payload, StandardCharsets.UTF_8))).getObjectValue(factory);
+    }
+
+    // Visits the live entities in the order they were written, without
+    // copying or parsing them. The payload buffers are read-only views of the
+    // log that are only valid during the call. Stops when visitor returns false.
+    public synchronized long forEach(EntryVisitor visitor) {
+        Objects.requireNonNull(visitor);
+        long visited = 0;
+        long offset = FILE_HEADER_SIZE;
+        while (offset < log.end) {
+            offset = log.skipPadding(offset);
+            if (offset >= log.end) {
+                break;
+            }
+            if (log.kind(offset) == PUT) {
+                final byte[] idBytes = log.id(offset);
+                if (index.get(hash(idBytes), idBytes, log) == offset) {
+                    visited++;
+                    if (!visitor.visit(new String(idBytes, StandardCharsets.UTF_8),
+                        log.payload(offset))) {
+                        break;
+                    }
+                }
+            }
+            offset += log.recordLength(offset);
+        }
+        return visited;
+    }
+
+    // Rewrites the log with the live records only, in their current order
+    public synchronized void compact() throws IOException {
+        rewrite(true);
+    }
+
+    // Removes every entity, for example before a full resync
+    public synchronized void clear() throws IOException {
+        rewrite(false);
+    }
+
+    // Forces the log to disk and saves the index, so the next open does not
+    // have to replay the log
+    public synchronized void flush() throws IOException {
+        log.force();
+        saveIndex();
+    }
+
+    public synchronized StoreStats getStats() {
+        return new StoreStats(index.size, log.end, liveBytes, index.capacity() * 16L);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (null == log) {
+            return;
+        }
+        flush();
+        log.close();
+        log = null;
+        index = null;
+    }
+
+    public interface EntryVisitor {
+        boolean visit(String id, ByteBuffer payload);
+    }
+
+    // Applies the changes of a DeltaSyncEngine to the store
+    public static class StoreChangeHandler<TEntity extends Entity>
+        implements DeltaSyncEngine.ChangeHandler<TEntity> {
+        private final EntityStore store;
+
+        public StoreChangeHandler(EntityStore store) {
+            this.store = Objects.requireNonNull(store);
+        }
+
+        @Override
+        public void upsert(TEntity entity) {
+            try {
+                store.put(entity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void remove(String id) {
+            store.remove(id);
+        }
+
+        @Override
+        public void reset() {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public static class StoreStats {
+        public final long entries;
+        // Bytes of the log in use, including records that were replaced or removed
+        public final long logBytes;
+        public final long liveBytes;
+        // Off-heap bytes of the index
+        public final long indexBytes;
+
+        private StoreStats(long entries, long logBytes, long liveBytes, long indexBytes) {
+            this.entries = entries;
+            this.logBytes = logBytes;
+            this.liveBytes = liveBytes;
+            this.indexBytes = indexBytes;
+        }
+
+        // The share of the log that compact() would reclaim
+        public double getGarbageRatio() {
+            final long recordBytes = logBytes - FILE_HEADER_SIZE;
+            return recordBytes <= 0 ? 0 : 1 - (double) liveBytes / recordBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("entries=%d logBytes=%d liveBytes=%d garbageRatio=%.2f indexBytes=%d",
+                entries, logBytes, liveBytes, getGarbageRatio(), indexBytes);
+        }
+    }
+
+    private void rewrite(boolean keepLive) throws IOException {
+        final long generation = log.generation + 1;
+        final Path compactedPath = logPath(generation);
+        // A leftover of a rewrite that failed before it was committed
+        Files.deleteIfExists(compactedPath);
+        final Log compacted = Log.create(compactedPath, segmentSize, generation);
+        final OffsetIndex compactedIndex = new OffsetIndex(keepLive ? index.size : 0);
+        long compactedLiveBytes = 0;
+        try {
+            long offset = FILE_HEADER_SIZE;
+            while (keepLive && offset < log.end) {
+                offset = log.skipPadding(offset);
+                if (offset >= log.end) {
+                    break;
+                }
+                if (log.kind(offset) == PUT) {
+                    final byte[] idBytes = log.id(offset);
+                    final long hash = hash(idBytes);
+                    if (index.get(hash, idBytes, log) == offset) {
+                        final long newOffset = compacted.copy(log, offset);
+                        compactedIndex.put(hash, newOffset, idBytes, compacted);
+                        compactedLiveBytes += compacted.recordLength(newOffset);
+                    }
+                }
+                offset += log.recordLength(offset);
+            }
+            compacted.force();
+            compacted.commit();
+        } catch (RuntimeException e) {
+            compacted.close();
+            tryDelete(compactedPath);
+            throw e;
+        }
+
+        log.close();
+        log = compacted;
+        index = compactedIndex;
+        liveBytes = compactedLiveBytes;
+        saveIndex();
+        tryDelete(logPath(generation - 1));
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve("entities." + generation + ".log");
+    }
+
+    // Opens the newest committed generation and deletes the others, or
+    // returns null for a new store
+    private Log openNewestLog() throws IOException {
+        final List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                final Matcher matcher = LOG_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        generations.sort(null);
+        Log newest = null;
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            final Path path = logPath(generations.get(i));
+            if (null == newest) {
+                newest = Log.open(path);
+                if (null != newest) {
+                    continue;
+                }
+            }
+            Files.delete(path);
+        }
+        return newest;
+    }
+
+    // The old log is closed, but its mappings last until they are collected,
+    // and Windows does not delete a mapped file. Opening the store again
+    // deletes whatever is left.
+    private static void tryDelete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Left for the next open
+        }
+    }
+
+    private void replay() {
+        long offset = log.end;
+        while (true) {
+            offset = log.skipPadding(offset);
+            if (!log.isValidRecord(offset)) {
+                break;
+            }
+            final byte[] idBytes = log.id(offset);
+            final long hash = hash(idBytes);
+            if (log.kind(offset) == PUT) {
+                final long previous = index.put(hash, offset, idBytes, log);
+                if (0 != previous) {
+                    liveBytes -= log.recordLength(previous);
+                }
+                liveBytes += log.recordLength(offset);
+            } else {
+                final long previous = index.remove(hash, idBytes, log);
+                if (0 != previous) {
+                    liveBytes -= log.recordLength(previous);
+                }
+            }
+            offset += log.recordLength(offset);
+        }
+        log.end = offset;
+    }
+
+    private boolean loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if (header.remaining() < INDEX_HEADER_SIZE || header.getInt() != INDEX_MAGIC
+                || header.getInt() != VERSION || header.getLong() != log.generation) {
+                return false;
+            }
+            final long end = header.getLong();
+            final long entries = header.getLong();
+            final long indexedLiveBytes = header.getLong();
+            final int capacity = header.getInt();
+            if (end < FILE_HEADER_SIZE || end > log.capacity()
+                || Integer.bitCount(capacity) != 1
+                || channel.size() != INDEX_HEADER_SIZE + capacity * 16L) {
+                return false;
+            }
+            final ByteBuffer table = ByteBuffer.allocateDirect(capacity * 16)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, table);
+            index = new OffsetIndex(table, (int) entries);
+            liveBytes = indexedLiveBytes;
+            log.end = end;
+            return true;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        final Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(VERSION).putLong(log.generation).putLong(log.end)
+                .putLong(index.size).putLong(liveBytes).putInt(index.capacity());
+            header.clear();
+            writeFully(channel, header);
+            writeFully(channel, index.table.duplicate().clear());
+            channel.force(true);
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the file ends
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] encodeId(String id) {
+        final byte[] idBytes = Objects.requireNonNull(id).getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xffff) {
+            throw new IllegalArgumentException("id is longer than 65535 bytes");
+        }
+        return idBytes;
+    }
+
+    // FNV-1a, with a final mix so that ids sharing a long prefix spread out
+    private static long hash(byte[] idBytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : idBytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    // The log file: a header followed by records, mapped segmentSize bytes at
+    // a time. A record never spans two segments; the end of a segment that
+    // cannot hold the next record is marked as padding.
+    private static class Log {
+        private final FileChannel channel;
+        private final int segmentSize;
+        private final long generation;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private final CRC32C crc = new CRC32C();
+        private long end = FILE_HEADER_SIZE;
+
+        private Log(FileChannel channel, int segmentSize, long generation) {
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+            this.generation = generation;
+        }
+
+        // The log is only opened again once commit() was called
+        private static Log create(Path path, int segmentSize, long generation)
+            throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // A new generation makes index snapshots of any previous log stale
+            final Log log = new Log(channel, segmentSize, generation);
+            final ByteBuffer header = log.segment(0);
+            header.putInt(4, VERSION).putInt(8, segmentSize).putLong(16, generation);
+            return log;
+        }
+
+        // Returns null for a log that was never committed
+        private static Log open(Path path) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, header);
+                header.flip();
+                if (header.remaining() < FILE_HEADER_SIZE || header.getInt(0) == 0) {
+                    channel.close();
+                    return null;
+                }
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not an entity store log: " + path);
+                }
+                final Log log = new Log(channel, header.getInt(8), header.getLong(16));
+                for (long position = 0; position < channel.size(); position += log.segmentSize) {
+                    log.segment((int) (position / log.segmentSize));
+                }
+                return log;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private long capacity() {
+            return (long) segments.size() * segmentSize;
+        }
+
+        private MappedByteBuffer segment(int number) throws IOException {
+            while (segments.size() <= number) {
+                // Mapping past the end of the file extends it with zeros
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) segments.size() * segmentSize, segmentSize);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                segments.add(segment);
+            }
+            return segments.get(number);
+        }
+
+        private ByteBuffer at(long offset) {
+            return segments.get((int) (offset / segmentSize));
+        }
+
+        private int position(long offset) {
+            return (int) (offset % segmentSize);
+        }
+
+        private long append(byte kind, byte[] idBytes, byte[] payload) {
+            final int length = RECORD_HEADER_SIZE + idBytes.length + payload.length;
+            if (length > segmentSize - FILE_HEADER_SIZE) {
+                throw new IllegalArgumentException(String.format(
+                    "A record of %d bytes does not fit in a segment of %d bytes", length,
+                    segmentSize));
+            }
+            try {
+                long offset = end;
+                if (position(offset) + length > segmentSize) {
+                    if (segmentSize - position(offset) >= 4) {
+                        at(offset).putInt(position(offset), PADDING);
+                    }
+                    offset = (offset / segmentSize + 1) * segmentSize;
+                }
+                final ByteBuffer segment = segment((int) (offset / segmentSize));
+                final int position = position(offset);
+                segment.put(position + 8, kind)
+                    .putShort(position + 9, (short) idBytes.length)
+                    .put(position + RECORD_HEADER_SIZE, idBytes)
+                    .put(position + RECORD_HEADER_SIZE + idBytes.length, payload)
+                    .putInt(position + 4, checksum(segment, position + 8, length - 8))
+                    // The length goes last, so a torn record has none or a bad CRC
+                    .putInt(position, length);
+                end = offset + length;
+                if (segmentSize - position(end) >= 4 && position(end) != 0) {
+                    segment.putInt(position(end), 0);
+                }
+                return offset;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long copy(Log source, long sourceOffset) {
+            final byte[] idBytes = source.id(sourceOffset);
+            final ByteBuffer payload = source.payload(sourceOffset);
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return append(source.kind(sourceOffset), idBytes, bytes);
+        }
+
+        private long skipPadding(long offset) {
+            if (offset >= capacity()) {
+                return offset;
+            }
+            final int position = position(offset);
+            if (segmentSize - position < RECORD_HEADER_SIZE
+                || at(offset).getInt(position) == PADDING) {
+                return (offset / segmentSize + 1) * segmentSize;
+            }
+            return offset;
+        }
+
+        private boolean isValidRecord(long offset) {
+            if (offset >= capacity()) {
+                return false;
+            }
+            final ByteBuffer segment = at(offset);
+            final int position = position(offset);
+            final int length = segment.getInt(position);
+            if (length < RECORD_HEADER_SIZE || position + length > segmentSize) {
+                return false;
+            }
+            final byte kind = segment.get(position + 8);
+            final int idLength = segment.getShort(position + 9) & 0xffff;
+            return (kind == PUT || kind == REMOVE) && RECORD_HEADER_SIZE + idLength <= length
+                && segment.getInt(position + 4) == checksum(segment, position + 8, length - 8);
+        }
+
+        private int checksum(ByteBuffer segment, int position, int length) {
+            crc.reset();
+            crc.update(segment.slice(position, length));
+            return (int) crc.getValue();
+        }
+
+        private int recordLength(long offset) {
+            return at(offset).getInt(position(offset));
+        }
+
+        private byte kind(long offset) {
+            return at(offset).get(position(offset) + 8);
+        }
+
+        private int idLength(long offset) {
+            return at(offset).getShort(position(offset) + 9) & 0xffff;
+        }
+
+        private byte[] id(long offset) {
+            final byte[] idBytes = new byte[idLength(offset)];
+            at(offset).get(position(offset) + RECORD_HEADER_SIZE, idBytes);
+            return idBytes;
+        }
+
+        private boolean idEquals(long offset, byte[] idBytes) {
+            if (idLength(offset) != idBytes.length) {
+                return false;
+            }
+            final int start = position(offset) + RECORD_HEADER_SIZE;
+            return at(offset).slice(start, idBytes.length).equals(ByteBuffer.wrap(idBytes));
+        }
+
+        private ByteBuffer payload(long offset) {
+            final int position = position(offset);
+            final int start = position + RECORD_HEADER_SIZE + idLength(offset);
+            return at(offset).slice(start, position + recordLength(offset) - start)
+                .asReadOnlyBuffer();
+        }
+
+        private void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        // Marks the log complete, once its records are on disk
+        private void commit() {
+            final MappedByteBuffer header = segments.get(0);
+            header.putInt(0, MAGIC);
+            header.force();
+        }
+
+        private void close() throws IOException {
+            segments.clear();
+            channel.close();
+        }
+    }
+
+    // Linear probing over 16-byte slots of hash and record offset. Offset 0
+    // is the file header, so it marks an empty slot.
+    private static class OffsetIndex {
+        private ByteBuffer table;
+        private int mask;
+        private int size;
+
+        private OffsetIndex(int expectedEntries) {
+            int capacity = 1024;
+            while (capacity * 0.7 < expectedEntries) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+        }
+
+        private OffsetIndex(ByteBuffer table, int size) {
+            this.table = table;
+            this.mask = table.capacity() / 16 - 1;
+            this.size = size;
+        }
+
+        private int capacity() {
+            return mask + 1;
+        }
+
+        private void allocate(int capacity) {
+            if (capacity > 1 << 26) {
+                throw new IllegalStateException("The index cannot hold more entries");
+            }
+            table = ByteBuffer.allocateDirect(capacity * 16).order(ByteOrder.LITTLE_ENDIAN);
+            mask = capacity - 1;
+        }
+
+        private long get(long hash, byte[] idBytes, Log log) {
+            final int slot = find(hash, idBytes, log);
+            return slot < 0 ? 0 : table.getLong(slot * 16 + 8);
+        }
+
+        // Returns the offset it replaces, or 0
+        private long put(long hash, long offset, byte[] idBytes, Log log) {
+            final int slot = find(hash, idBytes, log);
+            if (slot >= 0) {
+                final long previous = table.getLong(slot * 16 + 8);
+                table.putLong(slot * 16 + 8, offset);
+                return previous;
+            }
+            if (size + 1 > capacity() * 0.7) {
+                grow();
+            }
+            insert(hash, offset);
+            size++;
+            return 0;
+        }
+
+        // Returns the offset it removes, or 0
+        private long remove(long hash, byte[] idBytes, Log log) {
+            int slot = find(hash, idBytes, log);
+            if (slot < 0) {
+                return 0;
+            }
+            final long removed = table.getLong(slot * 16 + 8);
+            size--;
+            // Shift the following entries back so no probe sequence is broken
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                final long nextOffset = table.getLong(next * 16 + 8);
+                if (0 == nextOffset) {
+                    break;
+                }
+                final int home = home(table.getLong(next * 16));
+                final boolean movable = slot <= next
+                    ? home <= slot || home > next
+                    : home <= slot && home > next;
+                if (movable) {
+                    table.putLong(slot * 16, table.getLong(next * 16));
+                    table.putLong(slot * 16 + 8, nextOffset);
+                    slot = next;
+                }
+            }
+            table.putLong(slot * 16, 0);
+            table.putLong(slot * 16 + 8, 0);
+            return removed;
+        }
+
+        private int find(long hash, byte[] idBytes, Log log) {
+            int slot = home(hash);
+            while (true) {
+                final long offset = table.getLong(slot * 16 + 8);
+                if (0 == offset) {
+                    return -1;
+                }
+                if (table.getLong(slot * 16) == hash && log.idEquals(offset, idBytes)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void insert(long hash, long offset) {
+            int slot = home(hash);
+            while (0 != table.getLong(slot * 16 + 8)) {
+                slot = (slot + 1) & mask;
+            }
+            table.putLong(slot * 16, hash);
+            table.putLong(slot * 16 + 8, offset);
+        }
+
+        private int home(long hash) {
+            return (int) hash & mask;
+        }
+
+        private void grow() {
+            final ByteBuffer old = table;
+            final int oldCapacity = capacity();
+            allocate(oldCapacity * 2);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                final long offset = old.getLong(slot * 16 + 8);
+                if (0 != offset) {
+                    insert(old.getLong(slot * 16), offset);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+// Runs many blocking Graph calls at once, such as
+// graphClient.users().byUserId(id).messages().get(), without rewriting them
+// as callbacks. The calls run on a pool of maxConcurrentRequests platform
+// threads, and at most maxConcurrentPerEndpoint of them against any one
+// endpoint. A call waits for its endpoint on a virtual thread, so a busy
+// endpoint holds no pool thread. The calls themselves do not run on virtual
+// threads: over HTTP/2, OkHttp waits for the response headers in
+// Object.wait inside a synchronized block, which on Java 21 pins the carrier
+// thread, so at most one call per carrier would be in flight. Results are
+// returned in the order of the calls.
+public class FanOutExecutor {
+    private final int maxConcurrentRequests;
+    private final int maxConcurrentPerEndpoint;
+    private final ConcurrentHashMap<String, Semaphore> endpointPermits = new ConcurrentHashMap<>();
+
+    public FanOutExecutor(int maxConcurrentRequests, int maxConcurrentPerEndpoint) {
+        if (maxConcurrentRequests < 1 || maxConcurrentPerEndpoint < 1) {
+            throw new IllegalArgumentException(
+                "maxConcurrentRequests and maxConcurrentPerEndpoint must be at least 1");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxConcurrentPerEndpoint = maxConcurrentPerEndpoint;
+    }
+
+    // Calls fn for every input against one endpoint, for example
+    // map("/users/{id}/messages", userIds, id -> graphClient.users().byUserId(id).messages().get())
+    public <I, T> List<FanOutResult<T>> map(String endpoint, List<I> inputs, Function<I, T> fn)
+        throws InterruptedException {
+        Objects.requireNonNull(fn);
+        final List<Call<T>> calls = new ArrayList<>(inputs.size());
+        for (I input : inputs) {
+            calls.add(new Call<>(endpoint, () -> fn.apply(input)));
+        }
+        return invokeAll(calls);
+    }
+
+    public <T> List<FanOutResult<T>> invokeAll(List<Call<T>> calls) throws InterruptedException {
+        final List<Future<T>> futures = new ArrayList<>(calls.size());
+        try (ExecutorService callPool = Executors.newFixedThreadPool(maxConcurrentRequests);
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Call<T> call : calls) {
+                futures.add(executor.submit(() -> run(call, callPool)));
+            }
+
+            final List<FanOutResult<T>> results = new ArrayList<>(calls.size());
+            try {
+                for (Future<T> future : futures) {
+                    try {
+                        results.add(new FanOutResult<>(future.get(), null));
+                    } catch (ExecutionException e) {
+                        results.add(new FanOutResult<>(null, e.getCause()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                callPool.shutdownNow();
+                throw e;
+            }
+            return results;
+        }
+    }
+
+    private <T> T run(Call<T> call, ExecutorService callPool) throws Exception {
+        final Semaphore endpoint = endpointPermits.computeIfAbsent(call.endpoint,
+            k -> new Semaphore(maxConcurrentPerEndpoint, true));
+        // Wait for the endpoint first so a busy endpoint does not hold pool
+        // threads that calls to other endpoints could use
+        endpoint.acquire();
+        try {
+            final Future<T> result = callPool.submit(call.callable);
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                // A Callable only throws an Exception or an Error
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (Exception) e.getCause();
+            }
+        } finally {
+            endpoint.release();
+        }
+    }
+
+    public static class Call<T> {
+        private final String endpoint;
+        private final Callable<T> callable;
+
+        public Call(String endpoint, Callable<T> callable) {
+            this.endpoint = Objects.requireNonNull(endpoint);
+            this.callable = Objects.requireNonNull(callable);
+        }
+    }
+
+    public static class FanOutResult<T> {
+        private final T value;
+        private final Throwable error;
+
+        private FanOutResult(T value, Throwable error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isSuccessful() {
+            return null == error;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+// Request body for one region of a file. The bytes go from the channel to
+// the sink with FileChannel.transferTo, which uses the JDK's cached direct
+// buffers instead of copying the slice into a new heap array. The body can be
+// written again on retry because every write starts from the region's position.
+public class FileChannelRequestBody extends RequestBody {
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+
+    public FileChannelRequestBody(FileChannel channel, long position, long length) {
+        this.channel = Objects.requireNonNull(channel);
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length cannot be negative");
+        }
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return OCTET_STREAM;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        long written = 0;
+        while (written < length) {
+            // transferTo does not move the channel's own position, so concurrent
+            // slices can share one channel
+            final long transferred = channel.transferTo(position + written, length - written,
+                sink);
+            if (transferred <= 0) {
+                throw new IOException(String.format(
+                    "Unexpected end of file at offset %d", position + written));
+            }
+            written += transferred;
+        }
+    }
+}
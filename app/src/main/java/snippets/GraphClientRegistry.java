@@ -0,0 +1,213 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.azure.core.credential.TokenCredential;
+import com.microsoft.graph.core.authentication.AzureIdentityAuthenticationProvider;
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+// Hands out one GraphServiceClient per (credential, scopes, base URL). Every
+// client has its own authentication provider but sends its requests through a
+// single OkHttpClient, so all tenants share one connection pool, dispatcher
+// and HTTP/2 connection instead of each keeping its own. Clients that have not
+// been requested for idleClientTimeout are dropped from the registry.
+// Registries are made with create(), which starts the eviction task once the
+// registry is fully constructed.
+public class GraphClientRegistry implements AutoCloseable {
+    public static final String DEFAULT_BASE_URL = "https://graph.microsoft.com/v1.0";
+
+    private final OkHttpClient httpClient;
+    private final long idleClientTimeoutNanos;
+    private final ConcurrentHashMap<ClientKey, RegisteredClient> clients = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private final AtomicLong createdClients = new AtomicLong();
+    private final AtomicLong evictedClients = new AtomicLong();
+
+    public static GraphClientRegistry create() {
+        return create(GraphClientFactory.create(), 32, Duration.ofMinutes(5), 64,
+            Duration.ofMinutes(30));
+    }
+
+    // httpClientBuilder carries the middleware, for example
+    // GraphClientFactory.create().addInterceptor(new MetricsHandler())
+    public static GraphClientRegistry create(OkHttpClient.Builder httpClientBuilder,
+        int maxIdleConnections, Duration keepAlive, int maxRequestsPerHost,
+        Duration idleClientTimeout) {
+        final GraphClientRegistry registry = new GraphClientRegistry(httpClientBuilder,
+            maxIdleConnections, keepAlive, maxRequestsPerHost, idleClientTimeout);
+        final long periodMillis = Math.max(1000, idleClientTimeout.toMillis() / 2);
+        registry.evictor.scheduleAtFixedRate(registry::evictIdleClients, periodMillis,
+            periodMillis, TimeUnit.MILLISECONDS);
+        return registry;
+    }
+
+    private GraphClientRegistry(OkHttpClient.Builder httpClientBuilder, int maxIdleConnections,
+        Duration keepAlive, int maxRequestsPerHost, Duration idleClientTimeout) {
+        Objects.requireNonNull(httpClientBuilder);
+        if (idleClientTimeout.isNegative() || idleClientTimeout.isZero()) {
+            throw new IllegalArgumentException("idleClientTimeout must be positive");
+        }
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxRequestsPerHost));
+        this.httpClient = httpClientBuilder
+            .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(),
+                TimeUnit.MILLISECONDS))
+            .dispatcher(dispatcher)
+            .build();
+        this.idleClientTimeoutNanos = idleClientTimeout.toNanos();
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "graph-client-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public GraphServiceClient getClient(TokenCredential credential, String[] scopes) {
+        return getClient(credential, scopes, DEFAULT_BASE_URL);
+    }
+
+    public GraphServiceClient getClient(TokenCredential credential, String[] scopes,
+        String baseUrl) {
+        final ClientKey key = new ClientKey(credential, scopes, baseUrl);
+        final RegisteredClient registered = clients.computeIfAbsent(key, this::createClient);
+        registered.lastUsedNanos = System.nanoTime();
+        return registered.graphClient;
+    }
+
+    public boolean removeClient(TokenCredential credential, String[] scopes, String baseUrl) {
+        return null != clients.remove(new ClientKey(credential, scopes, baseUrl));
+    }
+
+    public int evictIdleClients() {
+        final long now = System.nanoTime();
+        int evicted = 0;
+        for (Map.Entry<ClientKey, RegisteredClient> entry : clients.entrySet()) {
+            if (now - entry.getValue().lastUsedNanos > idleClientTimeoutNanos
+                && clients.remove(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        evictedClients.addAndGet(evicted);
+        return evicted;
+    }
+
+    // The shared client, for calls made outside of a GraphServiceClient such
+    // as pre-authenticated upload URLs
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public PoolStats getPoolStats() {
+        final ConnectionPool pool = httpClient.connectionPool();
+        final Dispatcher dispatcher = httpClient.dispatcher();
+        return new PoolStats(pool.connectionCount(), pool.idleConnectionCount(),
+            dispatcher.runningCallsCount(), dispatcher.queuedCallsCount(), clients.size(),
+            createdClients.get(), evictedClients.get());
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        clients.clear();
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    private RegisteredClient createClient(ClientKey key) {
+        final String host = URI.create(key.baseUrl).getHost();
+        final AzureIdentityAuthenticationProvider authProvider =
+            new AzureIdentityAuthenticationProvider(key.credential, new String[] {host},
+                key.scopes.toArray(new String[0]));
+        final GraphServiceClient graphClient = new GraphServiceClient(authProvider, httpClient);
+        graphClient.getRequestAdapter().setBaseUrl(key.baseUrl);
+        createdClients.incrementAndGet();
+        return new RegisteredClient(graphClient);
+    }
+
+    public static class PoolStats {
+        public final int connectionCount;
+        public final int idleConnectionCount;
+        public final int runningCalls;
+        public final int queuedCalls;
+        public final int clientCount;
+        public final long createdClients;
+        public final long evictedClients;
+
+        private PoolStats(int connectionCount, int idleConnectionCount, int runningCalls,
+            int queuedCalls, int clientCount, long createdClients, long evictedClients) {
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+            this.runningCalls = runningCalls;
+            this.queuedCalls = queuedCalls;
+            this.clientCount = clientCount;
+            this.createdClients = createdClients;
+            this.evictedClients = evictedClients;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "connections=%d idle=%d running=%d queued=%d clients=%d created=%d evicted=%d",
+                connectionCount, idleConnectionCount, runningCalls, queuedCalls, clientCount,
+                createdClients, evictedClients);
+        }
+    }
+
+    private static class RegisteredClient {
+        private final GraphServiceClient graphClient;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private RegisteredClient(GraphServiceClient graphClient) {
+            this.graphClient = graphClient;
+        }
+    }
+
+    private static class ClientKey {
+        private final TokenCredential credential;
+        private final List<String> scopes;
+        private final String baseUrl;
+
+        private ClientKey(TokenCredential credential, String[] scopes, String baseUrl) {
+            this.credential = Objects.requireNonNull(credential);
+            // Scope order does not change the token, so it does not change the key
+            this.scopes = Arrays.stream(Objects.requireNonNull(scopes)).sorted().toList();
+            this.baseUrl = Objects.requireNonNull(baseUrl);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ClientKey)) {
+                return false;
+            }
+            final ClientKey key = (ClientKey) other;
+            return credential == key.credential && scopes.equals(key.scopes)
+                && baseUrl.equals(key.baseUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(credential), scopes, baseUrl);
+        }
+    }
+}
@@ -18,8 +18,10 @@ import com.microsoft.graph.serviceclient.GraphServiceClient;
 import okhttp3.OkHttpClient;
 
 public class GraphHelper {
+    // httpClient is the client the Graph client sends with, the async samples
+    // send with it too, for example GraphClientFactory.create().build()
     public static GraphServiceClient getGraphClientForUser(Properties properties,
-        Consumer<DeviceCodeInfo> challenge) throws Exception {
+        Consumer<DeviceCodeInfo> challenge, OkHttpClient httpClient) throws Exception {
 
         // Get required properties
         final String clientId = properties.getProperty("app.clientId");
@@ -39,7 +41,12 @@ public class GraphHelper {
         if (null == credential) {
             throw new Exception("Could not create required credential.");
         }
-        return new GraphServiceClient(credential, graphUserScopes.toArray(new String[0]));
+
+        final String[] allowedHosts = { "graph.microsoft.com" };
+        final AzureIdentityAuthenticationProvider authProvider = new AzureIdentityAuthenticationProvider(
+            credential, allowedHosts, graphUserScopes.toArray(new String[0]));
+
+        return new GraphServiceClient(authProvider, httpClient);
     }
 
     public static GraphServiceClient getDebugGraphClientForUser(Properties properties,
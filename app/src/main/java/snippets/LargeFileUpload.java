@@ -4,7 +4,10 @@
 package snippets;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 import com.microsoft.graph.core.exceptions.ClientException;
 import com.microsoft.graph.core.models.IProgressCallback;
@@ -20,13 +23,20 @@ import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.UploadSession;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
 
+import okhttp3.OkHttpClient;
+
 public class LargeFileUpload {
-    public static void runSamples(GraphServiceClient graphClient, String filePath)
-        throws Exception {
+    // httpClient is the OkHttpClient graphClient was created with
+    public static void runSamples(GraphServiceClient graphClient, OkHttpClient httpClient,
+        String filePath) throws Exception {
         final String itemPath = "Documents/vacation.gif";
 
         uploadFileToOneDrive(graphClient, filePath, itemPath);
         uploadAttachmentToMessage(graphClient, filePath);
+        uploadFileToOneDriveInParallel(graphClient, filePath, itemPath);
+        uploadAttachmentToMessageFromChannel(graphClient, filePath);
+        journaledUpload(graphClient, filePath, itemPath);
+        uploadFileToOneDriveAsync(graphClient, httpClient, filePath, itemPath);
     }
 
     private static void uploadFileToOneDrive(GraphServiceClient graphClient,
@@ -152,4 +162,177 @@ public class LargeFileUpload {
         }
         // </UploadAttachmentSnippet>
     }
+
+    private static void uploadFileToOneDriveInParallel(GraphServiceClient graphClient,
+        String filePath, String itemPath) throws Exception {
+        if (null == filePath || null == itemPath) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <ParallelUploadSnippet>
+        // Set body of the upload session request
+        CreateUploadSessionPostRequestBody uploadSessionRequest = new CreateUploadSessionPostRequestBody();
+        DriveItemUploadableProperties properties = new DriveItemUploadableProperties();
+        properties.getAdditionalData().put("@microsoft.graph.conflictBehavior", "replace");
+        uploadSessionRequest.setItem(properties);
+
+        // Create an upload session
+        String myDriveId = graphClient.me().drive().get().getId();
+        UploadSession uploadSession = graphClient.drives()
+                .byDriveId(myDriveId)
+                .items()
+                .byDriveItemId("root:/"+itemPath+":")
+                .createUploadSession()
+                .post(uploadSessionRequest);
+
+        // Slices are sent in order, since OneDrive rejects fragments that arrive
+        // out of order; up to 4 are in flight only when the session lists several
+        // disjoint ranges. A slice is sent up to 5 times if the connection fails.
+        // Slice sizes are picked automatically from the measured throughput.
+        ParallelFileUpload parallelUpload = new ParallelFileUpload(4, 5);
+
+        IProgressCallback callback = (current, max) -> System.out.println(
+                String.format("Uploaded %d bytes of %d total bytes", current, max));
+
+        UploadResult<DriveItem> uploadResult = parallelUpload.upload(uploadSession,
+                Path.of(filePath), DriveItem::createFromDiscriminatorValue, callback);
+        if (uploadResult.isUploadSuccessful()) {
+            System.out.println("Upload complete");
+            System.out.println("Item ID: " + uploadResult.itemResponse.getId());
+        } else {
+            System.out.println("Upload failed");
+        }
+        // </ParallelUploadSnippet>
+    }
+
+    private static void uploadAttachmentToMessageFromChannel(GraphServiceClient graphClient,
+        String filePath) throws Exception {
+        if (null == filePath) {
+            throw new Exception("Parameters are not optional.");
+        }
+        // <ChannelAttachmentUploadSnippet>
+        // Create message
+        Message draftMessage = new Message();
+        draftMessage.setSubject("Large attachment");
+        Message savedDraft = graphClient.me().messages().post(draftMessage);
+
+        Path path = Path.of(filePath);
+
+        final AttachmentItem largeAttachment = new AttachmentItem();
+        largeAttachment.setAttachmentType(AttachmentType.File);
+        largeAttachment.setName(path.getFileName().toString());
+        largeAttachment.setSize(Files.size(path));
+
+        com.microsoft.graph.users.item.messages.item.attachments.createuploadsession.CreateUploadSessionPostRequestBody uploadRequestBody
+                = new com.microsoft.graph.users.item.messages.item.attachments.createuploadsession.CreateUploadSessionPostRequestBody();
+        uploadRequestBody.setAttachmentItem(largeAttachment);
+
+        final UploadSession uploadSession = graphClient.me()
+                .messages()
+                .byMessageId(savedDraft.getId())
+                .attachments()
+                .createUploadSession()
+                .post(uploadRequestBody);
+
+        // Each slice is sent straight from the file's FileChannel instead of
+        // being copied from an InputStream into heap buffers. Attachment
+        // upload sessions report one range, which is sent one slice at a time.
+        ParallelFileUpload channelUpload = new ParallelFileUpload(1, 5);
+
+        IProgressCallback callback = (current, max) -> System.out.println(
+                String.format("Uploaded %d bytes of %d total bytes", current, max));
+
+        UploadResult<FileAttachment> uploadResult = channelUpload.upload(uploadSession,
+                path, FileAttachment::createFromDiscriminatorValue, callback);
+        if (uploadResult.isUploadSuccessful()) {
+            System.out.println("Upload complete");
+            System.out.println("Attachment location: " + uploadResult.location);
+        } else {
+            System.out.println("Upload failed");
+        }
+        // </ChannelAttachmentUploadSnippet>
+    }
+
+    private static void journaledUpload(GraphServiceClient graphClient,
+        String filePath, String itemPath) throws Exception {
+        if (null == filePath || null == itemPath) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <JournaledUploadSnippet>
+        Path path = Path.of(filePath);
+        ParallelFileUpload parallelUpload = new ParallelFileUpload(4, 5);
+
+        // The journal survives process restarts, so an interrupted upload
+        // continues from the last acknowledged byte instead of starting over
+        UploadJournal journal = new UploadJournal(Path.of(".uploads"));
+        UploadSession uploadSession = journal.findSession(path);
+
+        if (null == uploadSession) {
+            CreateUploadSessionPostRequestBody uploadSessionRequest = new CreateUploadSessionPostRequestBody();
+            DriveItemUploadableProperties properties = new DriveItemUploadableProperties();
+            properties.getAdditionalData().put("@microsoft.graph.conflictBehavior", "replace");
+            uploadSessionRequest.setItem(properties);
+
+            String myDriveId = graphClient.me().drive().get().getId();
+            uploadSession = graphClient.drives()
+                    .byDriveId(myDriveId)
+                    .items()
+                    .byDriveItemId("root:/"+itemPath+":")
+                    .createUploadSession()
+                    .post(uploadSessionRequest);
+        } else {
+            // Slices that were in flight when the process stopped may have
+            // been received, so ask the service which ranges it still needs
+            uploadSession = parallelUpload.getUploadSessionStatus(uploadSession);
+        }
+
+        IProgressCallback callback = (current, max) -> System.out.println(
+                String.format("Uploaded %d bytes of %d total bytes", current, max));
+
+        UploadResult<DriveItem> uploadResult = parallelUpload.upload(uploadSession,
+                path, DriveItem::createFromDiscriminatorValue, callback, journal);
+        if (uploadResult.isUploadSuccessful()) {
+            System.out.println("Upload complete");
+            System.out.println("Item ID: " + uploadResult.itemResponse.getId());
+        } else {
+            System.out.println("Upload failed");
+        }
+        // </JournaledUploadSnippet>
+    }
+
+    private static void uploadFileToOneDriveAsync(GraphServiceClient graphClient,
+        OkHttpClient httpClient, String filePath, String itemPath) throws Exception {
+        if (null == filePath || null == itemPath) {
+            throw new Exception("Parameters are not optional");
+        }
+        // <AsyncUploadSnippet>
+        // Set body of the upload session request
+        CreateUploadSessionPostRequestBody uploadSessionRequest = new CreateUploadSessionPostRequestBody();
+        DriveItemUploadableProperties properties = new DriveItemUploadableProperties();
+        properties.getAdditionalData().put("@microsoft.graph.conflictBehavior", "replace");
+        uploadSessionRequest.setItem(properties);
+
+        // Create an upload session
+        String myDriveId = graphClient.me().drive().get().getId();
+        UploadSession uploadSession = graphClient.drives()
+                .byDriveId(myDriveId)
+                .items()
+                .byDriveItemId("root:/"+itemPath+":")
+                .createUploadSession()
+                .post(uploadSessionRequest);
+
+        // Progress is reported from the HTTP client's threads as each slice
+        // is acknowledged
+        IProgressCallback callback = (current, max) -> System.out.println(
+                String.format("Uploaded %d bytes of %d total bytes", current, max));
+
+        // httpClient is the OkHttpClient graphClient was created with
+        AsyncGraphClient asyncClient = new AsyncGraphClient(graphClient, httpClient);
+        CompletableFuture<DriveItem> upload = asyncClient.upload(uploadSession, Path.of(filePath),
+                320 * 1024 * 10, callback, DriveItem::createFromDiscriminatorValue);
+
+        upload.thenAccept(driveItem -> System.out.println("Item ID: " + driveItem.getId()))
+                .join();
+        asyncClient.close();
+        // </AsyncUploadSnippet>
+    }
 }
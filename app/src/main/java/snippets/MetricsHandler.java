@@ -0,0 +1,356 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+// Records latency histograms, request and response byte counts and in-flight
+// gauges per endpoint. URL paths are normalized into templates such as
+// /users/{id}/messages so calls to the same API share one series. All counters
+// are updated without locks, using LongAdder for the striped totals and an
+// AtomicLongArray of log-linear buckets for each latency histogram.
+//
+// Response bytes are counted as the caller reads the body, since most Graph
+// responses are chunked and have no Content-Length. Added with addInterceptor
+// the handler counts the decompressed body; added with addNetworkInterceptor
+// it counts the bytes received on the wire, before gzip is decoded.
+public class MetricsHandler implements Interceptor {
+    private static final Pattern GUID = Pattern.compile(
+        "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private final ConcurrentHashMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> inFlight = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String template = getPathTemplate(request.url().encodedPath());
+        final String method = request.method();
+
+        final LongAdder endpointInFlight = inFlight.computeIfAbsent(method + ' ' + template,
+            k -> new LongAdder());
+        endpointInFlight.increment();
+        final long startNanos = System.nanoTime();
+        int status = 0;
+        Response response = null;
+        EndpointMetrics metrics = null;
+        try {
+            response = chain.proceed(request);
+            status = response.code();
+        } finally {
+            final long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+            final int finalStatus = status;
+            endpointInFlight.decrement();
+
+            metrics = endpoints.computeIfAbsent(method + ' ' + template + ' ' + status,
+                k -> new EndpointMetrics(template, method, finalStatus));
+            metrics.record(elapsedMicros, getRequestBytes(request));
+        }
+        return countResponseBytes(response, metrics.responseBytes);
+    }
+
+    public List<EndpointSnapshot> getSnapshot() {
+        final List<EndpointSnapshot> snapshot = new ArrayList<>(endpoints.size());
+        for (EndpointMetrics metrics : endpoints.values()) {
+            final LongAdder endpointInFlight = inFlight.get(metrics.method + ' ' + metrics.template);
+            snapshot.add(metrics.snapshot(null == endpointInFlight ? 0 : endpointInFlight.sum()));
+        }
+        snapshot.sort(Comparator.comparing((EndpointSnapshot s) -> s.template)
+            .thenComparing(s -> s.method).thenComparingInt(s -> s.status));
+        return snapshot;
+    }
+
+    // Prometheus-style text exposition of the current snapshot
+    public String getText() {
+        final StringBuilder text = new StringBuilder();
+        text.append("# TYPE graph_requests_total counter\n")
+            .append("# TYPE graph_request_duration_microseconds summary\n")
+            .append("# TYPE graph_request_bytes_total counter\n")
+            .append("# TYPE graph_response_bytes_total counter\n")
+            .append("# TYPE graph_requests_in_flight gauge\n");
+        for (EndpointSnapshot s : getSnapshot()) {
+            final String labels = String.format("endpoint=\"%s\",method=\"%s\",status=\"%d\"",
+                s.template, s.method, s.status);
+            text.append("graph_requests_total{").append(labels).append("} ")
+                .append(s.count).append('\n');
+            for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+                text.append("graph_request_duration_microseconds{").append(labels)
+                    .append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(s.getPercentileMicros(quantile * 100)).append('\n');
+            }
+            text.append("graph_request_duration_microseconds_sum{").append(labels).append("} ")
+                .append(s.totalMicros).append('\n');
+            text.append("graph_request_duration_microseconds_count{").append(labels).append("} ")
+                .append(s.count).append('\n');
+            text.append("graph_request_bytes_total{").append(labels).append("} ")
+                .append(s.requestBytes).append('\n');
+            text.append("graph_response_bytes_total{").append(labels).append("} ")
+                .append(s.responseBytes).append('\n');
+            text.append("graph_requests_in_flight{endpoint=\"").append(s.template)
+                .append("\",method=\"").append(s.method).append("\"} ")
+                .append(s.inFlight).append('\n');
+        }
+        return text.toString();
+    }
+
+    // Serves getText() at http://address/metrics
+    public HttpServer startExpositionServer(InetSocketAddress address) throws IOException {
+        final HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            final byte[] body = getText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    public static String getPathTemplate(String path) {
+        final String[] segments = path.split("/");
+        final StringBuilder template = new StringBuilder(path.length());
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.isEmpty()) {
+                continue;
+            }
+            // Drop the API version so v1.0 and beta calls share a template
+            if (template.length() == 0 && (segment.equals("v1.0") || segment.equals("beta"))) {
+                continue;
+            }
+            template.append('/');
+            final int colon = segment.indexOf(':');
+            if (colon >= 0) {
+                // Path-based addressing such as root:/folder/file.txt:
+                template.append(segment, 0, colon).append(":{path}:");
+                if (segment.indexOf(':', colon + 1) < 0) {
+                    // Skip the segments of the path up to the closing colon
+                    do {
+                        i++;
+                    } while (i < segments.length && !segments[i].endsWith(":"));
+                }
+            } else if (isId(segment)) {
+                template.append("{id}");
+            } else {
+                final int parenthesis = segment.indexOf('(');
+                // Function and key syntax, such as delta() or users('id')
+                template.append(parenthesis > 0
+                    ? segment.substring(0, parenthesis) + "({args})"
+                    : segment);
+            }
+        }
+        return template.length() == 0 ? "/" : template.toString();
+    }
+
+    private static boolean isId(String segment) {
+        if (GUID.matcher(segment).matches() || NUMBER.matcher(segment).matches()
+            || segment.contains("@") || segment.contains("%40") || segment.contains("=")) {
+            return true;
+        }
+        // Opaque ids such as message ids are long and mix letters and digits
+        if (segment.length() >= 16) {
+            for (int i = 0; i < segment.length(); i++) {
+                if (Character.isDigit(segment.charAt(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long getRequestBytes(Request request) {
+        final RequestBody body = request.body();
+        try {
+            return null == body ? 0 : Math.max(0, body.contentLength());
+        } catch (IOException e) {
+            // Not counted, rather than replacing the outcome of the call
+            return 0;
+        }
+    }
+
+    private static Response countResponseBytes(Response response, LongAdder responseBytes) {
+        final ResponseBody body = response.body();
+        if (null == body) {
+            return response;
+        }
+        final BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                final long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    responseBytes.add(read);
+                }
+                return read;
+            }
+        });
+        return response.newBuilder()
+            .body(ResponseBody.create(source, body.contentType(), body.contentLength()))
+            .build();
+    }
+
+    public static class EndpointSnapshot {
+        public final String template;
+        public final String method;
+        public final int status;
+        public final long count;
+        public final long totalMicros;
+        public final long maxMicros;
+        public final long requestBytes;
+        public final long responseBytes;
+        public final long inFlight;
+        private final long[] buckets;
+
+        private EndpointSnapshot(String template, String method, int status, long count,
+            long totalMicros, long maxMicros, long requestBytes, long responseBytes,
+            long inFlight, long[] buckets) {
+            this.template = template;
+            this.method = method;
+            this.status = status;
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.inFlight = inFlight;
+            this.buckets = buckets;
+        }
+
+        public long getMeanMicros() {
+            return 0 == count ? 0 : totalMicros / count;
+        }
+
+        public long getPercentileMicros(double percentile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (0 == total) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(maxMicros, LatencyHistogram.getBucketMidpoint(i));
+                }
+            }
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                "%s %s %d count=%d p50=%dus p99=%dus max=%dus req=%dB resp=%dB inFlight=%d",
+                method, template, status, count, getPercentileMicros(50),
+                getPercentileMicros(99), maxMicros, requestBytes, responseBytes, inFlight);
+        }
+    }
+
+    private static class EndpointMetrics {
+        private final String template;
+        private final String method;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final int status;
+
+        private EndpointMetrics(String template, String method, int status) {
+            this.template = template;
+            this.method = method;
+            this.status = status;
+        }
+
+        private void record(long elapsedMicros, long sentBytes) {
+            count.increment();
+            totalMicros.add(elapsedMicros);
+            requestBytes.add(sentBytes);
+            histogram.record(elapsedMicros);
+        }
+
+        private EndpointSnapshot snapshot(long currentInFlight) {
+            return new EndpointSnapshot(template, method, status, count.sum(), totalMicros.sum(),
+                histogram.getMax(), requestBytes.sum(), responseBytes.sum(), currentInFlight,
+                histogram.copyBuckets());
+        }
+    }
+
+    // Log-linear buckets in the style of HdrHistogram: each power of two is
+    // split into 32 linear sub-buckets, which keeps the relative error of any
+    // recorded value around 3%
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Covers values up to 2^42 microseconds, about 50 days
+        private static final int BUCKETS = (42 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            final long clamped = Math.max(0, value);
+            buckets.incrementAndGet(Math.min(getBucketIndex(clamped), BUCKETS - 1));
+            max.accumulateAndGet(clamped, Math::max);
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        long[] copyBuckets() {
+            final long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return copy;
+        }
+
+        static int getBucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            final int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+            return (shift + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long getBucketMidpoint(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = index / SUB_BUCKETS - 1;
+            final long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lowerBound + ((1L << shift) >> 1);
+        }
+    }
+}
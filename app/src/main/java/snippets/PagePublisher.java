@@ -0,0 +1,288 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.AdditionalDataHolder;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Publishes the items of a collection, page after page, as a Flow.Publisher.
+// Pages are requested through AsyncGraphClient only when the subscriber's
+// outstanding demand is larger than the items already buffered, plus
+// prefetchPages pages read ahead of it. A slow subscriber therefore holds at
+// most demand + prefetchPages pages in memory, and a fast one finds the next
+// page already fetched. Signals are delivered on the thread that called
+// request(n) or on the HTTP client's thread that received a page, never on
+// two threads at once. The publisher reads the collection once and accepts a
+// single subscriber.
+public class PagePublisher<TEntity extends Parsable, TCollectionPage extends Parsable & AdditionalDataHolder>
+    implements Flow.Publisher<TEntity> {
+    public static final int DEFAULT_PREFETCH_PAGES = 1;
+
+    private AsyncGraphClient asyncClient;
+    private RequestInformation requestInformation;
+    private ParsableFactory<TCollectionPage> collectionPageFactory;
+    private UnaryOperator<RequestInformation> requestConfigurator;
+    private int prefetchPages;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private PagePublisher() {
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TEntity> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The publisher already has a subscriber"));
+            return;
+        }
+        final PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class PageSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super TEntity> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Serializes drain(), a call that finds it running only adds a pass
+        private final AtomicInteger passes = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private volatile FetchedPage<TEntity> fetchedPage;
+        private volatile CompletableFuture<TCollectionPage> inFlight;
+
+        // Only used inside drain()
+        private final ArrayDeque<TEntity> buffer = new ArrayDeque<>();
+        private RequestInformation nextRequest = requestInformation;
+        private boolean fetching;
+        private boolean done;
+        private int lastPageSize;
+
+        private PageSubscription(Flow.Subscriber<? super TEntity> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Reported from drain() so it cannot overlap another signal
+                invalidRequest = new IllegalArgumentException(
+                    "request(n) must be called with a positive n");
+                drain();
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                final long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final CompletableFuture<TCollectionPage> call = inFlight;
+            if (null != call) {
+                call.cancel(false);
+            }
+        }
+
+        private void drain() {
+            if (passes.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (cancelled || done) {
+                    buffer.clear();
+                    return;
+                }
+                if (null != invalidRequest) {
+                    fail(invalidRequest);
+                    return;
+                }
+
+                final FetchedPage<TEntity> page = fetchedPage;
+                if (null != page) {
+                    fetchedPage = null;
+                    fetching = false;
+                    if (null != page.error) {
+                        fail(page.error);
+                        return;
+                    }
+                    buffer.addAll(page.items);
+                    lastPageSize = page.items.size();
+                    nextRequest = page.nextRequest;
+                }
+
+                final long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && !buffer.isEmpty()) {
+                    if (cancelled) {
+                        buffer.clear();
+                        return;
+                    }
+                    subscriber.onNext(buffer.poll());
+                    emitted++;
+                }
+                final long remaining = requested == Long.MAX_VALUE
+                    ? requested
+                    : demand.addAndGet(-emitted);
+
+                if (buffer.isEmpty() && !fetching && null == nextRequest) {
+                    done = true;
+                    subscriber.onComplete();
+                    return;
+                }
+
+                // Read ahead of the demand by prefetchPages pages of the last page's size
+                final long wanted = remaining == Long.MAX_VALUE
+                    ? remaining
+                    : Math.min(Long.MAX_VALUE - 1, remaining + (long) prefetchPages * lastPageSize);
+                if (!fetching && null != nextRequest && buffer.size() < wanted) {
+                    fetching = true;
+                    fetch(nextRequest);
+                }
+
+                missed = passes.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        // Called from drain()
+        private void fail(Throwable error) {
+            done = true;
+            buffer.clear();
+            cancel();
+            subscriber.onError(error);
+        }
+
+        private void fetch(RequestInformation pageRequest) {
+            final CompletableFuture<TCollectionPage> call = asyncClient.send(pageRequest,
+                collectionPageFactory);
+            inFlight = call;
+            call.whenComplete((page, error) -> {
+                inFlight = null;
+                if (null == error) {
+                    fetchedPage = read(page);
+                } else {
+                    // Hand the subscriber the ApiException or IOException itself
+                    fetchedPage = new FetchedPage<>(null, null,
+                        error instanceof CompletionException && null != error.getCause()
+                            ? error.getCause()
+                            : error);
+                }
+                drain();
+            });
+        }
+
+        private FetchedPage<TEntity> read(TCollectionPage page) {
+            try {
+                if (null == page) {
+                    return new FetchedPage<>(List.of(), null, null);
+                }
+                final List<TEntity> items = PrefetchingPageIterator.getPageItems(page);
+                final String nextLink = PrefetchingPageIterator.getNextLink(page);
+                if (null == nextLink || nextLink.isBlank()) {
+                    return new FetchedPage<>(items, null, null);
+                }
+
+                RequestInformation nextPageRequest = new RequestInformation();
+                nextPageRequest.httpMethod = HttpMethod.GET;
+                nextPageRequest.urlTemplate = nextLink;
+                if (null != requestConfigurator) {
+                    nextPageRequest = requestConfigurator.apply(nextPageRequest);
+                }
+                return new FetchedPage<>(items, nextPageRequest, null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return new FetchedPage<>(null, null, e);
+            }
+        }
+    }
+
+    private static class FetchedPage<TEntity> {
+        private final List<TEntity> items;
+        private final RequestInformation nextRequest;
+        private final Throwable error;
+
+        private FetchedPage(List<TEntity> items, RequestInformation nextRequest, Throwable error) {
+            this.items = items;
+            this.nextRequest = nextRequest;
+            this.error = error;
+        }
+    }
+
+    public static class Builder<TEntity extends Parsable, TCollectionPage extends Parsable & AdditionalDataHolder> {
+        private AsyncGraphClient asyncClient;
+        private RequestInformation requestInformation;
+        private ParsableFactory<TCollectionPage> collectionPageFactory;
+        private UnaryOperator<RequestInformation> requestConfigurator;
+        private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+
+        public Builder<TEntity, TCollectionPage> asyncClient(AsyncGraphClient asyncClient) {
+            this.asyncClient = Objects.requireNonNull(asyncClient);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> requestInformation(
+            RequestInformation requestInformation) {
+            this.requestInformation = Objects.requireNonNull(requestInformation);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> collectionPageFactory(
+            ParsableFactory<TCollectionPage> collectionPageFactory) {
+            this.collectionPageFactory = Objects.requireNonNull(collectionPageFactory);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> requestConfigurator(
+            UnaryOperator<RequestInformation> requestConfigurator) {
+            this.requestConfigurator = requestConfigurator;
+            return this;
+        }
+
+        // 0 only requests a page once the buffered items cannot cover the demand
+        public Builder<TEntity, TCollectionPage> prefetchPages(int prefetchPages) {
+            if (prefetchPages < 0) {
+                throw new IllegalArgumentException("prefetchPages cannot be negative");
+            }
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        public PagePublisher<TEntity, TCollectionPage> build() {
+            final PagePublisher<TEntity, TCollectionPage> publisher = new PagePublisher<>();
+            publisher.asyncClient = Objects.requireNonNull(asyncClient,
+                "asyncClient is required");
+            publisher.requestInformation = Objects.requireNonNull(requestInformation,
+                "requestInformation is required");
+            publisher.collectionPageFactory = Objects.requireNonNull(collectionPageFactory,
+                "collectionPageFactory is required");
+            publisher.requestConfigurator = requestConfigurator;
+            publisher.prefetchPages = prefetchPages;
+            return publisher;
+        }
+    }
+}
@@ -3,20 +3,59 @@
 
 package snippets;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 import com.microsoft.graph.core.tasks.PageIterator;
 import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.User;
+import com.microsoft.graph.models.UserCollectionResponse;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+
+import okhttp3.OkHttpClient;
 
 public class Paging {
-    public static void runAllSamples(GraphServiceClient graphClient) throws ReflectiveOperationException {
+    // httpClient is the OkHttpClient graphClient was created with
+    public static void runAllSamples(GraphServiceClient graphClient, OkHttpClient httpClient)
+        throws ReflectiveOperationException, InterruptedException, IOException {
         iterateAllMessages(graphClient);
         resumePaging(graphClient);
         manuallyIterateAllPages(graphClient);
+        prefetchAllMessages(graphClient);
+        streamAllMessages(graphClient);
+        syncInboxWithDeltaQuery(graphClient);
+        syncInboxIntoEntityStore(graphClient);
+        cacheMessagePage(graphClient);
+        publishAllMessages(graphClient, httpClient);
+        enumerateInPartitions(graphClient, getUserIds(graphClient, 2));
+    }
+
+    // The IDs of the first users in the tenant, to read their mailboxes
+    private static List<String> getUserIds(GraphServiceClient graphClient, int count) {
+        final UserCollectionResponse users = Objects.requireNonNull(graphClient.users().get( requestConfiguration -> {
+            requestConfiguration.queryParameters.select = new String[] {"id"};
+            requestConfiguration.queryParameters.top = count;
+        }));
+
+        final List<String> userIds = new ArrayList<>();
+        for (User user : users.getValue()) {
+            userIds.add(user.getId());
+        }
+        return userIds;
     }
 
 
@@ -116,4 +155,262 @@ public class Paging {
         }
         // </ManualPagingSnippet>
     }
+
+    public static void prefetchAllMessages(GraphServiceClient graphClient)
+        throws ReflectiveOperationException, InterruptedException {
+        // <PrefetchPagingSnippet>
+        ArrayList<Message> messages = new ArrayList<>();
+
+        MessageCollectionResponse messageResponse = graphClient.me().messages().get( requestConfiguration -> {
+            requestConfiguration.headers.add("Prefer", "outlook.body-content-type=\"text\"");
+            requestConfiguration.queryParameters.select = new String[] {"sender, subject, body"};
+            requestConfiguration.queryParameters.top = 10;
+        });
+
+        // Same builder as PageIterator, but the next pages are fetched in the
+        // background while the callback processes the current page
+        try (PrefetchingPageIterator<Message, MessageCollectionResponse> pageIterator =
+                new PrefetchingPageIterator.Builder<Message, MessageCollectionResponse>()
+                .client(graphClient)
+                .collectionPage(Objects.requireNonNull(messageResponse))
+                .collectionPageFactory(MessageCollectionResponse::createFromDiscriminatorValue)
+                .requestConfigurator( requestInfo -> {
+                    requestInfo.headers.add("Prefer", "outlook.body-content-type=\"text\"");
+                    requestInfo.addQueryParameter("%24select", new String[] {"sender, subject, body"});
+                    requestInfo.addQueryParameter("%24top", 10);
+                    return requestInfo;
+                })
+                .processPageItemCallback( message -> {
+                    messages.add(message);
+                    return true;
+                })
+                // Hold at most 2 pages ahead of the callback
+                .prefetchPages(2)
+                .build()) {
+            pageIterator.iterate();
+        }
+        // </PrefetchPagingSnippet>
+    }
+
+    public static void streamAllMessages(GraphServiceClient graphClient) throws IOException {
+        // <StreamingPagingSnippet>
+        // Build the first request without sending it, the reader sends it
+        // and parses the response one message at a time
+        RequestInformation messagesRequest = graphClient.me().messages().toGetRequestInformation( requestConfiguration -> {
+            requestConfiguration.headers.add("Prefer", "outlook.body-content-type=\"text\"");
+            requestConfiguration.queryParameters.select = new String[] {"sender, subject, body"};
+            requestConfiguration.queryParameters.top = 999;
+        });
+
+        try (StreamingPageReader<Message> pageReader = new StreamingPageReader.Builder<Message>()
+                .client(graphClient)
+                .requestInformation(messagesRequest)
+                // Factory to create each item in the collection
+                .entityFactory(Message::createFromDiscriminatorValue)
+                .requestConfigurator( requestInfo -> {
+                    requestInfo.headers.add("Prefer", "outlook.body-content-type=\"text\"");
+                    return requestInfo;
+                })
+                // Callback executed as soon as each item is parsed
+                .processPageItemCallback( message -> {
+                    System.out.println(message.getSubject());
+                    return true;
+                }).build()) {
+            pageReader.iterate();
+        }
+        // </StreamingPagingSnippet>
+    }
+
+    public static void syncInboxWithDeltaQuery(GraphServiceClient graphClient) throws IOException {
+        // <DeltaSyncSnippet>
+        Map<String, Message> inbox = new HashMap<>();
+
+        // The first sync reads the whole folder, every later sync only reads
+        // the messages that changed since the deltaLink saved in inbox.delta
+        DeltaSyncEngine<Message> syncEngine = new DeltaSyncEngine<>(graphClient,
+                () -> graphClient.me().mailFolders().byMailFolderId("inbox").messages().delta()
+                    .toGetRequestInformation( requestConfiguration -> {
+                        requestConfiguration.headers.add("Prefer", "odata.maxpagesize=100");
+                        requestConfiguration.queryParameters.select = new String[] {"sender", "subject", "isRead"};
+                    }),
+                Message::createFromDiscriminatorValue,
+                Path.of("inbox.delta"),
+                // Page size is set with a header on delta queries, so it has
+                // to be sent with every nextLink and deltaLink request too
+                requestInfo -> {
+                    requestInfo.headers.add("Prefer", "odata.maxpagesize=100");
+                    return requestInfo;
+                });
+
+        DeltaSyncEngine.SyncResult result = syncEngine.sync(new DeltaSyncEngine.MapChangeHandler<>(inbox));
+        System.out.println(result);
+        // </DeltaSyncSnippet>
+    }
+
+    public static void syncInboxIntoEntityStore(GraphServiceClient graphClient) throws IOException {
+        // <EntityStoreSnippet>
+        // The synced messages are kept on disk in inbox-store instead of on
+        // the heap. Reopening the store after a restart loads its saved index
+        // rather than reading every message again.
+        try (EntityStore store = new EntityStore(Path.of("inbox-store"))) {
+            DeltaSyncEngine<Message> syncEngine = new DeltaSyncEngine<>(graphClient,
+                    () -> graphClient.me().mailFolders().byMailFolderId("inbox").messages().delta()
+                        .toGetRequestInformation( requestConfiguration -> {
+                            requestConfiguration.headers.add("Prefer", "odata.maxpagesize=100");
+                            requestConfiguration.queryParameters.select = new String[] {"sender", "subject", "isRead"};
+                        }),
+                    Message::createFromDiscriminatorValue,
+                    Path.of("inbox-store.delta"),
+                    requestInfo -> {
+                        requestInfo.headers.add("Prefer", "odata.maxpagesize=100");
+                        return requestInfo;
+                    });
+
+            DeltaSyncEngine.SyncResult result = syncEngine.sync(new EntityStore.StoreChangeHandler<>(store));
+            System.out.println(result);
+
+            // A scan visits the stored JSON in place without parsing it, and a
+            // point lookup only parses the message it returns
+            long[] payloadBytes = {0};
+            List<String> ids = new ArrayList<>();
+            store.forEach((id, payload) -> {
+                payloadBytes[0] += payload.remaining();
+                ids.add(id);
+                return true;
+            });
+            System.out.println(ids.size() + " messages, " + payloadBytes[0] + " bytes");
+            if (!ids.isEmpty()) {
+                Message first = store.get(ids.get(0), Message::createFromDiscriminatorValue);
+                System.out.println(first.getSubject());
+            }
+
+            // Removed messages leave garbage in the log until it is compacted
+            if (store.getStats().getGarbageRatio() > 0.5) {
+                store.compact();
+            }
+            System.out.println(store.getStats());
+        }
+        // </EntityStoreSnippet>
+    }
+
+    public static void cacheMessagePage(GraphServiceClient graphClient) throws IOException {
+        // <CompactBinaryCacheSnippet>
+        Path cacheFile = Path.of("messages.page");
+        MessageCollectionResponse messagesPage = graphClient.me().messages().get( requestConfiguration -> {
+            requestConfiguration.queryParameters.select = new String[] {"sender", "subject", "receivedDateTime"};
+            requestConfiguration.queryParameters.top = 100;
+        });
+
+        // A third of the size of the JSON and several times faster to write
+        // and read back. The nextLink is cached with the page, so paging can
+        // carry on from it later.
+        Files.write(cacheFile, CompactBinaryWriter.serialize(messagesPage));
+
+        MessageCollectionResponse cachedPage = CompactBinaryParseNode.parse(Files.readAllBytes(cacheFile),
+                MessageCollectionResponse::createFromDiscriminatorValue);
+        for (Message message : cachedPage.getValue()) {
+            System.out.println(message.getSubject());
+        }
+        System.out.println(cachedPage.getOdataNextLink());
+        // </CompactBinaryCacheSnippet>
+    }
+
+    public static void publishAllMessages(GraphServiceClient graphClient, OkHttpClient httpClient)
+            throws InterruptedException {
+        // <PublisherPagingSnippet>
+        // httpClient is the OkHttpClient graphClient was created with
+        AsyncGraphClient asyncClient = new AsyncGraphClient(graphClient, httpClient);
+
+        RequestInformation messagesRequest = graphClient.me().messages().toGetRequestInformation( requestConfiguration -> {
+            requestConfiguration.queryParameters.select = new String[] {"sender", "subject"};
+            requestConfiguration.queryParameters.top = 50;
+        });
+
+        // Pages are only fetched when the subscriber asks for more messages
+        // than are buffered, plus one page read ahead
+        PagePublisher<Message, MessageCollectionResponse> publisher =
+                new PagePublisher.Builder<Message, MessageCollectionResponse>()
+                .asyncClient(asyncClient)
+                .requestInformation(messagesRequest)
+                .collectionPageFactory(MessageCollectionResponse::createFromDiscriminatorValue)
+                .prefetchPages(1)
+                .build();
+
+        CountDownLatch done = new CountDownLatch(1);
+        publisher.subscribe(new Flow.Subscriber<Message>() {
+            private Flow.Subscription subscription;
+            private int received;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(10);
+            }
+
+            @Override
+            public void onNext(Message message) {
+                System.out.println(message.getSubject());
+                // Ask for the next 10 messages once these are processed
+                if (++received % 10 == 0) {
+                    subscription.request(10);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                System.out.println(error.getMessage());
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        done.await();
+        // Stops the threads the async client created
+        asyncClient.close();
+        // </PublisherPagingSnippet>
+    }
+
+    public static void enumerateInPartitions(GraphServiceClient graphClient, List<String> mailboxes) {
+        // <PartitionedPagingSnippet>
+        // Every user created since 2015, starting from one partition per
+        // year. A year with more than one page of users is split in halves
+        // while some of the 8 workers have nothing to do.
+        PartitionedEnumerator<User, UserCollectionResponse> userEnumerator = new PartitionedEnumerator<>(
+                graphClient, UserCollectionResponse::createFromDiscriminatorValue, 8);
+        List<PartitionedEnumerator.Partition> years = PartitionedEnumerator.DateRangePartition.divide(
+                filter -> graphClient.users().toGetRequestInformation( requestConfiguration -> {
+                    requestConfiguration.queryParameters.filter = filter;
+                    requestConfiguration.queryParameters.select = new String[] {"id", "displayName", "createdDateTime"};
+                    requestConfiguration.queryParameters.top = 999;
+                }),
+                "createdDateTime",
+                OffsetDateTime.parse("2015-01-01T00:00:00Z"),
+                OffsetDateTime.now(ZoneOffset.UTC),
+                OffsetDateTime.now(ZoneOffset.UTC).getYear() - 2015 + 1,
+                Duration.ofDays(1));
+
+        try (Stream<User> users = userEnumerator.stream(years)) {
+            users.forEach(user -> System.out.println(user.getDisplayName()));
+        }
+        System.out.println(userEnumerator.getStats());
+
+        // The messages of many mailboxes, one partition per mailbox
+        PartitionedEnumerator<Message, MessageCollectionResponse> messageEnumerator = new PartitionedEnumerator<>(
+                graphClient, MessageCollectionResponse::createFromDiscriminatorValue, 8);
+        List<PartitionedEnumerator.Partition> perMailbox = new ArrayList<>();
+        for (String mailbox : mailboxes) {
+            perMailbox.add(() -> graphClient.users().byUserId(mailbox).messages().toGetRequestInformation( requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"subject"};
+                requestConfiguration.queryParameters.top = 100;
+            }));
+        }
+
+        try (Stream<Message> messages = messageEnumerator.stream(perMailbox)) {
+            System.out.println(messages.count() + " messages");
+        }
+        // </PartitionedPagingSnippet>
+    }
 }
@@ -0,0 +1,266 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonParser;
+import com.microsoft.graph.core.models.IProgressCallback;
+import com.microsoft.graph.core.models.UploadResult;
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.UploadSession;
+import com.microsoft.kiota.serialization.JsonParseNode;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Uploads a file to an upload session from its FileChannel. Slices are taken
+// from the session's nextExpectedRanges and sized in multiples of 320 KiB so
+// each one takes roughly TARGET_SLICE_SECONDS at the throughput measured so
+// far. Upload sessions reject fragments that arrive out of order, so the
+// slices of one range are sent one after another; only when the session lists
+// several disjoint ranges, as a resumed session can, are up to
+// maxConcurrentSlices of them uploaded at once. A new session reports a
+// single "0-" range and is uploaded sequentially.
+public class ParallelFileUpload {
+    public static final long SLICE_UNIT = 320 * 1024;
+    public static final long MIN_SLICE_SIZE = SLICE_UNIT;
+    // Each request must be smaller than 60 MiB, which is 192 units exactly
+    public static final long MAX_SLICE_SIZE = 191 * SLICE_UNIT;
+    public static final long INITIAL_SLICE_SIZE = 16 * SLICE_UNIT;
+    private static final double TARGET_SLICE_SECONDS = 4;
+
+    private final OkHttpClient httpClient;
+    private final int maxConcurrentSlices;
+    private final int maxAttempts;
+
+    public ParallelFileUpload(int maxConcurrentSlices, int maxAttempts) {
+        // Upload URLs are pre-authenticated, so the client must not add
+        // an Authorization header
+        this(GraphClientFactory.create().build(), maxConcurrentSlices, maxAttempts);
+    }
+
+    public ParallelFileUpload(OkHttpClient httpClient, int maxConcurrentSlices, int maxAttempts) {
+        this.httpClient = Objects.requireNonNull(httpClient);
+        if (maxConcurrentSlices < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException(
+                "maxConcurrentSlices and maxAttempts must be at least 1");
+        }
+        this.maxConcurrentSlices = maxConcurrentSlices;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public <T extends Parsable> UploadResult<T> upload(UploadSession uploadSession, Path filePath,
+        ParsableFactory<T> factory, IProgressCallback callback)
+        throws IOException, InterruptedException {
+        return upload(uploadSession, filePath, factory, callback, null);
+    }
+
+    public <T extends Parsable> UploadResult<T> upload(UploadSession uploadSession, Path filePath,
+        ParsableFactory<T> factory, IProgressCallback callback, UploadJournal journal)
+        throws IOException, InterruptedException {
+        final String uploadUrl = Objects.requireNonNull(uploadSession.getUploadUrl());
+        if (null != journal) {
+            journal.start(filePath, uploadSession);
+        }
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+            ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentSlices)) {
+            final long fileSize = channel.size();
+            final Deque<long[]> remaining = parseRanges(uploadSession.getNextExpectedRanges(),
+                fileSize);
+            long uploaded = fileSize;
+            for (long[] range : remaining) {
+                uploaded -= range[1] - range[0] + 1;
+            }
+
+            final CompletionService<SliceResult> slices = new ExecutorCompletionService<>(executor);
+            final UploadResult<T> result = new UploadResult<>();
+            long sliceSize = INITIAL_SLICE_SIZE;
+            int inFlight = 0;
+
+            // remaining holds the ranges without a slice in flight; the rest
+            // of a range is put back once its current slice is acknowledged
+            while (!remaining.isEmpty() || inFlight > 0) {
+                while (inFlight < maxConcurrentSlices && !remaining.isEmpty()) {
+                    final long[] range = remaining.removeFirst();
+                    final long start = range[0];
+                    final long end = Math.min(range[1], start + sliceSize - 1);
+                    final long rangeEnd = range[1];
+                    slices.submit(() -> putSlice(uploadUrl, channel, start, end, rangeEnd,
+                        fileSize));
+                    inFlight++;
+                }
+
+                final SliceResult slice;
+                try {
+                    slice = slices.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                inFlight--;
+                if (slice.start + slice.length <= slice.rangeEnd) {
+                    remaining.addFirst(new long[] {slice.start + slice.length, slice.rangeEnd});
+                }
+
+                if (null != journal) {
+                    journal.acknowledge(filePath, slice.start, slice.start + slice.length - 1);
+                }
+                uploaded += slice.length;
+                if (null != callback) {
+                    callback.report(uploaded, fileSize);
+                }
+                sliceSize = nextSliceSize(sliceSize, slice);
+
+                if (null != slice.location) {
+                    result.location = URI.create(slice.location);
+                }
+                if (null != slice.itemJson && !slice.itemJson.isBlank()) {
+                    // The slice that completed the file returns the created item
+                    result.itemResponse = new JsonParseNode(JsonParser.parseString(slice.itemJson))
+                        .getObjectValue(factory);
+                }
+            }
+
+            if (null != journal && result.isUploadSuccessful()) {
+                journal.complete(filePath);
+            }
+            return result;
+        }
+    }
+
+    public UploadSession getUploadSessionStatus(UploadSession uploadSession) throws IOException {
+        // GET on the upload URL returns the ranges the service is still missing
+        final Request request = new Request.Builder()
+            .url(Objects.requireNonNull(uploadSession.getUploadUrl()))
+            .get()
+            .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            final ResponseBody body = response.body();
+            if (!response.isSuccessful() || null == body) {
+                throw new IOException(String.format(
+                    "Getting the upload session status failed with %d", response.code()));
+            }
+            final UploadSession status = new JsonParseNode(JsonParser.parseString(body.string()))
+                .getObjectValue(UploadSession::createFromDiscriminatorValue);
+            status.setUploadUrl(uploadSession.getUploadUrl());
+            return status;
+        }
+    }
+
+    static Deque<long[]> parseRanges(List<String> nextExpectedRanges, long fileSize) {
+        final Deque<long[]> ranges = new ArrayDeque<>();
+        if (null == nextExpectedRanges || nextExpectedRanges.isEmpty()) {
+            ranges.add(new long[] {0, fileSize - 1});
+            return ranges;
+        }
+        for (String range : nextExpectedRanges) {
+            // Ranges are "start-end" (inclusive) or "start-" for the rest of the file
+            final String[] bounds = range.split("-", -1);
+            final long start = Long.parseLong(bounds[0].trim());
+            final long end = bounds.length < 2 || bounds[1].isBlank()
+                ? fileSize - 1
+                : Math.min(Long.parseLong(bounds[1].trim()), fileSize - 1);
+            if (start <= end) {
+                ranges.add(new long[] {start, end});
+            }
+        }
+        return ranges;
+    }
+
+    private static long nextSliceSize(long current, SliceResult slice) {
+        if (slice.elapsedNanos <= 0) {
+            return current;
+        }
+        final double bytesPerSecond = slice.length * 1e9 / slice.elapsedNanos;
+        final long currentUnits = current / SLICE_UNIT;
+        long targetUnits = (long) (bytesPerSecond * TARGET_SLICE_SECONDS / SLICE_UNIT);
+        // Move gradually so one fast or slow slice does not swing the size too far
+        targetUnits = Math.max(currentUnits / 2, Math.min(currentUnits * 2, targetUnits));
+        return Math.max(MIN_SLICE_SIZE, Math.min(MAX_SLICE_SIZE, targetUnits * SLICE_UNIT));
+    }
+
+    // Only failures to reach the service are retried here. The client's
+    // RetryHandler already retries 429, 503 and 504 responses, and other
+    // status codes would not change on another attempt.
+    private SliceResult putSlice(String uploadUrl, FileChannel channel, long start, long end,
+        long rangeEnd, long fileSize) throws IOException, InterruptedException {
+        final long length = end - start + 1;
+        final Request request = new Request.Builder()
+            .url(uploadUrl)
+            .header("Content-Range", String.format("bytes %d-%d/%d", start, end, fileSize))
+            .put(new FileChannelRequestBody(channel, start, length))
+            .build();
+
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                TimeUnit.SECONDS.sleep(attempt - 1);
+            }
+            final long startNanos = System.nanoTime();
+            final Response response;
+            try {
+                response = httpClient.newCall(request).execute();
+            } catch (IOException e) {
+                lastError = e;
+                continue;
+            }
+            try (response) {
+                if (!response.isSuccessful()) {
+                    throw new IOException(String.format("Uploading bytes %d-%d failed with %d",
+                        start, end, response.code()));
+                }
+                final ResponseBody body = response.body();
+                // 202 means more ranges are expected, 200 or 201 carry the item
+                final String itemJson = response.code() == 202 || null == body
+                    ? null
+                    : body.string();
+                return new SliceResult(start, length, rangeEnd, System.nanoTime() - startNanos,
+                    itemJson, response.header("Location"));
+            }
+        }
+        throw lastError;
+    }
+
+    private static class SliceResult {
+        private final long start;
+        private final long length;
+        // The last byte of the range the slice was taken from
+        private final long rangeEnd;
+        private final long elapsedNanos;
+        private final String itemJson;
+        private final String location;
+
+        private SliceResult(long start, long length, long rangeEnd, long elapsedNanos,
+            String itemJson, String location) {
+            this.start = start;
+            this.length = length;
+            this.rangeEnd = rangeEnd;
+            this.elapsedNanos = elapsedNanos;
+            this.itemJson = itemJson;
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.microsoft.graph.models.odataerrors.ODataError;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestAdapter;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.AdditionalDataHolder;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Reads a collection that is too large for one @odata.nextLink chain as
+// independent partitions: one per mailbox or folder, or one per $filter range
+// (see DateRangePartition). Each partition's chain is followed by one of
+// parallelism workers of a work-stealing ForkJoinPool, so parallelism is also
+// the number of requests in flight and should stay below the throttling
+// limit. A partition whose first page has a nextLink is split, when it can be
+// and other workers are out of work, and its halves are forked for idle
+// workers to steal; that first page is read again by the halves. The pages of
+// all partitions are merged into one stream in the order they arrive. At most
+// maxBufferedPages pages wait for the stream's consumer before the workers
+// stop fetching.
+public class PartitionedEnumerator<TEntity extends Parsable, TCollectionPage extends Parsable & AdditionalDataHolder> {
+    private final RequestAdapter requestAdapter;
+    private final ParsableFactory<TCollectionPage> collectionPageFactory;
+    private final int parallelism;
+    private final int maxBufferedPages;
+    private final UnaryOperator<RequestInformation> requestConfigurator;
+
+    private final HashMap<String, ParsableFactory<? extends Parsable>> errorMapping = new HashMap<>();
+
+    private final LongAdder partitions = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder items = new LongAdder();
+
+    public PartitionedEnumerator(GraphServiceClient graphClient,
+        ParsableFactory<TCollectionPage> collectionPageFactory, int parallelism) {
+        this(graphClient, collectionPageFactory, parallelism, 4 * parallelism, null);
+    }
+
+    // requestConfigurator is applied to every nextLink request, as with
+    // PageIterator, for headers that the nextLink does not carry
+    public PartitionedEnumerator(GraphServiceClient graphClient,
+        ParsableFactory<TCollectionPage> collectionPageFactory, int parallelism,
+        int maxBufferedPages, UnaryOperator<RequestInformation> requestConfigurator) {
+        this.requestAdapter = Objects.requireNonNull(graphClient).getRequestAdapter();
+        this.collectionPageFactory = Objects.requireNonNull(collectionPageFactory);
+        if (parallelism < 1 || maxBufferedPages < 1) {
+            throw new IllegalArgumentException(
+                "parallelism and maxBufferedPages must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.maxBufferedPages = maxBufferedPages;
+        this.requestConfigurator = requestConfigurator;
+        errorMapping.put("XXX", ODataError::createFromDiscriminatorValue);
+    }
+
+    // The stream must be closed, or read to the end, to stop the workers. It
+    // throws the first error of any partition, after which the others stop.
+    public Stream<TEntity> stream(List<? extends Partition> partitions) {
+        final Enumeration enumeration = new Enumeration(new ArrayList<>(partitions));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(enumeration,
+            Spliterator.NONNULL), false).onClose(enumeration::close);
+    }
+
+    public EnumerationStats getStats() {
+        return new EnumerationStats(partitions.sum(), splits.sum(), pages.sum(), items.sum());
+    }
+
+    // A part of the collection with its own nextLink chain, for example
+    // () -> graphClient.users().byUserId(id).messages().toGetRequestInformation()
+    @FunctionalInterface
+    public interface Partition {
+        RequestInformation toRequestInformation();
+
+        // Partitions that together cover exactly this one, or an empty list
+        // when it cannot be split
+        default List<Partition> split() {
+            return Collections.emptyList();
+        }
+    }
+
+    // Items whose property (such as createdDateTime or receivedDateTime) is
+    // in [from, to). requestFactory is given the $filter for the range.
+    // Splits in halves down to minSpan.
+    public static class DateRangePartition implements Partition {
+        private final Function<String, RequestInformation> requestFactory;
+        private final String property;
+        private final OffsetDateTime from;
+        private final OffsetDateTime to;
+        private final Duration minSpan;
+
+        public DateRangePartition(Function<String, RequestInformation> requestFactory,
+            String property, OffsetDateTime from, OffsetDateTime to, Duration minSpan) {
+            this.requestFactory = Objects.requireNonNull(requestFactory);
+            this.property = Objects.requireNonNull(property);
+            this.from = Objects.requireNonNull(from);
+            this.to = Objects.requireNonNull(to);
+            this.minSpan = Objects.requireNonNull(minSpan);
+            if (!from.isBefore(to)) {
+                throw new IllegalArgumentException("from must be before to");
+            }
+        }
+
+        // count partitions of equal length covering [from, to)
+        public static List<Partition> divide(Function<String, RequestInformation> requestFactory,
+            String property, OffsetDateTime from, OffsetDateTime to, int count, Duration minSpan) {
+            if (count < 1) {
+                throw new IllegalArgumentException("count must be at least 1");
+            }
+            final Duration step = Duration.between(from, to).dividedBy(count);
+            final List<Partition> ranges = new ArrayList<>(count);
+            OffsetDateTime start = from;
+            for (int i = 0; i < count; i++) {
+                final OffsetDateTime end = i + 1 == count ? to : start.plus(step);
+                if (start.isBefore(end)) {
+                    ranges.add(new DateRangePartition(requestFactory, property, start, end,
+                        minSpan));
+                }
+                start = end;
+            }
+            return ranges;
+        }
+
+        public String getFilter() {
+            return String.format("%s ge %s and %s lt %s", property, from.toInstant(), property,
+                to.toInstant());
+        }
+
+        @Override
+        public RequestInformation toRequestInformation() {
+            return requestFactory.apply(getFilter());
+        }
+
+        @Override
+        public List<Partition> split() {
+            final Duration half = Duration.between(from, to).dividedBy(2);
+            if (half.compareTo(minSpan) < 0) {
+                return Collections.emptyList();
+            }
+            final OffsetDateTime middle = from.plus(half);
+            return List.of(new DateRangePartition(requestFactory, property, from, middle, minSpan),
+                new DateRangePartition(requestFactory, property, middle, to, minSpan));
+        }
+
+        @Override
+        public String toString() {
+            return getFilter();
+        }
+    }
+
+    public static class EnumerationStats {
+        // Partitions read to the end, after splitting
+        public final long partitions;
+        public final long splits;
+        // Pages read, including the first pages of partitions that were split
+        public final long pages;
+        public final long items;
+
+        private EnumerationStats(long partitions, long splits, long pages, long items) {
+            this.partitions = partitions;
+            this.splits = splits;
+            this.pages = pages;
+            this.items = items;
+        }
+
+        public double getMeanItemsPerPage() {
+            return 0 == pages ? 0 : (double) items / pages;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("partitions=%d splits=%d pages=%d items=%d meanItemsPerPage=%.1f",
+                partitions, splits, pages, items, getMeanItemsPerPage());
+        }
+    }
+
+    private class Enumeration implements Iterator<TEntity> {
+        private final ForkJoinPool pool;
+        private final BlockingQueue<List<TEntity>> queue = new ArrayBlockingQueue<>(maxBufferedPages);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile boolean closed;
+        private Iterator<TEntity> page = Collections.emptyIterator();
+        private boolean done;
+
+        private Enumeration(List<Partition> partitions) {
+            // No compensation threads: a worker waiting for room in the queue
+            // must not let another request start
+            this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, false, 0, parallelism, 1, p -> true, 60, TimeUnit.SECONDS);
+            pool.execute(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        final List<PartitionTask> tasks = new ArrayList<>(partitions.size());
+                        for (Partition partition : partitions) {
+                            tasks.add(new PartitionTask(Enumeration.this, partition));
+                        }
+                        invokeAll(tasks);
+                    } finally {
+                        // An empty page marks the end
+                        put(Collections.emptyList());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if (done) {
+                    return false;
+                }
+                final List<TEntity> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new CancellationException("Interrupted while waiting for a page");
+                }
+                if (next.isEmpty()) {
+                    done = true;
+                    close();
+                    final Throwable failure = error.get();
+                    if (null != failure) {
+                        throw failure instanceof RuntimeException
+                            ? (RuntimeException) failure
+                            : new IllegalStateException("A partition could not be read", failure);
+                    }
+                    return false;
+                }
+                page = next.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public TEntity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        private boolean isStopped() {
+            return closed || null != error.get();
+        }
+
+        private void fail(Throwable failure) {
+            error.compareAndSet(null, failure);
+        }
+
+        // Called by the workers
+        private void put(List<TEntity> pageItems) {
+            try {
+                while (!closed && !queue.offer(pageItems, 100, TimeUnit.MILLISECONDS)) {
+                    // Wait for the consumer, unless it closes the stream
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            pool.shutdownNow();
+            queue.clear();
+        }
+    }
+
+    private class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks only live in this enumeration's pool and are never serialized
+        private final transient Enumeration enumeration;
+        private final transient Partition partition;
+
+        private PartitionTask(Enumeration enumeration, Partition partition) {
+            this.enumeration = enumeration;
+            this.partition = partition;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                RequestInformation request = partition.toRequestInformation();
+                boolean first = true;
+                while (null != request && !enumeration.isStopped()) {
+                    final TCollectionPage page = requestAdapter.send(request, errorMapping,
+                        collectionPageFactory);
+                    pages.increment();
+                    if (null == page) {
+                        break;
+                    }
+                    final String nextLink = PrefetchingPageIterator.getNextLink(page);
+                    final boolean hasNextPage = null != nextLink && !nextLink.isBlank();
+
+                    // Splitting costs the first page, so only split while
+                    // this worker has no forked tasks left for idle workers
+                    // to steal; otherwise every worker is already busy
+                    if (first && hasNextPage && parallelism > 1
+                        && getSurplusQueuedTaskCount() <= 0) {
+                        final List<Partition> parts = partition.split();
+                        if (!parts.isEmpty()) {
+                            splits.increment();
+                            final List<PartitionTask> tasks = new ArrayList<>(parts.size());
+                            for (Partition part : parts) {
+                                tasks.add(new PartitionTask(enumeration, part));
+                            }
+                            invokeAll(tasks);
+                            return;
+                        }
+                    }
+                    first = false;
+
+                    final List<TEntity> pageItems = PrefetchingPageIterator.getPageItems(page);
+                    if (!pageItems.isEmpty()) {
+                        items.add(pageItems.size());
+                        enumeration.put(pageItems);
+                    }
+                    request = hasNextPage ? getNextPageRequest(nextLink) : null;
+                }
+                if (null == request) {
+                    partitions.increment();
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                enumeration.fail(e);
+            }
+        }
+
+        private RequestInformation getNextPageRequest(String nextLink) {
+            RequestInformation nextPageRequest = new RequestInformation();
+            nextPageRequest.httpMethod = HttpMethod.GET;
+            nextPageRequest.urlTemplate = nextLink;
+            if (null != requestConfigurator) {
+                nextPageRequest = requestConfigurator.apply(nextPageRequest);
+            }
+            return nextPageRequest;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.microsoft.graph.core.requests.IBaseClient;
+import com.microsoft.graph.core.tasks.PageIterator.PageIteratorState;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestAdapter;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.AdditionalDataHolder;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// A PageIterator that fetches the following pages on a background thread
+// while the callback is still processing the current one. At most
+// prefetchPages pages are held ahead of the consumer.
+public class PrefetchingPageIterator<TEntity extends Parsable, TCollectionPage extends Parsable & AdditionalDataHolder>
+    implements AutoCloseable {
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+    // How often a fetcher waiting for room in the queue checks whether the
+    // iterator was closed
+    private static final long CLOSED_CHECK_MILLIS = 100;
+
+    private RequestAdapter requestAdapter;
+    private ParsableFactory<TCollectionPage> collectionPageFactory;
+    private UnaryOperator<RequestInformation> requestConfigurator;
+    private Function<TEntity, Boolean> processPageItemCallback;
+    private BlockingQueue<FetchedPage<TCollectionPage>> prefetchedPages;
+
+    private final Queue<TEntity> pageItemQueue = new ArrayDeque<>();
+    private TCollectionPage currentPage;
+    private String nextLink;
+    private String deltaLink;
+    private Thread fetcher;
+    private volatile boolean closed;
+    private PageIteratorState state = PageIteratorState.NOT_STARTED;
+
+    private PrefetchingPageIterator() {
+    }
+
+    public String getNextLink() {
+        return nextLink;
+    }
+
+    public String getDeltaLink() {
+        return deltaLink;
+    }
+
+    public PageIteratorState getPageIteratorState() {
+        return state;
+    }
+
+    public void iterate() throws ApiException, ReflectiveOperationException, InterruptedException {
+        if (state == PageIteratorState.NOT_STARTED) {
+            pageItemQueue.addAll(getPageItems(currentPage));
+            nextLink = getNextLink(currentPage);
+            deltaLink = getDeltaLink(currentPage);
+            startFetcher(nextLink);
+        }
+
+        while (true) {
+            state = PageIteratorState.INTRAPAGE_ITERATION;
+            while (!pageItemQueue.isEmpty()) {
+                if (!processPageItemCallback.apply(pageItemQueue.remove())) {
+                    state = PageIteratorState.PAUSED;
+                    return;
+                }
+            }
+
+            if (null == fetcher) {
+                break;
+            }
+
+            state = PageIteratorState.INTERPAGE_ITERATION;
+            final FetchedPage<TCollectionPage> fetchedPage = prefetchedPages.take();
+            if (null != fetchedPage.error) {
+                close();
+                throw fetchedPage.error;
+            }
+            if (null == fetchedPage.page) {
+                fetcher = null;
+                break;
+            }
+
+            currentPage = fetchedPage.page;
+            pageItemQueue.addAll(getPageItems(currentPage));
+            nextLink = getNextLink(currentPage);
+            deltaLink = getDeltaLink(currentPage);
+        }
+
+        state = null == deltaLink || deltaLink.isBlank()
+            ? PageIteratorState.COMPLETE
+            : PageIteratorState.DELTA;
+    }
+
+    public void resume() throws ApiException, ReflectiveOperationException, InterruptedException {
+        iterate();
+    }
+
+    // OkHttp may swallow the interrupt while a page is being fetched, so the
+    // fetcher also stops once it sees closed, and the queue is cleared so
+    // the pages it holds can be collected
+    @Override
+    public void close() {
+        closed = true;
+        if (null != fetcher) {
+            fetcher.interrupt();
+            fetcher = null;
+        }
+        prefetchedPages.clear();
+    }
+
+    private void startFetcher(String firstLink) {
+        if (null == firstLink || firstLink.isBlank()) {
+            return;
+        }
+
+        fetcher = new Thread(() -> {
+            String link = firstLink;
+            try {
+                RuntimeException error = null;
+                try {
+                    while (null != link && !link.isBlank() && !closed) {
+                        final TCollectionPage page = fetchPage(link);
+                        final String followingLink = getNextLink(page);
+                        if (link.equals(followingLink)) {
+                            throw new ApiException(
+                                "Detected a nextLink loop. NextLink value: " + link);
+                        }
+                        // Waits once prefetchPages pages are waiting for the consumer
+                        if (!offer(new FetchedPage<>(page, null))) {
+                            return;
+                        }
+                        link = followingLink;
+                    }
+                } catch (ReflectiveOperationException e) {
+                    error = new ApiException(e);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                // A page with neither content nor error marks the end of the collection
+                offer(new FetchedPage<>(null, error));
+            } catch (InterruptedException e) {
+                // The iterator was closed
+            }
+        }, "page-prefetch");
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    // Returns false when the iterator was closed before the page was queued
+    private boolean offer(FetchedPage<TCollectionPage> fetchedPage) throws InterruptedException {
+        while (!closed) {
+            if (prefetchedPages.offer(fetchedPage, CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TCollectionPage fetchPage(String link) {
+        RequestInformation requestInformation = new RequestInformation();
+        requestInformation.httpMethod = HttpMethod.GET;
+        requestInformation.urlTemplate = link;
+        if (null != requestConfigurator) {
+            requestInformation = requestConfigurator.apply(requestInformation);
+        }
+        return Objects.requireNonNull(
+            requestAdapter.send(requestInformation, null, collectionPageFactory));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <TEntity> List<TEntity> getPageItems(Parsable page) throws ReflectiveOperationException {
+        final Method getValue = page.getClass().getMethod("getValue");
+        final List<TEntity> items = (List<TEntity>) getValue.invoke(page);
+        return null == items ? List.of() : items;
+    }
+
+    static String getNextLink(Parsable page) throws ReflectiveOperationException {
+        return getLink(page, "getOdataNextLink", "@odata.nextLink");
+    }
+
+    static String getDeltaLink(Parsable page) throws ReflectiveOperationException {
+        return getLink(page, "getOdataDeltaLink", "@odata.deltaLink");
+    }
+
+    private static String getLink(Parsable page, String getterName, String annotation)
+        throws IllegalAccessException, InvocationTargetException {
+        for (Method method : page.getClass().getMethods()) {
+            if (method.getName().equals(getterName) && method.getParameterCount() == 0) {
+                final Object link = method.invoke(page);
+                if (null != link && !link.toString().isBlank()) {
+                    return link.toString();
+                }
+            }
+        }
+        if (page instanceof AdditionalDataHolder) {
+            final Object link = ((AdditionalDataHolder) page).getAdditionalData().get(annotation);
+            return null == link ? null : link.toString();
+        }
+        return null;
+    }
+
+    private static class FetchedPage<TCollectionPage> {
+        private final TCollectionPage page;
+        private final RuntimeException error;
+
+        private FetchedPage(TCollectionPage page, RuntimeException error) {
+            this.page = page;
+            this.error = error;
+        }
+    }
+
+    public static class Builder<TEntity extends Parsable, TCollectionPage extends Parsable & AdditionalDataHolder> {
+        private RequestAdapter requestAdapter;
+        private TCollectionPage collectionPage;
+        private ParsableFactory<TCollectionPage> collectionPageFactory;
+        private UnaryOperator<RequestInformation> requestConfigurator;
+        private Function<TEntity, Boolean> processPageItemCallback;
+        private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+
+        public Builder<TEntity, TCollectionPage> client(IBaseClient client) {
+            return requestAdapter(Objects.requireNonNull(client).getRequestAdapter());
+        }
+
+        public Builder<TEntity, TCollectionPage> requestAdapter(RequestAdapter requestAdapter) {
+            this.requestAdapter = Objects.requireNonNull(requestAdapter);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> collectionPage(TCollectionPage collectionPage) {
+            this.collectionPage = Objects.requireNonNull(collectionPage);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> collectionPageFactory(
+            ParsableFactory<TCollectionPage> collectionPageFactory) {
+            this.collectionPageFactory = Objects.requireNonNull(collectionPageFactory);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> requestConfigurator(
+            UnaryOperator<RequestInformation> requestConfigurator) {
+            this.requestConfigurator = requestConfigurator;
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> processPageItemCallback(
+            Function<TEntity, Boolean> processPageItemCallback) {
+            this.processPageItemCallback = Objects.requireNonNull(processPageItemCallback);
+            return this;
+        }
+
+        public Builder<TEntity, TCollectionPage> prefetchPages(int prefetchPages) {
+            if (prefetchPages < 1) {
+                throw new IllegalArgumentException("prefetchPages must be at least 1");
+            }
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        public PrefetchingPageIterator<TEntity, TCollectionPage> build() {
+            final PrefetchingPageIterator<TEntity, TCollectionPage> iterator =
+                new PrefetchingPageIterator<>();
+            iterator.requestAdapter = Objects.requireNonNull(requestAdapter,
+                "client or requestAdapter is required");
+            iterator.currentPage = Objects.requireNonNull(collectionPage,
+                "collectionPage is required");
+            iterator.collectionPageFactory = Objects.requireNonNull(collectionPageFactory,
+                "collectionPageFactory is required");
+            iterator.processPageItemCallback = Objects.requireNonNull(processPageItemCallback,
+                "processPageItemCallback is required");
+            iterator.requestConfigurator = requestConfigurator;
+            iterator.prefetchedPages = new ArrayBlockingQueue<>(prefetchPages);
+            return iterator;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Caches GET responses in memory and revalidates them with If-None-Match, so
+// a resource that has not changed comes back as a 304 without a body. Within
+// ttl a cached response is served without calling Graph at all. Entries are
+// keyed by a hash of the Authorization header, the full URL and the request
+// headers that change the response, so a response is only ever served to the
+// same access token that fetched it. The cache holds at most maxBytes of
+// response bodies and evicts the least recently used entries first. A
+// successful write to a path drops the cached responses under that path and
+// those of its parent, the collection that lists it: a PATCH to
+// /me/messages/{id} also drops the cached pages of /me/messages.
+public class ResponseCacheHandler implements Interceptor {
+    // Request headers that change the response body, so they are part of the key
+    private static final String[] VARY_HEADERS = {"Accept", "Accept-Language", "Prefer",
+        "ConsistencyLevel"};
+    // A single response may use at most this share of the cache
+    private static final int MAX_ENTRY_FRACTION = 8;
+    private static final int MAX_CACHED_IDENTITIES = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, String> identitiesByAuthorization =
+        new ConcurrentHashMap<>();
+    private long cachedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ResponseCacheHandler() {
+        this(16 * 1024 * 1024, Duration.ZERO);
+    }
+
+    // With a ttl of Duration.ZERO every cached response is revalidated
+    public ResponseCacheHandler(long maxBytes, Duration ttl) {
+        if (maxBytes < MAX_ENTRY_FRACTION || ttl.isNegative()) {
+            throw new IllegalArgumentException("maxBytes and ttl must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / MAX_ENTRY_FRACTION;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String identity = getIdentity(request.header("Authorization"));
+        if (!request.method().equals("GET")) {
+            final Response response = chain.proceed(request);
+            if (response.isSuccessful()) {
+                invalidate(identity, request.url().encodedPath());
+            }
+            return response;
+        }
+
+        final String requestCacheControl = getCacheControl(request.header("Cache-Control"));
+        if (null != request.header("If-None-Match") || requestCacheControl.contains("no-store")) {
+            // The caller manages caching for this request
+            return chain.proceed(request);
+        }
+
+        final String key = getKey(identity, request);
+        final CacheEntry cached = get(key);
+        final long now = System.nanoTime();
+        if (null != cached && ttlNanos > 0 && now - cached.storedNanos < ttlNanos
+            && !requestCacheControl.contains("no-cache")) {
+            hits.increment();
+            bytesSaved.add(cached.body.length);
+            return cached.toResponse(request);
+        }
+
+        final Request networkRequest = null != cached && null != cached.etag
+            ? request.newBuilder().header("If-None-Match", cached.etag).build()
+            : request;
+        final Response response = chain.proceed(networkRequest);
+        if (response.code() == 304 && null != cached) {
+            response.close();
+            revalidations.increment();
+            bytesSaved.add(cached.body.length);
+            cached.storedNanos = now;
+            return cached.toResponse(request);
+        }
+
+        misses.increment();
+        final String etag = response.header("ETag");
+        if (response.code() == 200 && (null != etag || ttlNanos > 0)
+            && !getCacheControl(response.header("Cache-Control")).contains("no-store")) {
+            // Copies the body without consuming it, so the caller still reads it
+            final ResponseBody peeked = response.peekBody(maxEntryBytes + 1);
+            final byte[] body = peeked.bytes();
+            if (body.length <= maxEntryBytes) {
+                put(key, new CacheEntry(identity, request.url().encodedPath(), etag,
+                    response.protocol(), response.headers(), peeked.contentType(), body, now));
+                return response;
+            }
+        }
+        if (null != cached) {
+            remove(key);
+        }
+        return response;
+    }
+
+    public CacheStats getStats() {
+        synchronized (entries) {
+            return new CacheStats(hits.sum(), revalidations.sum(), misses.sum(), bytesSaved.sum(),
+                evictions.sum(), invalidations.sum(), entries.size(), cachedBytes);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    private CacheEntry get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void put(String key, CacheEntry entry) {
+        synchronized (entries) {
+            final CacheEntry previous = entries.put(key, entry);
+            if (null != previous) {
+                cachedBytes -= previous.size;
+            }
+            cachedBytes += entry.size;
+
+            final Iterator<CacheEntry> eldest = entries.values().iterator();
+            while (cachedBytes > maxBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            final CacheEntry removed = entries.remove(key);
+            if (null != removed) {
+                cachedBytes -= removed.size;
+            }
+        }
+    }
+
+    private void invalidate(String identity, String path) {
+        final int parentEnd = path.lastIndexOf('/');
+        // Only the parent itself, the other items in the collection did not change
+        final String parent = parentEnd > 0 ? path.substring(0, parentEnd) : null;
+        synchronized (entries) {
+            final Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                final CacheEntry entry = iterator.next();
+                if (entry.identity.equals(identity) && (entry.path.equals(path)
+                    || entry.path.startsWith(path + '/') || entry.path.equals(parent))) {
+                    cachedBytes -= entry.size;
+                    iterator.remove();
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    // A hash of the whole Authorization header rather than claims read from
+    // the token, so a cached response can not be reached with another token
+    private String getIdentity(String authorization) {
+        if (null == authorization) {
+            return "anonymous";
+        }
+        final String cached = identitiesByAuthorization.get(authorization);
+        if (null != cached) {
+            return cached;
+        }
+
+        final String identity;
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(authorization.getBytes(StandardCharsets.UTF_8));
+            identity = HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (identitiesByAuthorization.size() >= MAX_CACHED_IDENTITIES) {
+            identitiesByAuthorization.clear();
+        }
+        identitiesByAuthorization.put(authorization, identity);
+        return identity;
+    }
+
+    static String getKey(String identity, Request request) {
+        final StringBuilder key = new StringBuilder(identity).append(' ').append(request.url());
+        for (String name : VARY_HEADERS) {
+            final String value = request.header(name);
+            if (null != value) {
+                key.append('\n').append(name).append(": ").append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private static String getCacheControl(String cacheControl) {
+        return null == cacheControl ? "" : cacheControl.toLowerCase(Locale.ROOT);
+    }
+
+    public static class CacheStats {
+        // Served within the ttl without calling Graph
+        public final long hits;
+        // Answered by Graph with a 304
+        public final long revalidations;
+        public final long misses;
+        // Response body bytes that did not have to be transferred
+        public final long bytesSaved;
+        public final long evictions;
+        public final long invalidations;
+        public final int entries;
+        public final long cachedBytes;
+
+        private CacheStats(long hits, long revalidations, long misses, long bytesSaved,
+            long evictions, long invalidations, int entries, long cachedBytes) {
+            this.hits = hits;
+            this.revalidations = revalidations;
+            this.misses = misses;
+            this.bytesSaved = bytesSaved;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.entries = entries;
+            this.cachedBytes = cachedBytes;
+        }
+
+        public double getHitRate() {
+            final long total = hits + revalidations + misses;
+            return 0 == total ? 0 : (double) (hits + revalidations) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "hits=%d revalidations=%d misses=%d hitRate=%.2f bytesSaved=%d evictions=%d "
+                    + "invalidations=%d entries=%d cachedBytes=%d",
+                hits, revalidations, misses, getHitRate(), bytesSaved, evictions, invalidations,
+                entries, cachedBytes);
+        }
+    }
+
+    private static class CacheEntry {
+        private final String identity;
+        private final String path;
+        private final String etag;
+        private final Protocol protocol;
+        private final Headers headers;
+        private final MediaType contentType;
+        private final byte[] body;
+        private final long size;
+        private volatile long storedNanos;
+
+        private CacheEntry(String identity, String path, String etag, Protocol protocol,
+            Headers headers, MediaType contentType, byte[] body, long storedNanos) {
+            this.identity = identity;
+            this.path = path;
+            this.etag = etag;
+            this.protocol = protocol;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+            this.size = body.length + path.length();
+            this.storedNanos = storedNanos;
+        }
+
+        private Response toResponse(Request request) {
+            final long now = System.currentTimeMillis();
+            return new Response.Builder()
+                .request(request)
+                .protocol(protocol)
+                .code(200)
+                .message("OK")
+                .headers(headers)
+                .body(ResponseBody.create(body, contentType))
+                .sentRequestAtMillis(now)
+                .receivedResponseAtMillis(now)
+                .build();
+        }
+    }
+}
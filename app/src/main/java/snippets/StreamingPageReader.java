@@ -0,0 +1,255 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.microsoft.graph.core.requests.IBaseClient;
+import com.microsoft.graph.core.tasks.PageIterator.PageIteratorState;
+import com.microsoft.graph.models.odataerrors.ODataError;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestAdapter;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.JsonParseNode;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Reads collection pages straight from the response stream, deserializing
+// one item of value[] at a time and passing it to the callback before the
+// next one is read. Only the item being processed is held in memory, so the
+// heap used no longer grows with $top or the size of the selected properties.
+public class StreamingPageReader<TEntity extends Parsable> implements AutoCloseable {
+    private RequestAdapter requestAdapter;
+    private RequestInformation requestInformation;
+    private ParsableFactory<TEntity> entityFactory;
+    private UnaryOperator<RequestInformation> requestConfigurator;
+    private Function<TEntity, Boolean> processPageItemCallback;
+
+    private JsonReader reader;
+    private boolean inValueArray;
+    private String requestedLink;
+    private String nextLink;
+    private String deltaLink;
+    private long bytesRead;
+    private PageIteratorState state = PageIteratorState.NOT_STARTED;
+
+    private StreamingPageReader() {
+    }
+
+    public String getNextLink() {
+        return nextLink;
+    }
+
+    public String getDeltaLink() {
+        return deltaLink;
+    }
+
+    // Response body bytes read across all pages so far
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public PageIteratorState getPageIteratorState() {
+        return state;
+    }
+
+    public void iterate() throws ApiException, IOException {
+        if (state == PageIteratorState.NOT_STARTED) {
+            openPage(requestInformation);
+        }
+
+        while (null != reader) {
+            state = PageIteratorState.INTRAPAGE_ITERATION;
+            if (!readPage()) {
+                state = PageIteratorState.PAUSED;
+                return;
+            }
+            close();
+
+            if (null == nextLink || nextLink.isBlank()) {
+                break;
+            }
+
+            state = PageIteratorState.INTERPAGE_ITERATION;
+            requestedLink = nextLink;
+            RequestInformation nextPageRequest = new RequestInformation();
+            nextPageRequest.httpMethod = HttpMethod.GET;
+            nextPageRequest.urlTemplate = nextLink;
+            if (null != requestConfigurator) {
+                nextPageRequest = requestConfigurator.apply(nextPageRequest);
+            }
+            openPage(nextPageRequest);
+        }
+
+        state = null == deltaLink || deltaLink.isBlank()
+            ? PageIteratorState.COMPLETE
+            : PageIteratorState.DELTA;
+    }
+
+    public void resume() throws ApiException, IOException {
+        iterate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != reader) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private void openPage(RequestInformation pageRequest) throws IOException {
+        final HashMap<String, ParsableFactory<? extends Parsable>> errorMapping = new HashMap<>();
+        errorMapping.put("XXX", ODataError::createFromDiscriminatorValue);
+
+        final InputStream body = requestAdapter.sendPrimitive(pageRequest, errorMapping,
+            InputStream.class);
+        if (null == body) {
+            return;
+        }
+
+        nextLink = null;
+        deltaLink = null;
+        inValueArray = false;
+        reader = new JsonReader(new InputStreamReader(new CountingInputStream(body),
+            StandardCharsets.UTF_8));
+        reader.beginObject();
+    }
+
+    private boolean readPage() throws IOException {
+        while (true) {
+            if (inValueArray) {
+                if (reader.hasNext()) {
+                    final TEntity item = new JsonParseNode(JsonParser.parseReader(reader))
+                        .getObjectValue(entityFactory);
+                    if (!processPageItemCallback.apply(item)) {
+                        return false;
+                    }
+                    continue;
+                }
+                reader.endArray();
+                inValueArray = false;
+                continue;
+            }
+
+            if (!reader.hasNext()) {
+                reader.endObject();
+                return true;
+            }
+
+            switch (reader.nextName()) {
+            case "value":
+                reader.beginArray();
+                inValueArray = true;
+                break;
+            case "@odata.nextLink":
+                nextLink = reader.nextString();
+                if (nextLink.equals(requestedLink)) {
+                    throw new ApiException("Detected a nextLink loop. NextLink value: " + nextLink);
+                }
+                break;
+            case "@odata.deltaLink":
+                deltaLink = reader.nextString();
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+
+    public static class Builder<TEntity extends Parsable> {
+        private RequestAdapter requestAdapter;
+        private RequestInformation requestInformation;
+        private ParsableFactory<TEntity> entityFactory;
+        private UnaryOperator<RequestInformation> requestConfigurator;
+        private Function<TEntity, Boolean> processPageItemCallback;
+
+        public Builder<TEntity> client(IBaseClient client) {
+            return requestAdapter(Objects.requireNonNull(client).getRequestAdapter());
+        }
+
+        public Builder<TEntity> requestAdapter(RequestAdapter requestAdapter) {
+            this.requestAdapter = Objects.requireNonNull(requestAdapter);
+            return this;
+        }
+
+        public Builder<TEntity> requestInformation(RequestInformation requestInformation) {
+            this.requestInformation = Objects.requireNonNull(requestInformation);
+            return this;
+        }
+
+        public Builder<TEntity> entityFactory(ParsableFactory<TEntity> entityFactory) {
+            this.entityFactory = Objects.requireNonNull(entityFactory);
+            return this;
+        }
+
+        public Builder<TEntity> requestConfigurator(
+            UnaryOperator<RequestInformation> requestConfigurator) {
+            this.requestConfigurator = requestConfigurator;
+            return this;
+        }
+
+        public Builder<TEntity> processPageItemCallback(
+            Function<TEntity, Boolean> processPageItemCallback) {
+            this.processPageItemCallback = Objects.requireNonNull(processPageItemCallback);
+            return this;
+        }
+
+        public StreamingPageReader<TEntity> build() {
+            final StreamingPageReader<TEntity> pageReader = new StreamingPageReader<>();
+            pageReader.requestAdapter = Objects.requireNonNull(requestAdapter,
+                "client or requestAdapter is required");
+            pageReader.requestInformation = Objects.requireNonNull(requestInformation,
+                "requestInformation is required");
+            pageReader.entityFactory = Objects.requireNonNull(entityFactory,
+                "entityFactory is required");
+            pageReader.processPageItemCallback = Objects.requireNonNull(processPageItemCallback,
+                "processPageItemCallback is required");
+            pageReader.requestConfigurator = requestConfigurator;
+            return pageReader;
+        }
+    }
+}
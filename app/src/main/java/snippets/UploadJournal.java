@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.microsoft.graph.models.UploadSession;
+
+// Keeps one small properties file per in-progress upload with the upload
+// session URL, its expiry, the identity of the source file and the byte ranges
+// the service has acknowledged. After a restart, findSession returns a session
+// whose nextExpectedRanges only cover the bytes that still have to be sent.
+// Every update is written to a temporary file, forced to disk and then moved
+// over the previous journal, so a crash never leaves a half-written entry.
+public class UploadJournal {
+    private static final int FIRST_BLOCK_SIZE = 64 * 1024;
+
+    private final Path directory;
+
+    public UploadJournal(Path directory) throws IOException {
+        this.directory = Files.createDirectories(Objects.requireNonNull(directory));
+    }
+
+    public synchronized UploadSession findSession(Path filePath) throws IOException {
+        final Properties entry = loadEntry(filePath);
+        if (null == entry) {
+            return null;
+        }
+
+        final OffsetDateTime expiration = OffsetDateTime.parse(
+            entry.getProperty("expirationDateTime"));
+        if (!expiration.isAfter(OffsetDateTime.now())
+            || !getFileIdentity(filePath).equals(getFileIdentity(entry))) {
+            // The session expired or the file changed since the upload started
+            complete(filePath);
+            return null;
+        }
+
+        final long fileSize = Long.parseLong(entry.getProperty("fileSize"));
+        final List<String> nextExpectedRanges = new ArrayList<>();
+        long next = 0;
+        for (Map.Entry<Long, Long> range : parseRanges(entry).entrySet()) {
+            if (range.getKey() > next) {
+                nextExpectedRanges.add(String.format("%d-%d", next, range.getKey() - 1));
+            }
+            next = Math.max(next, range.getValue() + 1);
+        }
+        if (next < fileSize) {
+            nextExpectedRanges.add(String.format("%d-", next));
+        }
+
+        final UploadSession uploadSession = new UploadSession();
+        uploadSession.setUploadUrl(entry.getProperty("uploadUrl"));
+        uploadSession.setExpirationDateTime(expiration);
+        uploadSession.setNextExpectedRanges(nextExpectedRanges);
+        return uploadSession;
+    }
+
+    public synchronized void start(Path filePath, UploadSession uploadSession)
+        throws IOException {
+        final String uploadUrl = Objects.requireNonNull(uploadSession.getUploadUrl());
+        final Properties entry = loadEntry(filePath);
+        if (null == entry || !uploadUrl.equals(entry.getProperty("uploadUrl"))) {
+            final Properties newEntry = getFileIdentity(filePath);
+            newEntry.setProperty("uploadUrl", uploadUrl);
+            newEntry.setProperty("acknowledgedRanges", "");
+            newEntry.setProperty("expirationDateTime",
+                Objects.requireNonNullElse(uploadSession.getExpirationDateTime(),
+                    OffsetDateTime.now().plusDays(1)).toString());
+            saveEntry(filePath, newEntry);
+        }
+    }
+
+    public synchronized void acknowledge(Path filePath, long start, long end) throws IOException {
+        final Properties entry = loadEntry(filePath);
+        if (null == entry) {
+            return;
+        }
+
+        final TreeMap<Long, Long> ranges = parseRanges(entry);
+        ranges.put(start, end);
+
+        // Merge adjacent and overlapping ranges so the entry stays small
+        final StringBuilder merged = new StringBuilder();
+        long mergedStart = -1;
+        long mergedEnd = -1;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (mergedStart >= 0 && range.getKey() <= mergedEnd + 1) {
+                mergedEnd = Math.max(mergedEnd, range.getValue());
+                continue;
+            }
+            if (mergedStart >= 0) {
+                merged.append(mergedStart).append('-').append(mergedEnd).append(',');
+            }
+            mergedStart = range.getKey();
+            mergedEnd = range.getValue();
+        }
+        merged.append(mergedStart).append('-').append(mergedEnd);
+
+        entry.setProperty("acknowledgedRanges", merged.toString());
+        saveEntry(filePath, entry);
+    }
+
+    public synchronized void complete(Path filePath) throws IOException {
+        Files.deleteIfExists(getJournalPath(filePath));
+    }
+
+    private Properties loadEntry(Path filePath) throws IOException {
+        final Path journalPath = getJournalPath(filePath);
+        if (!Files.exists(journalPath)) {
+            return null;
+        }
+        final Properties entry = new Properties();
+        try (InputStream input = Files.newInputStream(journalPath)) {
+            entry.load(input);
+        }
+        return entry;
+    }
+
+    private void saveEntry(Path filePath, Properties entry) throws IOException {
+        final Path journalPath = getJournalPath(filePath);
+        final Path tempPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            OutputStream output = Channels.newOutputStream(channel)) {
+            entry.store(output, null);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getJournalPath(Path filePath) {
+        final String key = sha256(filePath.toAbsolutePath().normalize().toString()
+            .getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(key.substring(0, 32) + ".upload");
+    }
+
+    private static Properties getFileIdentity(Path filePath) throws IOException {
+        final Properties identity = new Properties();
+        identity.setProperty("filePath", filePath.toAbsolutePath().normalize().toString());
+        identity.setProperty("fileSize", Long.toString(Files.size(filePath)));
+        identity.setProperty("lastModified",
+            Long.toString(Files.getLastModifiedTime(filePath).toMillis()));
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            final ByteBuffer firstBlock = ByteBuffer.allocate(
+                (int) Math.min(FIRST_BLOCK_SIZE, channel.size()));
+            while (firstBlock.hasRemaining() && channel.read(firstBlock) >= 0) {
+                // Keep reading until the block is full
+            }
+            identity.setProperty("firstBlockHash", sha256(firstBlock.array()));
+        }
+        return identity;
+    }
+
+    private static Properties getFileIdentity(Properties entry) {
+        final Properties identity = new Properties();
+        for (String name : new String[] {"filePath", "fileSize", "lastModified", "firstBlockHash"}) {
+            identity.setProperty(name, entry.getProperty(name, ""));
+        }
+        return identity;
+    }
+
+    private static TreeMap<Long, Long> parseRanges(Properties entry) {
+        final TreeMap<Long, Long> ranges = new TreeMap<>();
+        for (String range : entry.getProperty("acknowledgedRanges", "").split(",")) {
+            if (range.isBlank()) {
+                continue;
+            }
+            final String[] bounds = range.split("-");
+            ranges.merge(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]), Math::max);
+        }
+        return ranges;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
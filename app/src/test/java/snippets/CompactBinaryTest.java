@@ -0,0 +1,211 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.microsoft.graph.models.Attendee;
+import com.microsoft.graph.models.AttendeeType;
+import com.microsoft.graph.models.BodyType;
+import com.microsoft.graph.models.DateTimeTimeZone;
+import com.microsoft.graph.models.EmailAddress;
+import com.microsoft.graph.models.Event;
+import com.microsoft.graph.models.FreeBusyStatus;
+import com.microsoft.graph.models.Importance;
+import com.microsoft.graph.models.ItemBody;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.models.Recipient;
+import com.microsoft.kiota.serialization.AdditionalDataHolder;
+import com.microsoft.kiota.serialization.JsonSerializationWriter;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParseNode;
+import com.microsoft.kiota.serialization.SerializationWriter;
+
+public class CompactBinaryTest {
+    @Test
+    public void messageRoundTrip() throws IOException {
+        final Message message = createMessage();
+
+        final byte[] binary = CompactBinaryWriter.serialize(message);
+        final Message read = CompactBinaryParseNode.parse(binary,
+            Message::createFromDiscriminatorValue);
+
+        Assert.assertEquals("Quarterly report", read.getSubject());
+        Assert.assertEquals(OffsetDateTime.parse("2024-03-01T09:30:00Z"),
+            read.getReceivedDateTime());
+        Assert.assertEquals(Importance.High, read.getImportance());
+        Assert.assertEquals(BodyType.Html, read.getBody().getContentType());
+        Assert.assertEquals("alexw@contoso.com",
+            read.getToRecipients().get(1).getEmailAddress().getAddress());
+        Assert.assertEquals(List.of("Finance", "Reports"), read.getCategories());
+        Assert.assertEquals("custom value", read.getAdditionalData().get("customString"));
+        Assert.assertEquals(42, read.getAdditionalData().get("customNumber"));
+        Assert.assertEquals(Boolean.TRUE, read.getAdditionalData().get("customFlag"));
+        Assert.assertEquals(toJson(message), toJson(read));
+    }
+
+    @Test
+    public void eventRoundTrip() throws IOException {
+        final Event event = new Event();
+        event.setId("event-1");
+        event.setSubject("Weekly sync");
+        event.setIsAllDay(false);
+        event.setShowAs(FreeBusyStatus.Busy);
+        event.setReminderMinutesBeforeStart(15);
+        event.setStart(createDateTime("2024-03-04T09:00:00.0000000"));
+        event.setEnd(createDateTime("2024-03-04T09:30:00.0000000"));
+        final Attendee attendee = new Attendee();
+        attendee.setType(AttendeeType.Required);
+        attendee.setEmailAddress(createEmailAddress("Megan Bowen", "meganb@contoso.com"));
+        event.setAttendees(List.of(attendee));
+        event.getAdditionalData().put("@odata.etag", "W/\"DwAAABYAAAB\"");
+
+        final Event read = CompactBinaryParseNode.parse(CompactBinaryWriter.serialize(event),
+            Event::createFromDiscriminatorValue);
+
+        Assert.assertEquals(Integer.valueOf(15), read.getReminderMinutesBeforeStart());
+        Assert.assertEquals(FreeBusyStatus.Busy, read.getShowAs());
+        Assert.assertEquals("Pacific Standard Time", read.getEnd().getTimeZone());
+        Assert.assertEquals(AttendeeType.Required, read.getAttendees().get(0).getType());
+        Assert.assertEquals("W/\"DwAAABYAAAB\"", read.getAdditionalData().get("@odata.etag"));
+        Assert.assertEquals(toJson(event), toJson(read));
+    }
+
+    @Test
+    public void repeatedStringsAreWrittenOnce() {
+        final Message message = createMessage();
+        message.setCcRecipients(message.getToRecipients());
+        message.setReplyTo(message.getToRecipients());
+
+        final String binary = new String(CompactBinaryWriter.serialize(message),
+            StandardCharsets.ISO_8859_1);
+
+        Assert.assertTrue(binary.contains("meganb@contoso.com"));
+        Assert.assertEquals(binary.indexOf("meganb@contoso.com"),
+            binary.lastIndexOf("meganb@contoso.com"));
+        Assert.assertEquals(binary.indexOf("emailAddress"), binary.lastIndexOf("emailAddress"));
+    }
+
+    @Test
+    public void removedFieldsGoToAdditionalData() {
+        final byte[] binary = CompactBinaryWriter.serialize(createMessage());
+
+        final SubjectOnly read = CompactBinaryParseNode.parse(binary,
+            SubjectOnly::createFromDiscriminatorValue);
+
+        Assert.assertEquals("Quarterly report", read.subject);
+        Assert.assertEquals("message-1", read.getAdditionalData().get("id"));
+        Assert.assertEquals(Boolean.FALSE, read.getAdditionalData().get("isRead"));
+        Assert.assertEquals("custom value", read.getAdditionalData().get("customString"));
+        Assert.assertTrue(read.getAdditionalData().containsKey("toRecipients"));
+    }
+
+    @Test
+    public void fieldsMissingFromDataStayNull() {
+        final SubjectOnly written = new SubjectOnly();
+        written.subject = "Quarterly report";
+
+        final Message read = CompactBinaryParseNode.parse(CompactBinaryWriter.serialize(written),
+            Message::createFromDiscriminatorValue);
+
+        Assert.assertEquals("Quarterly report", read.getSubject());
+        Assert.assertNull(read.getId());
+        Assert.assertNull(read.getToRecipients());
+        Assert.assertTrue(read.getAdditionalData().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonIsRejected() {
+        CompactBinaryParseNode.parse("{\"id\":\"m1\"}".getBytes(StandardCharsets.UTF_8),
+            Message::createFromDiscriminatorValue);
+    }
+
+    private static Message createMessage() {
+        final Message message = new Message();
+        message.setId("message-1");
+        message.setSubject("Quarterly report");
+        message.setIsRead(false);
+        message.setImportance(Importance.High);
+        message.setReceivedDateTime(OffsetDateTime.parse("2024-03-01T09:30:00Z"));
+        final ItemBody body = new ItemBody();
+        body.setContentType(BodyType.Html);
+        body.setContent("<p>The numbers are in.</p>");
+        message.setBody(body);
+        message.setFrom(createRecipient("Adele Vance", "adelev@contoso.com"));
+        message.setToRecipients(List.of(createRecipient("Megan Bowen", "meganb@contoso.com"),
+            createRecipient("Alex Wilber", "alexw@contoso.com")));
+        message.setCategories(List.of("Finance", "Reports"));
+        message.getAdditionalData().put("customString", "custom value");
+        message.getAdditionalData().put("customNumber", 42);
+        message.getAdditionalData().put("customFlag", true);
+        return message;
+    }
+
+    private static Recipient createRecipient(String name, String address) {
+        final Recipient recipient = new Recipient();
+        recipient.setEmailAddress(createEmailAddress(name, address));
+        return recipient;
+    }
+
+    private static EmailAddress createEmailAddress(String name, String address) {
+        final EmailAddress emailAddress = new EmailAddress();
+        emailAddress.setName(name);
+        emailAddress.setAddress(address);
+        return emailAddress;
+    }
+
+    private static DateTimeTimeZone createDateTime(String dateTime) {
+        final DateTimeTimeZone value = new DateTimeTimeZone();
+        value.setDateTime(dateTime);
+        value.setTimeZone("Pacific Standard Time");
+        return value;
+    }
+
+    private static String toJson(Parsable value) throws IOException {
+        try (JsonSerializationWriter writer = new JsonSerializationWriter()) {
+            writer.writeObjectValue(null, value);
+            try (InputStream content = writer.getSerializedContent()) {
+                return new String(content.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // An older or trimmed-down version of a message model that only knows the subject
+    private static class SubjectOnly implements Parsable, AdditionalDataHolder {
+        private final Map<String, Object> additionalData = new HashMap<>();
+        private String subject;
+
+        private static SubjectOnly createFromDiscriminatorValue(ParseNode parseNode) {
+            return new SubjectOnly();
+        }
+
+        @Override
+        public Map<String, Object> getAdditionalData() {
+            return additionalData;
+        }
+
+        @Override
+        public Map<String, Consumer<ParseNode>> getFieldDeserializers() {
+            final HashMap<String, Consumer<ParseNode>> deserializers = new HashMap<>();
+            deserializers.put("subject", node -> subject = node.getStringValue());
+            return deserializers;
+        }
+
+        @Override
+        public void serialize(SerializationWriter writer) {
+            writer.writeStringValue("subject", subject);
+            writer.writeAdditionalData(additionalData);
+        }
+    }
+}
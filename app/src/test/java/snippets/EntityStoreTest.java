@@ -0,0 +1,227 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.microsoft.graph.models.Message;
+
+public class EntityStoreTest {
+    // Small segments, so a few hundred records span several mappings
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putUpdateAndRemove() throws IOException {
+        try (EntityStore store = new EntityStore(folder.newFolder().toPath(), SEGMENT_SIZE)) {
+            store.put("a", bytes("one"));
+            store.put("b", bytes("two"));
+            store.put("a", bytes("three"));
+            Assert.assertTrue(store.remove("b"));
+            Assert.assertFalse(store.remove("b"));
+
+            Assert.assertEquals("three", string(store.getBytes("a")));
+            Assert.assertNull(store.getBytes("b"));
+            Assert.assertFalse(store.contains("b"));
+            Assert.assertEquals(1, store.getStats().entries);
+        }
+    }
+
+    @Test
+    public void putAndGetMessage() throws IOException {
+        final Message message = new Message();
+        message.setId("m1");
+        message.setSubject("Quarterly report");
+        message.setIsRead(true);
+        try (EntityStore store = new EntityStore(folder.newFolder().toPath(), SEGMENT_SIZE)) {
+            store.put(message);
+
+            final Message stored = store.get("m1", Message::createFromDiscriminatorValue);
+            Assert.assertEquals("Quarterly report", stored.getSubject());
+            Assert.assertEquals(Boolean.TRUE, stored.getIsRead());
+        }
+    }
+
+    @Test
+    public void reopenLoadsSavedIndex() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 500; i++) {
+                store.put("id" + i, bytes("value" + i));
+            }
+            store.remove("id7");
+        }
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals(499, store.getStats().entries);
+            Assert.assertEquals("value499", string(store.getBytes("id499")));
+            Assert.assertNull(store.getBytes("id7"));
+        }
+    }
+
+    @Test
+    public void reopenReplaysLogWithoutIndex() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 500; i++) {
+                store.put("id" + i, bytes("value" + i));
+            }
+            store.put("id3", bytes("updated"));
+            store.remove("id7");
+        }
+        Files.delete(directory.resolve("entities.index"));
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            final EntityStore.StoreStats stats = store.getStats();
+            Assert.assertEquals(499, stats.entries);
+            Assert.assertEquals("updated", string(store.getBytes("id3")));
+            Assert.assertNull(store.getBytes("id7"));
+            Assert.assertTrue(stats.getGarbageRatio() > 0);
+        }
+    }
+
+    @Test
+    public void compactKeepsLiveRecordsInOrder() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 300; i++) {
+                store.put("id" + i, bytes("value" + i));
+            }
+            for (int i = 0; i < 300; i += 2) {
+                store.remove("id" + i);
+            }
+            store.put("id1", bytes("updated"));
+            store.compact();
+
+            final EntityStore.StoreStats stats = store.getStats();
+            Assert.assertEquals(150, stats.entries);
+            Assert.assertEquals(0, stats.getGarbageRatio(), 0);
+            Assert.assertEquals("updated", string(store.getBytes("id1")));
+            Assert.assertNull(store.getBytes("id0"));
+
+            final List<String> ids = new ArrayList<>();
+            store.forEach((id, payload) -> ids.add(id));
+            Assert.assertEquals(150, ids.size());
+            Assert.assertEquals("id3", ids.get(0));
+            Assert.assertEquals("id1", ids.get(ids.size() - 1));
+
+            store.put("after", bytes("compact"));
+        }
+        Assert.assertEquals(List.of("entities.2.log", "entities.index"), listFiles(directory));
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals(151, store.getStats().entries);
+            Assert.assertEquals("compact", string(store.getBytes("after")));
+            Assert.assertEquals("updated", string(store.getBytes("id1")));
+        }
+    }
+
+    @Test
+    public void clearRemovesEverything() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            store.put("a", bytes("one"));
+            store.clear();
+            Assert.assertEquals(0, store.getStats().entries);
+            Assert.assertNull(store.getBytes("a"));
+        }
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals(0, store.getStats().entries);
+        }
+    }
+
+    @Test
+    public void openIgnoresUncommittedGeneration() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            store.put("a", bytes("one"));
+        }
+        // What a crash in the middle of compact() leaves: a newer log whose
+        // header was never committed
+        Files.write(directory.resolve("entities.2.log"), new byte[SEGMENT_SIZE]);
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals("one", string(store.getBytes("a")));
+        }
+        Assert.assertEquals(List.of("entities.1.log", "entities.index"), listFiles(directory));
+    }
+
+    @Test
+    public void tornTailRecordEndsTheLog() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            store.put("a", bytes("first"));
+            store.put("b", bytes("second"));
+            store.put("c", bytes("torn-tail-payload"));
+        }
+        // Without the index the log is replayed, as after a crash before the
+        // index was saved; the last record only made it halfway to disk
+        Files.delete(directory.resolve("entities.index"));
+        final Path logPath = directory.resolve("entities.1.log");
+        final byte[] log = Files.readAllBytes(logPath);
+        final int payload = indexOf(log, bytes("torn-tail-payload"));
+        log[payload + 5] ^= 0x55;
+        Files.write(logPath, log);
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals(2, store.getStats().entries);
+            Assert.assertEquals("second", string(store.getBytes("b")));
+            Assert.assertNull(store.getBytes("c"));
+            store.put("d", bytes("after-crash"));
+        }
+
+        try (EntityStore store = new EntityStore(directory, SEGMENT_SIZE)) {
+            Assert.assertEquals(3, store.getStats().entries);
+            Assert.assertEquals("after-crash", string(store.getBytes("d")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordLargerThanSegmentIsRejected() throws IOException {
+        try (EntityStore store = new EntityStore(folder.newFolder().toPath(), SEGMENT_SIZE)) {
+            store.put("a", new byte[SEGMENT_SIZE]);
+        }
+    }
+
+    private static List<String> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        final ByteBuffer target = ByteBuffer.wrap(pattern);
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (ByteBuffer.wrap(data, i, pattern.length).equals(target)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("pattern not found");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
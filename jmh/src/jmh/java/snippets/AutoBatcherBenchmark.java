@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+// 32 threads each reading a message by id from a server with 10 ms latency,
+// sent on their own (maxDelayMillis = -1) or collected by AutoBatcher within
+// maxDelayMillis into /$batch calls. The batcher's statistics, including the
+// calls saved and the time requests waited for their batch, are printed after
+// each iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(32)
+public class AutoBatcherBenchmark {
+    @Param({"-1", "1", "5"})
+    public int maxDelayMillis;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private AutoBatcher autoBatcher;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(10);
+        server.start();
+        graphClient = server.createClient();
+        if (maxDelayMillis >= 0) {
+            autoBatcher = new AutoBatcher(graphClient, Duration.ofMillis(maxDelayMillis),
+                BatchExecutor.MAX_STEPS_PER_BATCH);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStats() {
+        System.out.printf("%n%d requests reached the server%s%n", server.getRequests(),
+            null == autoBatcher ? "" : ", " + autoBatcher.getStats());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (null != autoBatcher) {
+            autoBatcher.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public Message getMessageById() throws Exception {
+        if (null == autoBatcher) {
+            return graphClient.me().messages().byMessageId("message").get();
+        }
+        return autoBatcher.submit(
+            graphClient.me().messages().byMessageId("message").toGetRequestInformation(),
+            Message::createFromDiscriminatorValue).join();
+    }
+}
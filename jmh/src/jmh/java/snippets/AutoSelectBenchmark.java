@@ -0,0 +1,126 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.ByteArrayInputStream;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.authentication.AnonymousAuthenticationProvider;
+import com.microsoft.kiota.serialization.JsonParseNodeFactory;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Listing pages of 25 messages with 4000 character bodies and reading only the
+// subject and sender of each, with full entities and with AutoSelectHandler
+// selecting the properties read after profiling the first 3 calls. The bytes
+// sent by the server per call and the handler statistics are printed after
+// each iteration. decodePage only deserializes the page each mode receives,
+// without the network, to compare the time spent parsing.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AutoSelectBenchmark {
+    private static final int PAGE_SIZE = 25;
+
+    @Param({"fullEntities", "autoSelect"})
+    public String mode;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private AutoSelectHandler autoSelectHandler;
+    private final JsonParseNodeFactory parseNodeFactory = new JsonParseNodeFactory();
+    private byte[] page;
+    private long calls;
+    private long responseBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(0);
+        server.start();
+        server.setMessageBodySize(4000);
+        String url = server.getBaseUrl() + "/me/messages?$top=" + PAGE_SIZE;
+        if (mode.equals("fullEntities")) {
+            graphClient = server.createClient();
+        } else {
+            autoSelectHandler = new AutoSelectHandler();
+            graphClient = autoSelectHandler.createClient(new AnonymousAuthenticationProvider(),
+                GraphClientFactory.create().addInterceptor(autoSelectHandler).build());
+            graphClient.getRequestAdapter().setBaseUrl(server.getBaseUrl());
+            // Profiles the call site, the next call is selected
+            for (int i = 0; i < 4; i++) {
+                listSubjects();
+            }
+            url += "&$select=" + autoSelectHandler.getSelects().values().iterator().next();
+        }
+        try (Response response = new OkHttpClient().newCall(new Request.Builder().url(url).build())
+            .execute()) {
+            page = Objects.requireNonNull(response.body()).bytes();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        calls = 0;
+        responseBytes = server.getResponseBytes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStats() {
+        System.out.printf("%n%d bytes per call%n",
+            (server.getResponseBytes() - responseBytes) / Math.max(1, calls));
+        if (null != autoSelectHandler) {
+            System.out.printf("%s %s%n", autoSelectHandler.getStats(),
+                autoSelectHandler.getSelects().values());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public int listSubjects() {
+        calls++;
+        final MessageCollectionResponse page = graphClient.me().messages()
+            .get(requestConfiguration -> requestConfiguration.queryParameters.top = PAGE_SIZE);
+        int length = 0;
+        for (Message message : page.getValue()) {
+            length += message.getSubject().length()
+                + message.getFrom().getEmailAddress().getAddress().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int decodePage() {
+        final MessageCollectionResponse decoded = parseNodeFactory
+            .getParseNode("application/json", new ByteArrayInputStream(page))
+            .getObjectValue(MessageCollectionResponse::createFromDiscriminatorValue);
+        int length = 0;
+        for (Message message : decoded.getValue()) {
+            length += message.getSubject().length()
+                + message.getFrom().getEmailAddress().getAddress().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,107 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.microsoft.graph.core.content.BatchRequestContent;
+import com.microsoft.graph.core.content.BatchResponseContent;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Serializing a $batch request and deserializing its responses for 1 to 20
+// steps, the maximum Graph accepts in one batch
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchContentBenchmark {
+    @Param({"1", "5", "10", "20"})
+    public int steps;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private final List<RequestInformation> requests = new ArrayList<>();
+    private final List<String> responseIds = new ArrayList<>();
+    private String responseJson;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(0);
+        server.start();
+        graphClient = server.createClient();
+
+        final StringBuilder json = new StringBuilder("{\"responses\":[");
+        for (int i = 0; i < steps; i++) {
+            requests.add(graphClient.me().messages().byMessageId("message-" + i)
+                .toGetRequestInformation(requestConfiguration -> {
+                    requestConfiguration.queryParameters.select = new String[] {"subject"};
+                }));
+
+            final String id = Integer.toString(i + 1);
+            responseIds.add(id);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(id).append("\",\"status\":200,")
+                .append("\"headers\":{\"Content-Type\":\"application/json\"},\"body\":")
+                .append(StubGraphServer.getMessageJson("message-" + i)).append('}');
+        }
+        responseJson = json.append("]}").toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void serializeRequestContent(Blackhole blackhole) throws IOException {
+        final BatchRequestContent batchRequestContent = new BatchRequestContent(graphClient);
+        for (RequestInformation request : requests) {
+            blackhole.consume(batchRequestContent.addBatchRequestStep(request));
+        }
+        try (InputStream content = batchRequestContent.getBatchRequestContent()) {
+            blackhole.consume(content.readAllBytes());
+        }
+    }
+
+    @Benchmark
+    public void getResponseById(Blackhole blackhole) {
+        final Response response = new Response.Builder()
+            .request(new Request.Builder().url(server.getBaseUrl() + "/$batch").build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(ResponseBody.create(responseJson, MediaType.get("application/json")))
+            .build();
+        final BatchResponseContent batchResponseContent = new BatchResponseContent(response);
+        for (String id : responseIds) {
+            final Message message = batchResponseContent.getResponseById(id,
+                Message::createFromDiscriminatorValue);
+            blackhole.consume(message);
+        }
+    }
+}
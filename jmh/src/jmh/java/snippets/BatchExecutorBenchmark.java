@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+// Fetching 100 messages by id one request at a time, and through
+// BatchExecutor with one or more batches in flight, from a server with 5 ms
+// latency
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchExecutorBenchmark {
+    private static final int MESSAGES = 100;
+
+    @Param({"1", "4"})
+    public int maxConcurrentBatches;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(5);
+        server.start();
+        graphClient = server.createClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void sequentialRequests(Blackhole blackhole) {
+        for (int i = 0; i < MESSAGES; i++) {
+            blackhole.consume(graphClient.me().messages().byMessageId("message-" + i)
+                .get(requestConfiguration -> {
+                    requestConfiguration.queryParameters.select = new String[] {"subject"};
+                }));
+        }
+    }
+
+    @Benchmark
+    public void batchExecutor(Blackhole blackhole) throws Exception {
+        final BatchExecutor batchExecutor = new BatchExecutor(graphClient, maxConcurrentBatches);
+        for (int i = 0; i < MESSAGES; i++) {
+            batchExecutor.addBatchRequestStep(graphClient.me().messages()
+                .byMessageId("message-" + i)
+                .toGetRequestInformation(requestConfiguration -> {
+                    requestConfiguration.queryParameters.select = new String[] {"subject"};
+                }));
+        }
+        blackhole.consume(batchExecutor.execute());
+    }
+}
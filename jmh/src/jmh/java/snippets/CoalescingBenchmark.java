@@ -0,0 +1,79 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.User;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+// 32 threads calling graphClient.me().get() at once against a server with
+// 5 ms latency, with and without CoalescingHandler. The number of requests
+// that reached the server and the handler's dedupe ratio are printed after
+// each iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class CoalescingBenchmark {
+    @Param({"off", "on"})
+    public String coalescing;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private CoalescingHandler coalescingHandler;
+    private long requestsAtStart;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(5);
+        server.start();
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(64);
+        final OkHttpClient.Builder builder = GraphClientFactory.create().dispatcher(dispatcher);
+        if (coalescing.equals("on")) {
+            coalescingHandler = new CoalescingHandler();
+            builder.addInterceptor(coalescingHandler);
+        }
+        graphClient = server.createClient(builder.build());
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        requestsAtStart = server.getRequests();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printRequests() {
+        System.out.printf("%n%d requests reached the server%s%n",
+            server.getRequests() - requestsAtStart,
+            null == coalescingHandler ? "" : ", " + coalescingHandler.getStats());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public User getMe() {
+        return graphClient.me().get();
+    }
+}
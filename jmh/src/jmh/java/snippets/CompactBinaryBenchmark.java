@@ -0,0 +1,165 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.microsoft.graph.models.DriveItemCollectionResponse;
+import com.microsoft.graph.models.EventCollectionResponse;
+import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.UserCollectionResponse;
+import com.microsoft.kiota.serialization.JsonParseNodeFactory;
+import com.microsoft.kiota.serialization.JsonSerializationWriter;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
+
+// Encoding and decoding a page of 100 messages, events, users or drive items
+// as JSON and with CompactBinaryWriter and CompactBinaryParseNode. The sizes
+// of both forms, and whether the binary form reads back to the same JSON, are
+// printed in setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompactBinaryBenchmark {
+    private static final int ITEMS = 100;
+
+    @Param({"messages", "events", "users", "driveItems"})
+    public String model;
+
+    private final JsonParseNodeFactory jsonParseNodeFactory = new JsonParseNodeFactory();
+    private ParsableFactory<? extends Parsable> factory;
+    private Parsable page;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (model) {
+            case "messages":
+                factory = MessageCollectionResponse::createFromDiscriminatorValue;
+                json = getPageJson(i -> StubGraphServer.getMessageJson("message-" + i));
+                break;
+            case "events":
+                factory = EventCollectionResponse::createFromDiscriminatorValue;
+                json = getPageJson(CompactBinaryBenchmark::getEventJson);
+                break;
+            case "users":
+                factory = UserCollectionResponse::createFromDiscriminatorValue;
+                json = getPageJson(CompactBinaryBenchmark::getUserJson);
+                break;
+            default:
+                factory = DriveItemCollectionResponse::createFromDiscriminatorValue;
+                json = getPageJson(CompactBinaryBenchmark::getDriveItemJson);
+                break;
+        }
+        page = jsonDecode();
+        json = jsonEncode();
+        binary = binaryEncode();
+        final boolean roundTrip = Arrays.equals(json, toJson(binaryDecode()));
+        System.out.printf("%njson=%d bytes binary=%d bytes (%.0f%%) roundTrip=%b%n", json.length,
+            binary.length, 100.0 * binary.length / json.length, roundTrip);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() throws IOException {
+        return toJson(page);
+    }
+
+    @Benchmark
+    public Parsable jsonDecode() {
+        return jsonParseNodeFactory.getParseNode("application/json", new ByteArrayInputStream(json))
+            .getObjectValue(factory);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return CompactBinaryWriter.serialize(page);
+    }
+
+    @Benchmark
+    public Parsable binaryDecode() {
+        return CompactBinaryParseNode.parse(binary, factory);
+    }
+
+    private static byte[] toJson(Parsable value) throws IOException {
+        try (JsonSerializationWriter writer = new JsonSerializationWriter()) {
+            writer.writeObjectValue(null, value);
+            return writer.getSerializedContent().readAllBytes();
+        }
+    }
+
+    private static byte[] getPageJson(IntFunction<String> itemJson) {
+        final StringBuilder body = new StringBuilder("{\"@odata.context\":"
+            + "\"https://graph.microsoft.com/v1.0/$metadata#collection\",\"value\":[");
+        for (int i = 0; i < ITEMS; i++) {
+            body.append(i == 0 ? "" : ",").append(itemJson.apply(i));
+        }
+        return body.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String getEventJson(int index) {
+        final StringBuilder attendees = new StringBuilder();
+        final String[][] people = {{"Megan Bowen", "meganb"}, {"Alex Wilber", "alexw"},
+            {"Lynne Robbins", "lynner"}};
+        for (String[] person : people) {
+            attendees.append(attendees.length() == 0 ? "" : ",").append(String.format(
+                "{\"type\":\"required\",\"status\":{\"response\":\"accepted\","
+                + "\"time\":\"2024-03-01T10:00:00Z\"},\"emailAddress\":{\"name\":\"%s\","
+                + "\"address\":\"%s@contoso.com\"}}", person[0], person[1]));
+        }
+        return String.format("{\"@odata.etag\":\"W/\\\"DwAAABYAAAB%06d\\\"\",\"id\":\"event-%d\","
+            + "\"subject\":\"Weekly sync %d\",\"isAllDay\":false,\"showAs\":\"busy\","
+            + "\"reminderMinutesBeforeStart\":15,"
+            + "\"start\":{\"dateTime\":\"2024-03-04T09:00:00.0000000\","
+            + "\"timeZone\":\"Pacific Standard Time\"},"
+            + "\"end\":{\"dateTime\":\"2024-03-04T09:30:00.0000000\","
+            + "\"timeZone\":\"Pacific Standard Time\"},"
+            + "\"location\":{\"displayName\":\"Conf Room Baker\"},"
+            + "\"organizer\":{\"emailAddress\":{\"name\":\"Adele Vance\","
+            + "\"address\":\"adelev@contoso.com\"}},\"attendees\":[%s]}",
+            index, index, index, attendees);
+    }
+
+    private static String getUserJson(int index) {
+        return String.format("{\"id\":\"%08d-0000-4000-8000-000000000000\","
+            + "\"displayName\":\"User %d\",\"givenName\":\"User\",\"surname\":\"%d\","
+            + "\"mail\":\"user%d@contoso.com\",\"userPrincipalName\":\"user%d@contoso.com\","
+            + "\"jobTitle\":\"Marketing Assistant\",\"officeLocation\":\"131/1104\","
+            + "\"preferredLanguage\":\"en-US\",\"businessPhones\":[\"+1 425 555 0109\"],"
+            + "\"accountEnabled\":true,\"createdDateTime\":\"2022-05-%02dT08:15:00Z\"}",
+            index, index, index, index, index, 1 + index % 28);
+    }
+
+    private static String getDriveItemJson(int index) {
+        return String.format("{\"@microsoft.graph.downloadUrl\":"
+            + "\"https://contoso.sharepoint.com/_layouts/15/download.aspx?UniqueId=%d\","
+            + "\"id\":\"01BYE5RZ%018d\",\"name\":\"Report %d.docx\",\"size\":%d,"
+            + "\"createdDateTime\":\"2023-11-02T16:04:11Z\","
+            + "\"lastModifiedDateTime\":\"2024-02-%02dT11:42:37Z\","
+            + "\"webUrl\":\"https://contoso.sharepoint.com/Shared%%20Documents/Report%%20%d.docx\","
+            + "\"createdBy\":{\"user\":{\"displayName\":\"Adele Vance\","
+            + "\"id\":\"87d349ed-44d7-43e1-9a83-5f2406dee5bd\"}},"
+            + "\"parentReference\":{\"driveType\":\"business\","
+            + "\"driveId\":\"b!CbtYWrofwUGBJWnaJkNwoNrBLp_kC3RKklSXPwrdeP3yH8_qmH9xT5Y6RODPNfYu\","
+            + "\"id\":\"01BYE5RZ56Y2GOVW7725BZO354PWSELRRZ\",\"path\":\"/drive/root:/Documents\"},"
+            + "\"file\":{\"mimeType\":\"application/vnd.openxmlformats-officedocument"
+            + ".wordprocessingml.document\",\"hashes\":{\"quickXorHash\":\"%s\"}}}",
+            index, index, index, 18000 + index * 37, 1 + index % 28, index,
+            String.format("%027dA=", index));
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestInformation;
+
+// Keeping a local copy of a folder of messageCount messages up to date, with
+// 10 changes between syncs and 2 ms latency: re-reading every message with
+// StreamingPageReader, a full delta sync, and an incremental delta sync from
+// the saved deltaLink. The response bytes read by the last sync of each
+// iteration are printed after it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeltaSyncBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "10000"})
+    public int messageCount;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private Path checkpointDirectory;
+    private DeltaSyncEngine<Message> syncEngine;
+    private final Map<String, Message> messages = new HashMap<>();
+    private long lastBytesRead;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(2);
+        server.start();
+        server.setDeltaFolder(messageCount, 10);
+        graphClient = server.createClient();
+        checkpointDirectory = Files.createTempDirectory("delta-benchmark");
+        syncEngine = new DeltaSyncEngine<>(graphClient,
+            () -> graphClient.me().mailFolders().byMailFolderId("inbox").messages().delta()
+                .toGetRequestInformation(requestConfiguration -> {
+                    requestConfiguration.headers.add("Prefer", "odata.maxpagesize=" + PAGE_SIZE);
+                }),
+            Message::createFromDiscriminatorValue, checkpointDirectory.resolve("inbox.delta"),
+            requestInfo -> {
+                requestInfo.headers.add("Prefer", "odata.maxpagesize=" + PAGE_SIZE);
+                return requestInfo;
+            });
+        syncEngine.sync(new DeltaSyncEngine.MapChangeHandler<>(messages));
+    }
+
+    @TearDown(Level.Iteration)
+    public void printBytesRead() {
+        System.out.printf("%n%d bytes read per sync%n", lastBytesRead);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+        syncEngine.reset();
+        Files.deleteIfExists(checkpointDirectory);
+    }
+
+    @Benchmark
+    public int fullReread() throws Exception {
+        final RequestInformation messagesRequest = new RequestInformation();
+        messagesRequest.httpMethod = HttpMethod.GET;
+        messagesRequest.urlTemplate = String.format("%s/me/messages?%%24top=%d&pages=%d",
+            server.getBaseUrl(), PAGE_SIZE, messageCount / PAGE_SIZE);
+
+        messages.clear();
+        try (StreamingPageReader<Message> pageReader = new StreamingPageReader.Builder<Message>()
+            .client(graphClient)
+            .requestInformation(messagesRequest)
+            .entityFactory(Message::createFromDiscriminatorValue)
+            .processPageItemCallback(message -> {
+                messages.put(message.getId(), message);
+                return true;
+            }).build()) {
+            pageReader.iterate();
+            lastBytesRead = pageReader.getBytesRead();
+        }
+        return messages.size();
+    }
+
+    @Benchmark
+    public int fullDeltaSync() throws Exception {
+        syncEngine.reset();
+        messages.clear();
+        lastBytesRead = syncEngine.sync(new DeltaSyncEngine.MapChangeHandler<>(messages))
+            .bytesRead;
+        return messages.size();
+    }
+
+    @Benchmark
+    public int incrementalDeltaSync() throws Exception {
+        lastBytesRead = syncEngine.sync(new DeltaSyncEngine.MapChangeHandler<>(messages))
+            .bytesRead;
+        return messages.size();
+    }
+}
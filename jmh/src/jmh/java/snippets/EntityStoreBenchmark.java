@@ -0,0 +1,89 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.models.Message;
+
+// An EntityStore of 200000 messages: point lookups of the stored bytes and
+// of a parsed Message, a scan of every payload, and closing and reopening the
+// store with its saved index
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntityStoreBenchmark {
+    private static final int MESSAGES = 200000;
+
+    private Path directory;
+    private EntityStore store;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("entity-store");
+        store = new EntityStore(directory);
+        for (int i = 0; i < MESSAGES; i++) {
+            final String id = "message-" + i;
+            store.put(id, StubGraphServer.getMessageJson(id).getBytes(StandardCharsets.UTF_8));
+        }
+        store.flush();
+        System.out.printf("%n%s%n", store.getStats());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] pointLookupBytes() {
+        return store.getBytes("message-" + ThreadLocalRandom.current().nextInt(MESSAGES));
+    }
+
+    @Benchmark
+    public Message pointLookupParsed() {
+        return store.get("message-" + ThreadLocalRandom.current().nextInt(MESSAGES),
+            Message::createFromDiscriminatorValue);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long fullScan() {
+        final long[] bytes = {0};
+        store.forEach((id, payload) -> {
+            bytes[0] += payload.remaining();
+            return true;
+        });
+        return bytes[0];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public EntityStore.StoreStats reopen() throws IOException {
+        store.close();
+        store = new EntityStore(directory);
+        return store.getStats();
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+// Listing the messages of 1000 users from a server with 20 ms latency, with
+// FanOutExecutor, with AsyncGraphClient and with a fixed pool of platform
+// threads of the same size as the concurrency limit, over HTTP/1.1 and over
+// HTTP/2 as Graph is reached
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FanOutBenchmark {
+    private static final int USERS = 1000;
+
+    @Param({"16", "64", "256"})
+    public int concurrency;
+
+    @Param({"http1.1", "h2"})
+    public String protocol;
+
+    private AutoCloseable server;
+    private GraphServiceClient graphClient;
+    private AsyncGraphClient asyncClient;
+    private final List<String> userIds = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        final OkHttpClient.Builder httpClientBuilder = GraphClientFactory.create()
+            .connectionPool(new ConnectionPool(concurrency, 5, TimeUnit.MINUTES));
+        if (protocol.equals("h2")) {
+            final OkHttpClient httpClient = httpClientBuilder
+                .protocols(Http2StubServer.PROTOCOLS).build();
+            final Http2StubServer http2Server = new Http2StubServer(20);
+            http2Server.start();
+            graphClient = http2Server.createClient(httpClient);
+            asyncClient = new AsyncGraphClient(graphClient, httpClient, concurrency);
+            server = http2Server;
+        } else {
+            final OkHttpClient httpClient = httpClientBuilder.build();
+            final StubGraphServer http1Server = new StubGraphServer(20);
+            http1Server.start();
+            graphClient = http1Server.createClient(httpClient);
+            asyncClient = new AsyncGraphClient(graphClient, httpClient, concurrency);
+            server = http1Server;
+        }
+        for (int i = 0; i < USERS; i++) {
+            userIds.add("user-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        asyncClient.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void fanOutExecutor(Blackhole blackhole) throws Exception {
+        final FanOutExecutor fanOutExecutor = new FanOutExecutor(concurrency, concurrency);
+        for (FanOutExecutor.FanOutResult<MessageCollectionResponse> result : fanOutExecutor
+            .map("/users/{id}/messages", userIds, this::getMessages)) {
+            blackhole.consume(result.getValue());
+        }
+    }
+
+    @Benchmark
+    public void fixedThreadPool(Blackhole blackhole) throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            final List<Future<MessageCollectionResponse>> futures = new ArrayList<>(USERS);
+            for (String userId : userIds) {
+                futures.add(executor.submit(() -> getMessages(userId)));
+            }
+            for (Future<MessageCollectionResponse> future : futures) {
+                blackhole.consume(future.get());
+            }
+        }
+    }
+
+    @Benchmark
+    public void asyncGraphClient(Blackhole blackhole) {
+        final List<CompletableFuture<MessageCollectionResponse>> futures = new ArrayList<>(USERS);
+        for (String userId : userIds) {
+            futures.add(asyncClient.send(graphClient.users().byUserId(userId).messages()
+                .toGetRequestInformation(requestConfiguration -> {
+                    requestConfiguration.queryParameters.top = 1;
+                }), MessageCollectionResponse::createFromDiscriminatorValue));
+        }
+        for (CompletableFuture<MessageCollectionResponse> future : futures) {
+            blackhole.consume(future.join());
+        }
+    }
+
+    private MessageCollectionResponse getMessages(String userId) {
+        return graphClient.users().byUserId(userId).messages().get(requestConfiguration -> {
+            requestConfiguration.queryParameters.top = 1;
+        });
+    }
+}
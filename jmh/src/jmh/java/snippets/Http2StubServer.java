@@ -0,0 +1,132 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.authentication.AnonymousAuthenticationProvider;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.util.ReferenceCountUtil;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+// A Graph stand-in that speaks HTTP/2 without TLS (h2c with prior knowledge),
+// as graph.microsoft.com is reached over HTTP/2. StubGraphServer only speaks
+// HTTP/1.1, where OkHttp reads responses on the calling thread and never
+// waits on a monitor. Every GET is answered with a one message collection
+// after latencyMillis, without holding a thread while it waits. Create the
+// server, then call start().
+public class Http2StubServer implements AutoCloseable {
+    public static final List<Protocol> PROTOCOLS = List.of(Protocol.H2_PRIOR_KNOWLEDGE);
+
+    private final long latencyMillis;
+    private final NioEventLoopGroup group = new NioEventLoopGroup(2);
+    private final byte[] body = ("{\"value\":[" + StubGraphServer.getMessageJson("m1") + "]}")
+        .getBytes(StandardCharsets.UTF_8);
+    private Channel channel;
+
+    public Http2StubServer(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void start() throws InterruptedException {
+        channel = new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel socket) {
+                    socket.pipeline().addLast(Http2FrameCodecBuilder.forServer()
+                        .initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(1000))
+                        .build());
+                    socket.pipeline().addLast(new Http2MultiplexHandler(
+                        new ChannelInitializer<Http2StreamChannel>() {
+                            @Override
+                            protected void initChannel(Http2StreamChannel stream) {
+                                stream.pipeline().addLast(new StreamHandler());
+                            }
+                        }));
+                }
+            })
+            .bind(new InetSocketAddress("127.0.0.1", 0))
+            .sync()
+            .channel();
+    }
+
+    public String getBaseUrl() {
+        return String.format("http://127.0.0.1:%d/v1.0",
+            ((InetSocketAddress) channel.localAddress()).getPort());
+    }
+
+    // httpClient must be built with PROTOCOLS, the server does not negotiate
+    public GraphServiceClient createClient(OkHttpClient httpClient) {
+        final GraphServiceClient graphClient = new GraphServiceClient(
+            new AnonymousAuthenticationProvider(), httpClient);
+        graphClient.getRequestAdapter().setBaseUrl(getBaseUrl());
+        return graphClient;
+    }
+
+    public GraphServiceClient createClient() {
+        return createClient(GraphClientFactory.create().protocols(PROTOCOLS).build());
+    }
+
+    @Override
+    public void close() {
+        if (null != channel) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private class StreamHandler extends SimpleChannelInboundHandler<Http2StreamFrame> {
+        private StreamHandler() {
+            super(false);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Http2StreamFrame frame) {
+            // Request bodies are read and dropped, the reply follows the last frame
+            final boolean endStream = frame instanceof Http2HeadersFrame
+                ? ((Http2HeadersFrame) frame).isEndStream()
+                : frame instanceof Http2DataFrame && ((Http2DataFrame) frame).isEndStream();
+            ReferenceCountUtil.release(frame);
+            if (endStream) {
+                ctx.executor().schedule(() -> reply(ctx), latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void reply(ChannelHandlerContext ctx) {
+            ctx.write(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+                .status("200")
+                .set("content-type", "application/json")
+                .setInt("content-length", body.length)));
+            ctx.writeAndFlush(new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(body), true));
+        }
+    }
+}
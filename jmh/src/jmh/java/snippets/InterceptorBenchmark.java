@@ -0,0 +1,81 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+// Overhead of the snippets' interceptors on a small JSON POST, compared with
+// the default Graph middleware alone. DebugHandler writes to a discarding
+// stream so only the handler's own work is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InterceptorBenchmark {
+    @Param({"none", "debug-NONE", "debug-BASIC", "debug-HEADERS", "debug-BODY", "metrics"})
+    public String interceptor;
+
+    private StubGraphServer server;
+    private OkHttpClient httpClient;
+    private DebugHandler debugHandler;
+    private String url;
+    private final RequestBody body = RequestBody.create(
+        "{\"subject\":\"Let's go for lunch\",\"body\":{\"contentType\":\"text\",\"content\":\"Does noon work for you?\"}}",
+        MediaType.get("application/json"));
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(0);
+        server.start();
+        url = server.getBaseUrl() + "/me/events";
+
+        final OkHttpClient.Builder builder = GraphClientFactory.create();
+        if (interceptor.startsWith("debug-")) {
+            final DebugHandler.Level level = DebugHandler.Level.valueOf(
+                interceptor.substring("debug-".length()));
+            debugHandler = new DebugHandler(level, 1.0, 64 * 1024,
+                new PrintStream(OutputStream.nullOutputStream()), 4096);
+            builder.addInterceptor(debugHandler);
+        } else if (interceptor.equals("metrics")) {
+            builder.addInterceptor(new MetricsHandler());
+        }
+        httpClient = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (null != debugHandler) {
+            debugHandler.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public int post() throws IOException {
+        final Request request = new Request.Builder().url(url).post(body).build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            return response.body().bytes().length;
+        }
+    }
+}
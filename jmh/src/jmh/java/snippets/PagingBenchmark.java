@@ -0,0 +1,159 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.core.tasks.PageIterator;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.OkHttpClient;
+
+// Reading 10 pages of messages from a server with 2 ms latency with the SDK's
+// PageIterator, PrefetchingPageIterator, StreamingPageReader and a
+// PagePublisher subscriber requesting a page of items at a time. workPerItem
+// simulates the callback's own processing time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PagingBenchmark {
+    @Param({"10", "100"})
+    public int pageSize;
+
+    @Param({"0", "5000"})
+    public int workPerItem;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private AsyncGraphClient asyncClient;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(2);
+        server.start();
+        final OkHttpClient httpClient = GraphClientFactory.create().build();
+        graphClient = server.createClient(httpClient);
+        asyncClient = new AsyncGraphClient(graphClient, httpClient);
+    }
+
+    @TearDown
+    public void tearDown() {
+        asyncClient.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void pageIterator(Blackhole blackhole) throws ReflectiveOperationException {
+        final PageIterator<Message, MessageCollectionResponse> pageIterator =
+            new PageIterator.Builder<Message, MessageCollectionResponse>()
+            .client(graphClient)
+            .collectionPage(getFirstPage())
+            .collectionPageFactory(MessageCollectionResponse::createFromDiscriminatorValue)
+            .processPageItemCallback(message -> process(blackhole, message))
+            .build();
+        pageIterator.iterate();
+    }
+
+    @Benchmark
+    public void prefetchingPageIterator(Blackhole blackhole)
+        throws ReflectiveOperationException, InterruptedException {
+        try (PrefetchingPageIterator<Message, MessageCollectionResponse> pageIterator =
+            new PrefetchingPageIterator.Builder<Message, MessageCollectionResponse>()
+            .client(graphClient)
+            .collectionPage(getFirstPage())
+            .collectionPageFactory(MessageCollectionResponse::createFromDiscriminatorValue)
+            .processPageItemCallback(message -> process(blackhole, message))
+            .build()) {
+            pageIterator.iterate();
+        }
+    }
+
+    @Benchmark
+    public void streamingPageReader(Blackhole blackhole) throws Exception {
+        try (StreamingPageReader<Message> pageReader = new StreamingPageReader.Builder<Message>()
+            .client(graphClient)
+            .requestInformation(graphClient.me().messages().toGetRequestInformation(
+                requestConfiguration -> {
+                    requestConfiguration.queryParameters.top = pageSize;
+                }))
+            .entityFactory(Message::createFromDiscriminatorValue)
+            .processPageItemCallback(message -> process(blackhole, message))
+            .build()) {
+            pageReader.iterate();
+        }
+    }
+
+    @Benchmark
+    public void pagePublisher(Blackhole blackhole) {
+        final PagePublisher<Message, MessageCollectionResponse> publisher =
+            new PagePublisher.Builder<Message, MessageCollectionResponse>()
+            .asyncClient(asyncClient)
+            .requestInformation(graphClient.me().messages().toGetRequestInformation(
+                requestConfiguration -> {
+                    requestConfiguration.queryParameters.top = pageSize;
+                }))
+            .collectionPageFactory(MessageCollectionResponse::createFromDiscriminatorValue)
+            .build();
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<Message>() {
+            private Flow.Subscription subscription;
+            private int received;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(pageSize);
+            }
+
+            @Override
+            public void onNext(Message message) {
+                process(blackhole, message);
+                if (++received % pageSize == 0) {
+                    subscription.request(pageSize);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.join();
+    }
+
+    private MessageCollectionResponse getFirstPage() {
+        return Objects.requireNonNull(graphClient.me().messages().get(requestConfiguration -> {
+            requestConfiguration.queryParameters.top = pageSize;
+        }));
+    }
+
+    private boolean process(Blackhole blackhole, Message message) {
+        blackhole.consume(message.getSubject());
+        Blackhole.consumeCPU(workPerItem);
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.core.models.UploadResult;
+import com.microsoft.graph.models.DriveItem;
+import com.microsoft.graph.models.UploadSession;
+
+// Uploading the same 16 MiB file as UploadBenchmark with ParallelFileUpload,
+// to a new session that expects the whole file as one range and to a resumed
+// one that expects 4 disjoint ranges. Slices of one range are sent in order,
+// so only the second can have several slices in flight.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelUploadBenchmark {
+    @Param({"1", "4"})
+    public int maxConcurrentSlices;
+
+    @Param({"1", "4"})
+    public int ranges;
+
+    private StubGraphServer server;
+    private ParallelFileUpload parallelFileUpload;
+    private Path file;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(2);
+        server.start();
+        parallelFileUpload = new ParallelFileUpload(maxConcurrentSlices, 3);
+        file = UploadBenchmark.createFile();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UploadResult<DriveItem> parallelFileUpload() throws Exception {
+        final UploadSession uploadSession = UploadBenchmark.createUploadSession(server,
+            "parallel-upload");
+        if (ranges > 1) {
+            final List<String> nextExpectedRanges = new ArrayList<>();
+            final long rangeSize = UploadBenchmark.FILE_SIZE / ranges;
+            for (int i = 0; i < ranges; i++) {
+                nextExpectedRanges.add(i == ranges - 1
+                    ? (i * rangeSize) + "-"
+                    : (i * rangeSize) + "-" + ((i + 1) * rangeSize - 1));
+            }
+            uploadSession.setUploadUrl(server.getUploadUrl("parallel-upload", nextExpectedRanges));
+            uploadSession.setNextExpectedRanges(nextExpectedRanges);
+        }
+        return parallelFileUpload.upload(uploadSession, file,
+            DriveItem::createFromDiscriminatorValue, null);
+    }
+}
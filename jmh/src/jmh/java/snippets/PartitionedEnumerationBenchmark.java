@@ -0,0 +1,104 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.microsoft.graph.core.tasks.PageIterator;
+import com.microsoft.graph.models.User;
+import com.microsoft.graph.models.UserCollectionResponse;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+
+// Listing 10000 users, 100 per page, from a server with 20 ms latency: one
+// nextLink chain with PageIterator, and PartitionedEnumerator starting from 4
+// createdDateTime ranges that are split further when they hold more than a
+// page. Users are unevenly spread over the ranges. The enumerator's stats are
+// printed after each iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PartitionedEnumerationBenchmark {
+    @Param({"1", "4", "16"})
+    public int parallelism;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private PartitionedEnumerator<User, UserCollectionResponse> enumerator;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(20);
+        server.start();
+        server.setUserDirectory(10000);
+        graphClient = server.createClient();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        enumerator = new PartitionedEnumerator<>(graphClient,
+            UserCollectionResponse::createFromDiscriminatorValue, parallelism);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStats() {
+        System.out.printf("%n%s%n", enumerator.getStats());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void singleChain(Blackhole blackhole) throws ReflectiveOperationException {
+        final PageIterator<User, UserCollectionResponse> pageIterator =
+            new PageIterator.Builder<User, UserCollectionResponse>()
+            .client(graphClient)
+            .collectionPage(Objects.requireNonNull(graphClient.users().get(requestConfiguration -> {
+                requestConfiguration.queryParameters.top = 100;
+            })))
+            .collectionPageFactory(UserCollectionResponse::createFromDiscriminatorValue)
+            .processPageItemCallback(user -> {
+                blackhole.consume(user.getDisplayName());
+                return true;
+            })
+            .build();
+        pageIterator.iterate();
+    }
+
+    @Benchmark
+    public void partitioned(Blackhole blackhole) {
+        final List<PartitionedEnumerator.Partition> partitions =
+            PartitionedEnumerator.DateRangePartition.divide(this::getUsersRequest,
+                "createdDateTime", StubGraphServer.USERS_FROM, StubGraphServer.USERS_TO, 4,
+                Duration.ofDays(1));
+        try (Stream<User> users = enumerator.stream(partitions)) {
+            users.forEach(user -> blackhole.consume(user.getDisplayName()));
+        }
+    }
+
+    private RequestInformation getUsersRequest(String filter) {
+        return graphClient.users().toGetRequestInformation(requestConfiguration -> {
+            requestConfiguration.queryParameters.filter = filter;
+            requestConfiguration.queryParameters.top = 100;
+        });
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.User;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+import okhttp3.OkHttpClient;
+
+// 16 threads calling GET /me against a stub that allows 200 requests per
+// second, with only the SDK's RetryHandler, and with AdaptiveRateLimitHandler
+// pacing the calls. The score is completed calls per second, the number of
+// 429s the stub sent is printed after each iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class RateLimitBenchmark {
+    private static final int QUOTA_PER_SECOND = 200;
+
+    @Param({"none", "adaptive"})
+    public String rateLimiter;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private AdaptiveRateLimitHandler rateLimitHandler;
+    private long requestsAtStart;
+    private long throttledAtStart;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(5);
+        server.start();
+        server.setQuota(QUOTA_PER_SECOND);
+
+        final OkHttpClient.Builder builder = GraphClientFactory.create();
+        if (rateLimiter.equals("adaptive")) {
+            rateLimitHandler = new AdaptiveRateLimitHandler(50, 1, 1000, 20);
+            builder.addInterceptor(rateLimitHandler);
+        }
+        graphClient = server.createClient(builder.build());
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        requestsAtStart = server.getRequests();
+        throttledAtStart = server.getThrottledRequests();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        System.out.printf(" [%d of %d requests throttled%s]", server.getThrottledRequests()
+            - throttledAtStart, server.getRequests() - requestsAtStart,
+            null == rateLimitHandler ? "" : ", " + rateLimitHandler.getSnapshot());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public User getMe() {
+        return graphClient.me().get();
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.models.DateTimeTimeZone;
+import com.microsoft.graph.models.Event;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.RequestInformation;
+
+// Building RequestInformation objects the way CreateRequests and
+// BatchRequests do, without sending them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestInformationBenchmark {
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private Event newEvent;
+    private String startDateTime;
+    private String endDateTime;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(0);
+        server.start();
+        graphClient = server.createClient();
+
+        final OffsetDateTime today = OffsetDateTime.of(LocalDate.now(), LocalTime.MIDNIGHT,
+            OffsetDateTime.now().getOffset());
+        startDateTime = today.toString();
+        endDateTime = today.plusDays(1).toString();
+
+        newEvent = new Event();
+        newEvent.setSubject("File end-of-day report");
+        final DateTimeTimeZone start = new DateTimeTimeZone();
+        start.setDateTime(today.plusHours(17).toLocalDateTime().toString());
+        start.setTimeZone("Pacific Standard Time");
+        newEvent.setStart(start);
+        final DateTimeTimeZone end = new DateTimeTimeZone();
+        end.setDateTime(today.plusHours(17).plusMinutes(30).toLocalDateTime().toString());
+        end.setTimeZone("Pacific Standard Time");
+        newEvent.setEnd(end);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public RequestInformation getMe() {
+        return graphClient.me().toGetRequestInformation();
+    }
+
+    @Benchmark
+    public RequestInformation getCalendarView() {
+        return graphClient.me().calendarView().toGetRequestInformation(requestConfiguration -> {
+            requestConfiguration.queryParameters.startDateTime = startDateTime;
+            requestConfiguration.queryParameters.endDateTime = endDateTime;
+        });
+    }
+
+    @Benchmark
+    public RequestInformation getMessageWithSelect() {
+        return graphClient.me().messages().byMessageId("AAMkAGVmMDEzMTM4LTZmYWUtNDdkNC1hMDZi")
+            .toGetRequestInformation(requestConfiguration -> {
+                requestConfiguration.queryParameters.select = new String[] {"subject"};
+            });
+    }
+
+    @Benchmark
+    public RequestInformation postEvent() {
+        // Includes serializing the event into the request content
+        return graphClient.me().events().toPostRequestInformation(newEvent);
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.models.Message;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+// Reading the same 50 messages by id over and over from a server with 2 ms
+// latency, without a cache, with ResponseCacheHandler revalidating every
+// response with its ETag, and with a 10 second ttl. The cache statistics are
+// printed after each iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseCacheBenchmark {
+    private static final int MESSAGE_COUNT = 50;
+
+    @Param({"none", "revalidate", "ttl"})
+    public String cache;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private ResponseCacheHandler responseCacheHandler;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(2);
+        server.start();
+        if (cache.equals("none")) {
+            graphClient = server.createClient();
+            return;
+        }
+        responseCacheHandler = new ResponseCacheHandler(16 * 1024 * 1024,
+            cache.equals("ttl") ? Duration.ofSeconds(10) : Duration.ZERO);
+        graphClient = server.createClient(GraphClientFactory.create()
+            .addInterceptor(responseCacheHandler).build());
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStats() {
+        if (null != responseCacheHandler) {
+            System.out.printf("%n%s%n", responseCacheHandler.getStats());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        next = (next + 1) % MESSAGE_COUNT;
+        return graphClient.me().messages().byMessageId("message-" + next).get();
+    }
+}
@@ -0,0 +1,528 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.kiota.authentication.AnonymousAuthenticationProvider;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.OkHttpClient;
+
+// A small in-process stand-in for the Graph endpoints the benchmarks call.
+// Every response is delayed by latencyMillis to model the network round trip.
+// With setQuota, requests beyond the quota in each one-second window get a 429
+// with Retry-After, and x-ms-throttle-limit-percentage is sent above 80% use.
+//
+// GET  /v1.0/me                     a user, with an ETag
+// GET  /v1.0/me/messages            pages of messages, sized by $top and
+//                                   pages (default 10 pages of 10)
+// GET  /v1.0/me/messages/{id}       a single message, with an ETag
+//                                   Messages have a body of
+//                                   setMessageBodySize characters (default
+//                                   none) and honour $select
+// GET  /v1.0/users/{id}/messages    pages of messages, as for /me/messages
+// GET  /v1.0/me/mailFolders/{id}/messages/delta()
+//                                   a delta query over a folder of
+//                                   setDeltaFolder messages, paged by
+//                                   Prefer: odata.maxpagesize; each round
+//                                   from a deltaLink returns changesPerRound
+//                                   changes, the last one a removal
+// GET  /v1.0/users                 setUserDirectory users created between
+//                                   USERS_FROM and USERS_TO, more of them
+//                                   in the early years; $filter on a
+//                                   createdDateTime range ("ge ... and
+//                                   ... lt ..."), paged by $top (default
+//                                   100) and $skiptoken
+// POST /v1.0/$batch                 200 for every step, with a message body;
+//                                   setBatchStepFailureRate of the steps
+//                                   get a 429 with Retry-After: 1 instead
+// POST /v1.0/...                    echoes the request body with 201
+// PUT  /upload/{name}               upload session slices; each must start
+//                                   at the next expected byte of one of the
+//                                   session's ranges, others get a 416 as
+//                                   OneDrive answers fragments out of order
+//
+// Responses with an ETag are answered with a 304 when If-None-Match matches.
+public class StubGraphServer implements AutoCloseable {
+    public static final OffsetDateTime USERS_FROM = OffsetDateTime.parse("2016-01-01T00:00:00Z");
+    public static final OffsetDateTime USERS_TO = OffsetDateTime.parse("2024-01-01T00:00:00Z");
+    private static final Pattern CREATED_RANGE = Pattern.compile(
+        "createdDateTime ge (\\S+) and createdDateTime lt (\\S+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    // The ranges an upload session was created with, and the start and end of
+    // each range that is still expected once the first slice arrives
+    private final Map<String, List<String>> uploadRanges = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Long, Long>> expectedRanges =
+        new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private volatile int quotaPerSecond;
+    private volatile int deltaMessageCount = 1000;
+    private volatile int deltaChangesPerRound = 10;
+    private volatile int userCount = 10000;
+    private volatile double batchStepFailureRate;
+    private volatile int messageBodySize;
+    private final AtomicLong responseBytes = new AtomicLong();
+    private long windowStartMillis;
+    private int windowRequests;
+
+    static {
+        // Without TCP_NODELAY small responses wait for delayed ACKs and every
+        // call takes about 40 ms regardless of the work being measured
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public StubGraphServer(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+    }
+
+    // Serves requests from now on, the setters may be called before or after
+    public void start() {
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return String.format("http://127.0.0.1:%d/v1.0", server.getAddress().getPort());
+    }
+
+    public String getUploadUrl(String name) {
+        return getUploadUrl(name, List.of("0-"));
+    }
+
+    // An upload session that expects the given nextExpectedRanges, as one
+    // resumed after an interruption would
+    public String getUploadUrl(String name, List<String> nextExpectedRanges) {
+        uploadRanges.put(name, List.copyOf(nextExpectedRanges));
+        expectedRanges.remove(name);
+        return String.format("http://127.0.0.1:%d/upload/%s", server.getAddress().getPort(), name);
+    }
+
+    public void setQuota(int quotaPerSecond) {
+        this.quotaPerSecond = quotaPerSecond;
+    }
+
+    public void setDeltaFolder(int messageCount, int changesPerRound) {
+        this.deltaMessageCount = messageCount;
+        this.deltaChangesPerRound = changesPerRound;
+    }
+
+    public void setUserDirectory(int userCount) {
+        this.userCount = userCount;
+    }
+
+    public void setBatchStepFailureRate(double batchStepFailureRate) {
+        this.batchStepFailureRate = batchStepFailureRate;
+    }
+
+    public void setMessageBodySize(int messageBodySize) {
+        this.messageBodySize = messageBodySize;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    // Response body bytes sent so far
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    // A Graph client without authentication whose requests go to this server
+    public GraphServiceClient createClient(OkHttpClient httpClient) {
+        final GraphServiceClient graphClient = new GraphServiceClient(
+            new AnonymousAuthenticationProvider(), httpClient);
+        graphClient.getRequestAdapter().setBaseUrl(getBaseUrl());
+        return graphClient;
+    }
+
+    public GraphServiceClient createClient() {
+        return createClient(GraphClientFactory.create().build());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    public static String getMessageJson(String id) {
+        return String.format("{\"id\":\"%s\",\"subject\":\"Quarterly review %s\","
+            + "\"bodyPreview\":\"Please find the notes from the quarterly review attached.\","
+            + "\"receivedDateTime\":\"2024-03-01T09:30:00Z\",\"isRead\":false,"
+            + "\"importance\":\"normal\",\"from\":{\"emailAddress\":{\"name\":\"Adele Vance\","
+            + "\"address\":\"adelev@contoso.com\"}},\"toRecipients\":[{\"emailAddress\":"
+            + "{\"name\":\"Megan Bowen\",\"address\":\"meganb@contoso.com\"}}]}", id, id);
+    }
+
+    // The message with a body of messageBodySize characters, keeping only the
+    // selected properties and annotations when select is not null
+    private String getMessage(String id, String select) {
+        final JsonObject message = JsonParser.parseString(getMessageJson(id)).getAsJsonObject();
+        if (messageBodySize > 0) {
+            final JsonObject body = new JsonObject();
+            body.addProperty("contentType", "html");
+            body.addProperty("content", "<html><body><p>" + "Notes from the review. ".repeat(
+                messageBodySize / 23 + 1).substring(0, messageBodySize) + "</p></body></html>");
+            message.add("body", body);
+        }
+        if (null != select) {
+            final Set<String> selected = Set.of(select.split(","));
+            message.keySet().removeIf(name -> !name.startsWith("@") && !selected.contains(name));
+        }
+        return message.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            requests.incrementAndGet();
+            if (quotaPerSecond > 0 && !checkQuota(exchange)) {
+                throttledRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                send(exchange, 429, "{\"error\":{\"code\":\"TooManyRequests\","
+                    + "\"message\":\"Too many requests\"}}");
+                return;
+            }
+
+            final String method = exchange.getRequestMethod();
+            final String path = exchange.getRequestURI().getRawPath();
+            if (path.startsWith("/upload/")) {
+                handleUpload(exchange, path.substring("/upload/".length()));
+            } else if (path.equals("/v1.0/$batch") || path.equals("/v1.0/%24batch")) {
+                handleBatch(exchange);
+            } else if (method.equals("POST")) {
+                final byte[] body = exchange.getRequestBody().readAllBytes();
+                send(exchange, 201, new String(body, StandardCharsets.UTF_8));
+            } else if (path.endsWith("/messages/delta()")) {
+                handleMessagesDelta(exchange, path);
+            } else if (path.equals("/v1.0/users")) {
+                handleUsersPage(exchange);
+            } else if (path.equals("/v1.0/me")) {
+                sendWithETag(exchange, "{\"id\":\"48d31887-5fad-4d73-a9f5-3c356e68a038\","
+                    + "\"displayName\":\"Megan Bowen\",\"mail\":\"meganb@contoso.com\"}");
+            } else if (path.equals("/v1.0/me/messages")
+                || (path.startsWith("/v1.0/users/") && path.endsWith("/messages"))) {
+                handleMessagesPage(exchange);
+            } else if (path.startsWith("/v1.0/me/messages/")) {
+                final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                sendWithETag(exchange, getMessage(path.substring("/v1.0/me/messages/".length()),
+                    query.get("$select")));
+            } else {
+                send(exchange, 404, "{\"error\":{\"code\":\"NotFound\",\"message\":\"Not found\"}}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean checkQuota(HttpExchange exchange) {
+        final long now = System.currentTimeMillis();
+        if (now - windowStartMillis >= 1000) {
+            windowStartMillis = now;
+            windowRequests = 0;
+        }
+        windowRequests++;
+        final double usage = (double) windowRequests / quotaPerSecond;
+        if (usage >= 0.8) {
+            exchange.getResponseHeaders().add("x-ms-throttle-limit-percentage",
+                String.format("%.2f", usage));
+        }
+        return windowRequests <= quotaPerSecond;
+    }
+
+    private void handleMessagesPage(HttpExchange exchange) throws IOException {
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        final int top = Integer.parseInt(query.getOrDefault("$top", "10"));
+        final int pages = Integer.parseInt(query.getOrDefault("pages", "10"));
+        final int page = Integer.parseInt(query.getOrDefault("page", "0"));
+        final String select = query.get("$select");
+
+        final StringBuilder body = new StringBuilder("{\"value\":[");
+        for (int i = 0; i < top; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(getMessage(page + "-" + i, select));
+        }
+        body.append(']');
+        if (page + 1 < pages) {
+            body.append(String.format(",\"@odata.nextLink\":\"%s/me/messages?%%24top=%d&pages=%d&page=%d%s\"",
+                getBaseUrl(), top, pages, page + 1, null == select
+                    ? ""
+                    : "&%24select=" + URLEncoder.encode(select, StandardCharsets.UTF_8)));
+        }
+        body.append('}');
+        send(exchange, 200, body.toString());
+    }
+
+    private void handleUsersPage(HttpExchange exchange) throws IOException {
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        final int count = userCount;
+        final int top = Integer.parseInt(query.getOrDefault("$top", "100"));
+        int start = 0;
+        int end = count;
+        final String filter = query.get("$filter");
+        if (null != filter) {
+            final Matcher matcher = CREATED_RANGE.matcher(filter);
+            if (!matcher.matches()) {
+                send(exchange, 400, "{\"error\":{\"code\":\"BadRequest\","
+                    + "\"message\":\"Unsupported filter\"}}");
+                return;
+            }
+            start = getFirstUserCreatedAtOrAfter(OffsetDateTime.parse(matcher.group(1)), count);
+            end = getFirstUserCreatedAtOrAfter(OffsetDateTime.parse(matcher.group(2)), count);
+        }
+        start = Math.max(start, Integer.parseInt(query.getOrDefault("$skiptoken", "0")));
+        final int pageEnd = Math.min(end, start + top);
+
+        final StringBuilder body = new StringBuilder("{\"value\":[");
+        for (int i = start; i < pageEnd; i++) {
+            if (i > start) {
+                body.append(',');
+            }
+            body.append(String.format("{\"id\":\"user-%d\",\"displayName\":\"User %d\","
+                + "\"userPrincipalName\":\"user-%d@contoso.com\",\"createdDateTime\":\"%s\"}",
+                i, i, i, getUserCreatedDateTime(i, count).toInstant()));
+        }
+        body.append(']');
+        if (pageEnd < end) {
+            body.append(String.format(",\"@odata.nextLink\":\"%s/users?%%24top=%d&%%24skiptoken=%d%s\"",
+                getBaseUrl(), top, pageEnd, null == filter
+                    ? ""
+                    : "&%24filter=" + URLEncoder.encode(filter, StandardCharsets.UTF_8)
+                        .replace("+", "%20")));
+        }
+        body.append('}');
+        send(exchange, 200, body.toString());
+    }
+
+    // Users get denser towards USERS_FROM, so equal date ranges hold
+    // very different numbers of users
+    private static OffsetDateTime getUserCreatedDateTime(int index, int count) {
+        final double position = Math.sqrt((double) index / count);
+        final long seconds = Duration.between(USERS_FROM, USERS_TO).getSeconds();
+        return USERS_FROM.plusSeconds((long) (position * seconds));
+    }
+
+    private static int getFirstUserCreatedAtOrAfter(OffsetDateTime dateTime, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getUserCreatedDateTime(middle, count).isBefore(dateTime)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void handleMessagesDelta(HttpExchange exchange, String path) throws IOException {
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        final String link = String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(),
+            path);
+        final int messageCount = deltaMessageCount;
+        final int changesPerRound = deltaChangesPerRound;
+
+        final StringBuilder body = new StringBuilder("{\"value\":[");
+        if (query.containsKey("$deltatoken")) {
+            final int round = Integer.parseInt(query.get("$deltatoken"));
+            for (int i = 0; i < changesPerRound; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                final String id = "delta-" + ((round * changesPerRound + i) % messageCount);
+                body.append(i + 1 < changesPerRound
+                    ? getMessageJson(id)
+                    : String.format("{\"id\":\"%s\",\"@removed\":{\"reason\":\"deleted\"}}", id));
+            }
+            body.append(String.format("],\"@odata.deltaLink\":\"%s?%%24deltatoken=%d\"}", link,
+                round + 1));
+            send(exchange, 200, body.toString());
+            return;
+        }
+
+        int pageSize = 100;
+        final String prefer = exchange.getRequestHeaders().getFirst("Prefer");
+        if (null != prefer && prefer.startsWith("odata.maxpagesize=")) {
+            pageSize = Integer.parseInt(prefer.substring("odata.maxpagesize=".length()).trim());
+        }
+        final int skip = Integer.parseInt(query.getOrDefault("$skiptoken", "0"));
+        final int end = Math.min(messageCount, skip + pageSize);
+        for (int i = skip; i < end; i++) {
+            if (i > skip) {
+                body.append(',');
+            }
+            body.append(getMessageJson("delta-" + i));
+        }
+        body.append(end < messageCount
+            ? String.format("],\"@odata.nextLink\":\"%s?%%24skiptoken=%d\"}", link, end)
+            : String.format("],\"@odata.deltaLink\":\"%s?%%24deltatoken=0\"}", link));
+        send(exchange, 200, body.toString());
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        final JsonObject batch;
+        try (InputStream input = exchange.getRequestBody()) {
+            batch = JsonParser.parseString(new String(input.readAllBytes(),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        }
+
+        final JsonArray responses = new JsonArray();
+        for (JsonElement step : batch.getAsJsonArray("requests")) {
+            final String id = step.getAsJsonObject().get("id").getAsString();
+            final boolean throttled = ThreadLocalRandom.current().nextDouble() < batchStepFailureRate;
+            final JsonObject headers = new JsonObject();
+            headers.addProperty("Content-Type", "application/json");
+            if (throttled) {
+                headers.addProperty("Retry-After", "1");
+            }
+            final JsonObject response = new JsonObject();
+            response.addProperty("id", id);
+            response.addProperty("status", throttled ? 429 : 200);
+            response.add("headers", headers);
+            response.add("body", JsonParser.parseString(throttled
+                ? "{\"error\":{\"code\":\"TooManyRequests\",\"message\":\"Too many requests\"}}"
+                : getMessageJson(id)));
+            responses.add(response);
+        }
+        final JsonObject body = new JsonObject();
+        body.add("responses", responses);
+        send(exchange, 200, body.toString());
+    }
+
+    private void handleUpload(HttpExchange exchange, String name) throws IOException {
+        final String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+        long received = 0;
+        try (InputStream input = exchange.getRequestBody()) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                received += read;
+            }
+        }
+        if (null == contentRange) {
+            send(exchange, 400, "{\"error\":{\"code\":\"InvalidRange\"}}");
+            return;
+        }
+
+        // bytes start-end/total
+        final String[] range = contentRange.substring("bytes ".length()).split("[-/]");
+        final long start = Long.parseLong(range[0]);
+        final long end = Long.parseLong(range[1]);
+        final long total = Long.parseLong(range[2]);
+        final NavigableMap<Long, Long> expected = expectedRanges.computeIfAbsent(name, k -> {
+            final NavigableMap<Long, Long> ranges = new TreeMap<>();
+            for (long[] bounds : ParallelFileUpload.parseRanges(
+                uploadRanges.getOrDefault(name, List.of("0-")), total)) {
+                ranges.put(bounds[0], bounds[1]);
+            }
+            return ranges;
+        });
+        final JsonArray nextExpectedRanges = new JsonArray();
+        synchronized (expected) {
+            final Long rangeEnd = expected.get(start);
+            if (null == rangeEnd || end > rangeEnd || received != end - start + 1) {
+                send(exchange, 416, String.format("{\"error\":{\"code\":\"InvalidRange\","
+                    + "\"message\":\"Fragment %d-%d does not start an expected range\"}}",
+                    start, end));
+                return;
+            }
+            expected.remove(start);
+            if (end < rangeEnd) {
+                expected.put(end + 1, rangeEnd);
+            }
+            for (Map.Entry<Long, Long> bounds : expected.entrySet()) {
+                nextExpectedRanges.add(bounds.getKey() + "-" + bounds.getValue());
+            }
+        }
+        if (nextExpectedRanges.isEmpty()) {
+            send(exchange, 201, String.format("{\"id\":\"%s\",\"name\":\"%s\",\"size\":%d}",
+                name, name, total));
+        } else {
+            send(exchange, 202, String.format(
+                "{\"expirationDateTime\":\"%s\",\"nextExpectedRanges\":%s}",
+                OffsetDateTime.now().plusDays(1), nextExpectedRanges));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        final Map<String, String> query = new HashMap<>();
+        if (null == rawQuery) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private void sendWithETag(HttpExchange exchange, String body) throws IOException {
+        final String etag = String.format("W/\"%08x\"", body.hashCode());
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(exchange, 200, body);
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        responseBytes.addAndGet(bytes.length);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT license.
+
+package snippets;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.microsoft.graph.core.models.UploadResult;
+import com.microsoft.graph.core.tasks.LargeFileUploadTask;
+import com.microsoft.graph.models.DriveItem;
+import com.microsoft.graph.models.UploadSession;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+
+// Uploading a 16 MiB file through LargeFileUploadTask at different slice
+// sizes, against an upload URL with 2 ms latency
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadBenchmark {
+    static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({"327680", "3276800", "16777216"})
+    public long sliceSize;
+
+    private StubGraphServer server;
+    private GraphServiceClient graphClient;
+    private Path file;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubGraphServer(2);
+        server.start();
+        graphClient = server.createClient();
+        file = createFile();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UploadResult<DriveItem> largeFileUploadTask() throws Exception {
+        try (InputStream fileStream = Files.newInputStream(file)) {
+            final LargeFileUploadTask<DriveItem> largeFileUploadTask = new LargeFileUploadTask<>(
+                graphClient.getRequestAdapter(),
+                createUploadSession(server, "upload-task"),
+                fileStream,
+                FILE_SIZE,
+                sliceSize,
+                DriveItem::createFromDiscriminatorValue);
+            return largeFileUploadTask.upload();
+        }
+    }
+
+    static Path createFile() throws Exception {
+        final byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        final Path file = Files.createTempFile("upload-benchmark", ".bin");
+        Files.write(file, content);
+        return file;
+    }
+
+    static UploadSession createUploadSession(StubGraphServer server, String name) {
+        final UploadSession uploadSession = new UploadSession();
+        uploadSession.setUploadUrl(server.getUploadUrl(name));
+        uploadSession.setExpirationDateTime(OffsetDateTime.now().plusDays(1));
+        uploadSession.setNextExpectedRanges(List.of("0-"));
+        return uploadSession;
+    }
+}